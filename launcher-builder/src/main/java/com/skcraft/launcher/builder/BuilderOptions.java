@@ -58,6 +58,20 @@ public class BuilderOptions {
     @Parameter(names = "--objects-url")
     private String objectsLocation = "objects";
 
+    // Bundles
+    @Parameter(names = "--bundle-threshold")
+    private long bundleThreshold = 0;
+    @Parameter(names = "--bundle-size")
+    private long bundleSize = 4 * 1024 * 1024;
+
+    // Patches
+    @Parameter(names = "--patch-from")
+    private File previousManifestPath;
+    @Parameter(names = "--patch-objects")
+    private File previousObjectsDir;
+    @Parameter(names = "--patch-min-size")
+    private long patchMinSize = 256 * 1024;
+
     // Misc
     @Parameter(names = "--pretty-print")
     private boolean prettyPrinting;
@@ -92,6 +106,10 @@ public class BuilderOptions {
             requireOutputPath("--libs-dest");
             librariesDir = new File(outputPath, librariesLocation);
         }
+
+        if (previousObjectsDir == null) {
+            previousObjectsDir = objectsDir;
+        }
     }
 
     private void requireOutputPath(String name) throws ParameterException {
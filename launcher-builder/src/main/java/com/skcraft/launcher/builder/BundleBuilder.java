@@ -0,0 +1,190 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.builder;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.skcraft.launcher.install.ObjectStore;
+import com.skcraft.launcher.model.modpack.Bundle;
+import com.skcraft.launcher.model.modpack.Condition;
+import com.skcraft.launcher.model.modpack.FileInstall;
+import com.skcraft.launcher.model.modpack.Manifest;
+import com.skcraft.launcher.model.modpack.ManifestEntry;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import lombok.extern.java.Log;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Packs the small files of a manifest into {@link Bundle}s, so that a fresh
+ * install can fetch them with a few requests rather than one request each.
+ * </p>
+ * Files are only bundled with other files that have the same condition, so
+ * that an optional feature's files are not downloaded if it is not selected.
+ * The entries of a bundle are stored uncompressed and the whole archive is
+ * compressed at once, which compresses many similar small files far better
+ * than compressing them one at a time.
+ */
+@Log
+public class BundleBuilder {
+
+    public static final String BUNDLES_LOCATION = "bundles";
+
+    private final HashFunction hf = Hashing.sha1();
+    private final Manifest manifest;
+    private final File objectsDir;
+    @Getter @Setter private long threshold = 64 * 1024;
+    @Getter @Setter private long maxSize = 4 * 1024 * 1024;
+    private int fileCount;
+    private long sourceSize;
+    private long bundledSize;
+
+    /**
+     * Create a new bundle builder.
+     *
+     * @param manifest the manifest
+     * @param objectsDir the directory containing the hashed objects
+     */
+    public BundleBuilder(@NonNull Manifest manifest, @NonNull File objectsDir) {
+        this.manifest = manifest;
+        this.objectsDir = objectsDir;
+    }
+
+    /**
+     * Bundle the files of the manifest that are no larger than the threshold.
+     *
+     * @throws IOException thrown on I/O error
+     */
+    public void build() throws IOException {
+        Map<Condition, List<FileInstall>> groups = new LinkedHashMap<Condition, List<FileInstall>>();
+
+        for (ManifestEntry entry : manifest.getTasks()) {
+            if (entry instanceof FileInstall && isBundleable((FileInstall) entry)) {
+                List<FileInstall> group = groups.get(entry.getWhen());
+                if (group == null) {
+                    group = new ArrayList<FileInstall>();
+                    groups.put(entry.getWhen(), group);
+                }
+                group.add((FileInstall) entry);
+            }
+        }
+
+        for (List<FileInstall> group : groups.values()) {
+            // Keep similar files next to each other for better compression
+            Collections.sort(group, new Comparator<FileInstall>() {
+                @Override
+                public int compare(FileInstall o1, FileInstall o2) {
+                    return o1.getTargetPath().compareTo(o2.getTargetPath());
+                }
+            });
+
+            Map<String, List<FileInstall>> pending = new LinkedHashMap<String, List<FileInstall>>();
+            long pendingSize = 0;
+
+            for (FileInstall file : group) {
+                String hash = file.getHash().toLowerCase();
+                List<FileInstall> users = pending.get(hash);
+                if (users == null) {
+                    if (pendingSize + file.getSize() > maxSize && !pending.isEmpty()) {
+                        writeBundle(pending);
+                        pending.clear();
+                        pendingSize = 0;
+                    }
+                    users = new ArrayList<FileInstall>();
+                    pending.put(hash, users);
+                    pendingSize += file.getSize();
+                }
+                users.add(file);
+            }
+
+            writeBundle(pending);
+        }
+
+        log.info(String.format("Bundled %d files (%d bytes) into %d bundles (%d bytes)",
+                fileCount, sourceSize, manifest.getBundles().size(), bundledSize));
+    }
+
+    private boolean isBundleable(FileInstall file) {
+        String hash = file.getHash();
+        return ObjectStore.isValidHash(hash)
+                && file.getSize() <= threshold
+                && getDefaultLocation(hash).equals(file.getLocation())
+                && new File(objectsDir, file.getLocation()).isFile();
+    }
+
+    private void writeBundle(Map<String, List<FileInstall>> objects) throws IOException {
+        // A bundle of one file saves nothing
+        if (objects.size() < 2) {
+            return;
+        }
+
+        File bundlesDir = new File(objectsDir, BUNDLES_LOCATION);
+        bundlesDir.mkdirs();
+        File tempFile = File.createTempFile("bundle", ".tmp", bundlesDir);
+
+        try {
+            ZipOutputStream zos = new ZipOutputStream(new GZIPOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempFile))));
+            try {
+                for (String hash : objects.keySet()) {
+                    File source = new File(objectsDir, getDefaultLocation(hash));
+                    ZipEntry entry = new ZipEntry(hash);
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(source.length());
+                    entry.setCompressedSize(source.length());
+                    entry.setCrc(Files.hash(source, Hashing.crc32()).padToLong());
+                    zos.putNextEntry(entry);
+                    Files.copy(source, zos);
+                    zos.closeEntry();
+                    sourceSize += source.length();
+                }
+            } finally {
+                zos.close();
+            }
+
+            String hash = Files.hash(tempFile, hf).toString();
+            String location = BUNDLES_LOCATION + "/" + hash;
+            File destPath = new File(objectsDir, location);
+            destPath.delete();
+            if (!tempFile.renameTo(destPath)) {
+                throw new IOException("Failed to move " + tempFile + " to " + destPath);
+            }
+
+            Bundle bundle = new Bundle();
+            bundle.setHash(hash);
+            bundle.setLocation(location);
+            bundle.setSize(destPath.length());
+            bundle.getObjects().addAll(objects.keySet());
+            manifest.getBundles().add(bundle);
+
+            for (List<FileInstall> files : objects.values()) {
+                for (FileInstall file : files) {
+                    file.setBundle(hash);
+                    fileCount++;
+                }
+            }
+
+            log.info(String.format("Wrote bundle %s with %d objects (%d bytes)",
+                    hash, objects.size(), bundle.getSize()));
+            bundledSize += bundle.getSize();
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    private static String getDefaultLocation(String hash) {
+        return hash.substring(0, 2) + "/" + hash.substring(2, 4) + "/" + hash;
+    }
+
+}
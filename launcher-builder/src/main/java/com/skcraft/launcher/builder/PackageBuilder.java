@@ -23,7 +23,9 @@ import com.skcraft.launcher.LauncherUtils;
 import com.skcraft.launcher.model.loader.InstallProfile;
 import com.skcraft.launcher.model.minecraft.Library;
 import com.skcraft.launcher.model.minecraft.VersionManifest;
+import com.skcraft.launcher.model.modpack.FileInstall;
 import com.skcraft.launcher.model.modpack.Manifest;
+import com.skcraft.launcher.model.modpack.ManifestEntry;
 import com.skcraft.launcher.util.Environment;
 import com.skcraft.launcher.util.HttpRequest;
 import com.skcraft.launcher.util.SimpleLogFormatter;
@@ -114,6 +116,36 @@ public class PackageBuilder {
         collector.walk(dir);
     }
 
+    public void addBundles(File objectsDir, long threshold, long maxSize) throws IOException {
+        logSection("Bundling small files...");
+
+        BundleBuilder bundler = new BundleBuilder(this.manifest, objectsDir);
+        bundler.setThreshold(threshold);
+        bundler.setMaxSize(maxSize);
+        bundler.build();
+
+        if (!manifest.getBundles().isEmpty()) {
+            manifest.setMinimumVersion(Math.max(manifest.getMinimumVersion(), Manifest.BUNDLE_PROTOCOL_VERSION));
+        }
+    }
+
+    public void addPatches(File previousManifestPath, File previousObjectsDir,
+                           File objectsDir, long minSize) throws IOException {
+        logSection("Creating patches from the previous version...");
+
+        Manifest previous = read(previousManifestPath, Manifest.class);
+        PatchBuilder patcher = new PatchBuilder(this.manifest, objectsDir);
+        patcher.setMinSize(minSize);
+        patcher.build(previous, previousObjectsDir);
+
+        for (ManifestEntry entry : manifest.getTasks()) {
+            if (entry instanceof FileInstall && !((FileInstall) entry).getPatches().isEmpty()) {
+                manifest.setMinimumVersion(Math.max(manifest.getMinimumVersion(), Manifest.PATCH_PROTOCOL_VERSION));
+                break;
+            }
+        }
+    }
+
     public void addLoaders(File dir, File librariesDir) {
         logSection("Checking for mod loaders to install...");
 
@@ -307,7 +339,6 @@ public class PackageBuilder {
                     .get(url)
                     .execute()
                     .expectResponseCode(200)
-                    .returnContent()
                     .asJson(VersionManifest.class));
         }
     }
@@ -390,6 +421,13 @@ public class PackageBuilder {
 
         builder.scan(options.getFilesDir());
         builder.addFiles(options.getFilesDir(), options.getObjectsDir());
+        if (options.getPreviousManifestPath() != null) {
+            builder.addPatches(options.getPreviousManifestPath(), options.getPreviousObjectsDir(),
+                    options.getObjectsDir(), options.getPatchMinSize());
+        }
+        if (options.getBundleThreshold() > 0) {
+            builder.addBundles(options.getObjectsDir(), options.getBundleThreshold(), options.getBundleSize());
+        }
         builder.addLoaders(options.getLoadersDir(), options.getLibrariesDir());
         builder.downloadLibraries(options.getLibrariesDir());
         builder.writeManifest(options.getManifestPath());
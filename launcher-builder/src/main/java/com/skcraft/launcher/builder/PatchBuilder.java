@@ -0,0 +1,149 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.builder;
+
+import com.google.common.io.Files;
+import com.skcraft.launcher.install.ObjectStore;
+import com.skcraft.launcher.model.modpack.FileInstall;
+import com.skcraft.launcher.model.modpack.Manifest;
+import com.skcraft.launcher.model.modpack.ManifestEntry;
+import com.skcraft.launcher.model.modpack.Patch;
+import com.skcraft.launcher.util.BinaryDelta;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import lombok.extern.java.Log;
+import org.apache.commons.io.FilenameUtils;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Creates binary patches from the files of a previous build of a package to
+ * the files that replace them in the new build.
+ * </p>
+ * Files are matched by their install path. A patch is only kept if it is
+ * much smaller than the new file, and the launcher falls back to the whole
+ * file whenever it does not have the old version.
+ */
+@Log
+public class PatchBuilder {
+
+    public static final String PATCHES_LOCATION = "patches";
+
+    private final Manifest manifest;
+    private final File objectsDir;
+    @Getter @Setter private long minSize = 256 * 1024;
+    @Getter @Setter private double maxRatio = 0.5;
+    private int patchCount;
+    private long fullSize;
+    private long patchSize;
+
+    /**
+     * Create a new patch builder.
+     *
+     * @param manifest the manifest of the new build
+     * @param objectsDir the directory containing the hashed objects
+     */
+    public PatchBuilder(@NonNull Manifest manifest, @NonNull File objectsDir) {
+        this.manifest = manifest;
+        this.objectsDir = objectsDir;
+    }
+
+    /**
+     * Create patches from the files of the given previous build.
+     *
+     * @param previous the manifest of the previous build
+     * @param previousObjectsDir the directory containing the previous build's objects
+     * @throws IOException thrown on I/O error
+     */
+    public void build(@NonNull Manifest previous, @NonNull File previousObjectsDir) throws IOException {
+        Map<String, FileInstall> previousFiles = new HashMap<String, FileInstall>();
+        for (ManifestEntry entry : previous.getTasks()) {
+            if (entry instanceof FileInstall) {
+                FileInstall file = (FileInstall) entry;
+                previousFiles.put(getKey(file), file);
+            }
+        }
+
+        for (ManifestEntry entry : manifest.getTasks()) {
+            if (entry instanceof FileInstall) {
+                FileInstall file = (FileInstall) entry;
+                FileInstall old = previousFiles.get(getKey(file));
+                if (old != null && isPatchable(old, file)) {
+                    addPatch(old, new File(previousObjectsDir, old.getLocation()), file);
+                }
+            }
+        }
+
+        log.info(String.format("Created %d patches (%d bytes instead of %d bytes)", patchCount, patchSize, fullSize));
+    }
+
+    private boolean isPatchable(FileInstall old, FileInstall file) {
+        return ObjectStore.isValidHash(old.getHash())
+                && ObjectStore.isValidHash(file.getHash())
+                && !old.getHash().equalsIgnoreCase(file.getHash())
+                && file.getSize() >= minSize
+                && new File(objectsDir, file.getLocation()).isFile();
+    }
+
+    private void addPatch(FileInstall old, File oldFile, FileInstall file) throws IOException {
+        if (!oldFile.isFile()) {
+            log.warning("Can't create a patch for " + file.getTargetPath() + " because " + oldFile + " is missing");
+            return;
+        }
+
+        String location = PATCHES_LOCATION + "/" + old.getHash().toLowerCase() + "-" + file.getHash().toLowerCase();
+        File patchFile = new File(objectsDir, location);
+
+        if (!patchFile.isFile()) {
+            byte[] source = Files.toByteArray(oldFile);
+            byte[] target = Files.toByteArray(new File(objectsDir, file.getLocation()));
+
+            patchFile.getParentFile().mkdirs();
+            File tempFile = new File(patchFile.getParentFile(), patchFile.getName() + ".tmp");
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile));
+            try {
+                BinaryDelta.diff(source, target, out);
+            } finally {
+                out.close();
+            }
+
+            if (!tempFile.renameTo(patchFile)) {
+                tempFile.delete();
+                throw new IOException("Failed to move " + tempFile + " to " + patchFile);
+            }
+        }
+
+        long size = patchFile.length();
+        if (size > file.getSize() * maxRatio) {
+            log.info(String.format("Not patching %s because the patch is %d bytes for a file of %d bytes",
+                    file.getTargetPath(), size, file.getSize()));
+            patchFile.delete();
+            return;
+        }
+
+        Patch patch = new Patch();
+        patch.setFrom(old.getHash());
+        patch.setLocation(location);
+        patch.setSize(size);
+        file.getPatches().add(patch);
+
+        log.info(String.format("Patching %s from %s (%d bytes instead of %d bytes)",
+                file.getTargetPath(), old.getHash(), size, file.getSize()));
+
+        patchCount++;
+        patchSize += size;
+        fullSize += file.getSize();
+    }
+
+    private static String getKey(FileInstall file) {
+        return FilenameUtils.normalize(file.getTargetPath());
+    }
+
+}
@@ -19,6 +19,7 @@ public class FancyLauncher {
 
     public static void main(final String[] args) {
         Launcher.setupLogger();
+        Launcher.setupNetworking();
 
         SwingUtilities.invokeLater(new Runnable() {
             @Override
@@ -6,7 +6,6 @@
 
 package com.skcraft.launcher;
 
-import com.google.common.io.Files;
 import com.skcraft.concurrency.ProgressObservable;
 import com.skcraft.launcher.model.minecraft.Asset;
 import com.skcraft.launcher.model.minecraft.AssetsIndex;
@@ -114,7 +113,7 @@ public class AssetsRoot {
                         throw new LauncherException("Missing object " + objectPath.getAbsolutePath(), message);
                     }
 
-                    Files.copy(objectPath, virtualPath);
+                    LauncherUtils.copyFile(objectPath, virtualPath);
                 }
                 processed++;
             }
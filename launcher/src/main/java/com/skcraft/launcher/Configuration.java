@@ -7,6 +7,8 @@
 package com.skcraft.launcher;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.skcraft.launcher.install.DownloadEngine;
+import com.skcraft.launcher.install.SchedulingPolicy;
 import lombok.Data;
 
 /**
@@ -36,6 +38,18 @@ public class Configuration {
     private String proxyUsername;
     private String proxyPassword;
     private String gameKey;
+    private int minDownloadConcurrency = 2;
+    private int maxDownloadConcurrency = 16;
+    private int installThreads = 0;
+    private SchedulingPolicy downloadSchedulingPolicy = SchedulingPolicy.LARGEST_FIRST;
+    private DownloadEngine downloadEngine = DownloadEngine.BLOCKING;
+    private boolean pipelinedInstall = true;
+    private int bandwidthLimit = 0;
+    private int foregroundBandwidthLimit = 0;
+    private int backgroundBandwidthLimit = 0;
+    private boolean mirrorServerEnabled = false;
+    private int mirrorServerPort = 24680;
+    private String localMirrors;
 
     @Override
     public boolean equals(Object o) {
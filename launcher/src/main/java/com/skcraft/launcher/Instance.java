@@ -105,6 +105,17 @@ public class Instance implements Comparable<Instance> {
         return dir;
     }
 
+    /**
+     * Get the file for the directory where an update stages its files
+     * before they replace those of the instance.
+     *
+     * @return the staging directory, which may not exist
+     */
+    @JsonIgnore
+    public File getStagingDir() {
+        return new File(getDir(), "staging");
+    }
+
     /**
      * Get the file for the package manifest.
      *
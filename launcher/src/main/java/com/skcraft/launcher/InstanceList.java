@@ -135,9 +135,9 @@ public class InstanceList {
 
                 PackageList packages = HttpRequest
                         .get(packagesURL)
+                        .cache(launcher.getHttpCache())
                         .execute()
                         .expectResponseCode(200)
-                        .returnContent()
                         .asJson(PackageList.class);
 
                 if (packages.getMinimumVersion() > Launcher.PROTOCOL_VERSION) {
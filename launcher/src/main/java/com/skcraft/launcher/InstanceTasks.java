@@ -41,7 +41,7 @@ public class InstanceTasks {
 
     public ObservableFuture<Instance> hardUpdate(Window window, Instance instance) {
         // Execute the resetter
-        HardResetter resetter = new HardResetter(instance);
+        HardResetter resetter = new HardResetter(launcher, instance);
         ObservableFuture<Instance> future = new ObservableFuture<Instance>(
                 launcher.getExecutor().submit(resetter), resetter);
 
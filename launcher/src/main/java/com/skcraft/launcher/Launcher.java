@@ -15,11 +15,18 @@ import com.google.common.util.concurrent.MoreExecutors;
 import com.skcraft.launcher.auth.AccountList;
 import com.skcraft.launcher.auth.LoginService;
 import com.skcraft.launcher.auth.YggdrasilLoginService;
+import com.skcraft.launcher.install.MirrorServer;
+import com.skcraft.launcher.install.ObjectStore;
 import com.skcraft.launcher.launch.LaunchSupervisor;
+import com.skcraft.launcher.launch.NativesCache;
 import com.skcraft.launcher.model.minecraft.VersionManifest;
 import com.skcraft.launcher.persistence.Persistence;
 import com.skcraft.launcher.swing.SwingHelper;
 import com.skcraft.launcher.update.UpdateManager;
+import com.skcraft.launcher.util.BandwidthLimiter;
+import com.skcraft.launcher.util.Environment;
+import com.skcraft.launcher.util.HttpCache;
+import com.skcraft.launcher.util.HttpConnections;
 import com.skcraft.launcher.util.HttpRequest;
 import com.skcraft.launcher.util.Platform;
 import com.skcraft.launcher.util.SharedLocale;
@@ -36,8 +43,11 @@ import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 import java.util.Properties;
 import java.util.concurrent.Executors;
@@ -49,7 +59,7 @@ import java.util.logging.Level;
 @Log
 public final class Launcher {
 
-    public static final int PROTOCOL_VERSION = 2;
+    public static final int PROTOCOL_VERSION = 3;
 
     @Getter
     private final ListeningExecutorService executor = MoreExecutors.listeningDecorator(Executors.newCachedThreadPool());
@@ -60,6 +70,10 @@ public final class Launcher {
     @Getter private final Configuration config;
     @Getter private final AccountList accounts;
     @Getter private final AssetsRoot assets;
+    @Getter private final ObjectStore objectStore;
+    @Getter private final NativesCache nativesCache;
+    @Getter private final MirrorServer mirrorServer;
+    @Getter private final HttpCache httpCache;
     @Getter private final LaunchSupervisor launchSupervisor = new LaunchSupervisor(this);
     @Getter private final UpdateManager updateManager = new UpdateManager(this);
     @Getter private final InstanceTasks instanceTasks = new InstanceTasks(this);
@@ -88,6 +102,13 @@ public final class Launcher {
                 "launcher.properties", "com.skcraft.launcher.propertiesFile");
         this.instances = new InstanceList(this);
         this.assets = new AssetsRoot(new File(baseDir, "assets"));
+        this.objectStore = new ObjectStore(getObjectsDir());
+        this.nativesCache = new NativesCache(getNativesDir());
+        this.httpCache = new HttpCache(new File(getTemporaryDir(), "http-cache"));
+        this.mirrorServer = new MirrorServer(objectStore, assets.getDir(), getLibrariesDir());
+
+        applyBandwidthLimits();
+        applyMirrorSettings();
 
         if (accounts.getSize() > 0) {
             accounts.setSelectedItem(accounts.getElementAt(0));
@@ -97,6 +118,7 @@ public final class Launcher {
             @Override
             public void run() {
                 cleanupExtractDir();
+                cleanupNativesCache();
             }
         });
 
@@ -152,6 +174,16 @@ public final class Launcher {
         return new File(getTemporaryDir(), "install");
     }
 
+    /**
+     * Get the file for the journal of an update of the given instance.
+     *
+     * @param instance the instance
+     * @return the journal file, which may not exist
+     */
+    public File getJournalPath(Instance instance) {
+        return new File(getInstallerDir(), instance.getDir().getName() + ".journal");
+    }
+
     /**
      * Get the directory to store temporarily extracted files.
      *
@@ -194,15 +226,29 @@ public final class Launcher {
     }
 
     /**
-     * Create a new temporary directory to extract files to.
-     *
-     * @return the directory path
+     * Delete the extracted native libraries that no instance uses any more.
      */
-    public File createExtractDir() {
-        File dir = new File(getExtractDir(), String.valueOf(System.currentTimeMillis()));
-        dir.mkdirs();
-        log.info("Created temporary directory " + dir.getAbsolutePath());
-        return dir;
+    public void cleanupNativesCache() {
+        log.info("Cleaning up unused native libraries...");
+
+        List<List<NativesCache.Native>> used = new ArrayList<List<NativesCache.Native>>();
+        File[] dirs = getInstancesDir().listFiles();
+        if (dirs != null) {
+            for (File dir : dirs) {
+                File versionPath = new File(dir, "version.json");
+                if (versionPath.isFile()) {
+                    VersionManifest versionManifest = Persistence.read(versionPath, VersionManifest.class, true);
+                    if (versionManifest == null) {
+                        // Don't delete anything if it's not known what is still needed
+                        log.warning("Not cleaning up native libraries because " + versionPath + " can't be read");
+                        return;
+                    }
+                    used.add(NativesCache.getNatives(versionManifest, getLibrariesDir(), Environment.getInstance()));
+                }
+            }
+        }
+
+        nativesCache.collectGarbage(used);
     }
 
     /**
@@ -232,6 +278,24 @@ public final class Launcher {
         return new File(getCommonDataDir(), "libraries");
     }
 
+    /**
+     * Get the directory to keep the extracted native libraries in.
+     *
+     * @return the natives directory
+     */
+    public File getNativesDir() {
+        return new File(getCommonDataDir(), "natives");
+    }
+
+    /**
+     * Get the directory to store modpack objects shared between instances.
+     *
+     * @return the objects directory
+     */
+    public File getObjectsDir() {
+        return new File(getCommonDataDir(), "objects");
+    }
+
     /**
      * Get the directory to store versions.
      *
@@ -394,6 +458,68 @@ public final class Launcher {
         SimpleLogFormatter.configureGlobalLogger();
     }
 
+    /**
+     * Apply the bandwidth limits from the configuration.
+     */
+    public void applyBandwidthLimits() {
+        BandwidthLimiter.setLimits(config.getBandwidthLimit(),
+                config.getForegroundBandwidthLimit(), config.getBackgroundBandwidthLimit());
+    }
+
+    /**
+     * Start or stop serving downloaded files to other launchers on the
+     * local network according to the configuration.
+     */
+    public void applyMirrorSettings() {
+        if (config.isMirrorServerEnabled()) {
+            try {
+                mirrorServer.start(config.getMirrorServerPort());
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Failed to start the mirror server on port " + config.getMirrorServerPort(), e);
+            }
+        } else {
+            mirrorServer.stop();
+        }
+    }
+
+    /**
+     * Get the base URLs of the other launchers on the local network to
+     * download files from first, which are configured as a list of
+     * addresses separated by commas or spaces.
+     *
+     * @return a list of URLs
+     */
+    public List<URL> getLocalMirrors() {
+        List<URL> mirrors = new ArrayList<URL>();
+        String value = config.getLocalMirrors();
+        if (value != null) {
+            for (String entry : value.split("[,\\s]+")) {
+                if (entry.isEmpty()) {
+                    continue;
+                }
+                if (!entry.contains("://")) {
+                    entry = "http://" + entry;
+                }
+                if (!entry.endsWith("/")) {
+                    entry += "/";
+                }
+                try {
+                    mirrors.add(new URL(entry));
+                } catch (MalformedURLException e) {
+                    log.warning("Ignoring invalid local mirror " + entry);
+                }
+            }
+        }
+        return mirrors;
+    }
+
+    /**
+     * Configure networking before any connection is made.
+     */
+    public static void setupNetworking() {
+        HttpConnections.init();
+    }
+
     /**
      * Detect platform.
      *
@@ -422,6 +548,7 @@ public final class Launcher {
      */
     public static void main(final String[] args) {
         setupLogger();
+        setupNetworking();
 
         SwingUtilities.invokeLater(new Runnable() {
             @Override
@@ -12,6 +12,7 @@ import lombok.extern.java.Log;
 import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.channels.FileChannel;
 import java.util.List;
 import java.util.Properties;
 import java.util.regex.Pattern;
@@ -81,6 +82,59 @@ public final class LauncherUtils {
 
 
 
+    /**
+     * Copy a file, replacing the target, by letting the operating system
+     * transfer the data between the two files instead of copying it through
+     * a buffer on the Java heap.
+     *
+     * @param from the source file
+     * @param to the target file
+     * @throws IOException thrown on I/O error
+     */
+    public static void copyFile(File from, File to) throws IOException {
+        Closer closer = Closer.create();
+        try {
+            FileChannel source = closer.register(new FileInputStream(from)).getChannel();
+            FileChannel target = closer.register(new FileOutputStream(to)).getChannel();
+            long size = source.size();
+            long position = 0;
+            while (position < size) {
+                long transferred = source.transferTo(position, size - position, target);
+                if (transferred <= 0) {
+                    throw new IOException("Failed to copy " + from + " to " + to);
+                }
+                position += transferred;
+            }
+        } finally {
+            closer.close();
+        }
+    }
+
+    /**
+     * Move a file, replacing the target. The file is renamed if it can be,
+     * and otherwise (such as when the target is on another file system) it is
+     * copied to a temporary file next to the target that is then renamed,
+     * so that the target is never left half-written.
+     *
+     * @param from the source file
+     * @param to the target file
+     * @throws IOException thrown if the file could not be moved
+     */
+    public static void moveFile(File from, File to) throws IOException {
+        to.delete();
+        if (from.renameTo(to)) {
+            return;
+        }
+
+        File tempFile = new File(to.getParentFile(), to.getName() + ".tmp");
+        copyFile(from, tempFile);
+        if (!tempFile.renameTo(to)) {
+            tempFile.delete();
+            throw new IOException("Failed to move " + from + " to " + to);
+        }
+        from.delete();
+    }
+
     public static void interruptibleDelete(File file, List<File> failures) throws IOException, InterruptedException {
         checkInterrupted();
 
@@ -48,6 +48,12 @@ public class ConfigurationDialog extends JDialog {
     private final JPasswordField proxyPasswordText = new JPasswordField();
     private final FormPanel advancedPanel = new FormPanel();
     private final JTextField gameKeyText = new JTextField();
+    private final JSpinner bandwidthLimitSpinner = new JSpinner();
+    private final JSpinner foregroundBandwidthLimitSpinner = new JSpinner();
+    private final JSpinner backgroundBandwidthLimitSpinner = new JSpinner();
+    private final JCheckBox mirrorServerCheck = new JCheckBox(SharedLocale.tr("options.mirrorServerEnabled"));
+    private final JSpinner mirrorServerPortSpinner = new JSpinner();
+    private final JTextField localMirrorsText = new JTextField();
     private final LinedBoxPanel buttonsPanel = new LinedBoxPanel(true);
     private final JButton okButton = new JButton(SharedLocale.tr("button.ok"));
     private final JButton cancelButton = new JButton(SharedLocale.tr("button.cancel"));
@@ -88,6 +94,12 @@ public class ConfigurationDialog extends JDialog {
         mapper.map(proxyUsernameText, "proxyUsername");
         mapper.map(proxyPasswordText, "proxyPassword");
         mapper.map(gameKeyText, "gameKey");
+        mapper.map(bandwidthLimitSpinner, "bandwidthLimit");
+        mapper.map(foregroundBandwidthLimitSpinner, "foregroundBandwidthLimit");
+        mapper.map(backgroundBandwidthLimitSpinner, "backgroundBandwidthLimit");
+        mapper.map(mirrorServerCheck, "mirrorServerEnabled");
+        mapper.map(mirrorServerPortSpinner, "mirrorServerPort");
+        mapper.map(localMirrorsText, "localMirrors");
 
         mapper.copyFromObject();
     }
@@ -127,6 +139,13 @@ public class ConfigurationDialog extends JDialog {
         tabbedPane.addTab(SharedLocale.tr("options.proxyTab"), SwingHelper.alignTabbedPane(proxySettingsPanel));
 
         advancedPanel.addRow(new JLabel(SharedLocale.tr("options.gameKey")), gameKeyText);
+        advancedPanel.addRow(new JLabel(SharedLocale.tr("options.bandwidthLimitInfo")));
+        advancedPanel.addRow(new JLabel(SharedLocale.tr("options.bandwidthLimit")), bandwidthLimitSpinner);
+        advancedPanel.addRow(new JLabel(SharedLocale.tr("options.foregroundBandwidthLimit")), foregroundBandwidthLimitSpinner);
+        advancedPanel.addRow(new JLabel(SharedLocale.tr("options.backgroundBandwidthLimit")), backgroundBandwidthLimitSpinner);
+        advancedPanel.addRow(mirrorServerCheck);
+        advancedPanel.addRow(new JLabel(SharedLocale.tr("options.mirrorServerPort")), mirrorServerPortSpinner);
+        advancedPanel.addRow(new JLabel(SharedLocale.tr("options.localMirrors")), localMirrorsText);
         SwingHelper.removeOpaqueness(advancedPanel);
         tabbedPane.addTab(SharedLocale.tr("options.advancedTab"), SwingHelper.alignTabbedPane(advancedPanel));
 
@@ -165,6 +184,8 @@ public class ConfigurationDialog extends JDialog {
     public void save() {
         mapper.copyFromSwing();
         Persistence.commitAndForget(config);
+        launcher.applyBandwidthLimits();
+        launcher.applyMirrorSettings();
         dispose();
     }
 }
@@ -0,0 +1,65 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import com.skcraft.launcher.util.HttpStatusException;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Random;
+
+/**
+ * Retries with exponentially growing delays, picking a random delay up to
+ * the limit for each round ("full jitter") so that many downloads that failed
+ * together don't all retry at the same moment.
+ * </p>
+ * Server errors, throttling and network errors are retried. Other client
+ * errors, such as 404 Not Found, are not, because asking again won't make
+ * the mirror have the file.
+ */
+public class BackoffRetryPolicy implements RetryPolicy {
+
+    private final Random random = new Random();
+    @Getter @Setter private int maxAttempts = 5;
+    @Getter @Setter private long baseDelay = 1000;
+    @Getter @Setter private long maxDelay = 30000;
+
+    @Override
+    public long getDelay(int attempt) {
+        long limit = Math.min(maxDelay, baseDelay << Math.min(30, Math.max(0, attempt - 1)));
+        synchronized (random) {
+            return (long) (random.nextDouble() * limit);
+        }
+    }
+
+    @Override
+    public boolean isRetryable(IOException e) {
+        if (e instanceof HttpStatusException) {
+            int code = ((HttpStatusException) e).getResponseCode();
+            return code >= 500 || code == 408 || code == 429;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isMirrorFailure(IOException e) {
+        if (e instanceof HttpStatusException) {
+            int code = ((HttpStatusException) e).getResponseCode();
+            return code >= 500 || code == 429;
+        }
+        return e instanceof SocketTimeoutException
+                || e instanceof ConnectException
+                || e instanceof NoRouteToHostException
+                || e instanceof UnknownHostException;
+    }
+
+}
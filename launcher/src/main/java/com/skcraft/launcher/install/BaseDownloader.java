@@ -0,0 +1,436 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.skcraft.concurrency.ProgressObservable;
+import com.skcraft.launcher.util.BandwidthLimiter;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import lombok.extern.java.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The parts of a {@link Downloader} that do not depend on how files are
+ * transferred: queueing downloads, reusing files that an earlier run
+ * finished, scheduling, finishing downloads and tracking progress.
+ *
+ * @param <J> the type of job
+ */
+@Log
+public abstract class BaseDownloader<J extends BaseDownloader.Job> implements Downloader {
+
+    private static final int MAX_SNAPSHOT_ATTEMPTS = 8;
+
+    protected final HashFunction hf = Hashing.sha1();
+
+    private final File tempDir;
+    @Getter @Setter @NonNull private RetryPolicy retryPolicy = new BackoffRetryPolicy();
+    @Getter @Setter @NonNull private SchedulingPolicy schedulingPolicy = SchedulingPolicy.LARGEST_FIRST;
+    @Getter @Setter @NonNull private BandwidthLimiter.Budget budget = BandwidthLimiter.Budget.FOREGROUND;
+    @Getter @Setter private DownloadJournal journal;
+    @Getter @Setter private volatile DownloadListener listener;
+
+    private List<J> queue = new ArrayList<J>();
+    private final Set<String> usedKeys = new HashSet<String>();
+
+    @Getter protected final ConcurrencyController concurrencyController = new ConcurrencyController(2, 16);
+    @Getter protected final MirrorStats mirrorStats = new MirrorStats();
+    @Getter protected final CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+    // Progress is tracked without locks so that polling it never holds up the downloads
+    private final Set<J> running = Collections.newSetFromMap(new ConcurrentHashMap<J, Boolean>());
+    private final Set<J> failed = Collections.newSetFromMap(new ConcurrentHashMap<J, Boolean>());
+    private final Set<File> optional = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+    private final AtomicLong downloaded = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger left = new AtomicInteger();
+    private final AtomicInteger updating = new AtomicInteger();
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * Create a new downloader.
+     *
+     * @param tempDir the temporary directory
+     */
+    protected BaseDownloader(@NonNull File tempDir) {
+        this.tempDir = tempDir;
+    }
+
+    /**
+     * Create a job for a download that has been queued.
+     *
+     * @param destFile the file to save the download to
+     * @param urls the URLs to try
+     * @param size the expected size in bytes
+     * @param hash the expected SHA-1 hash, or null to not verify
+     * @param name the name to show in the progress status
+     * @param priority the priority
+     * @return the job
+     */
+    protected abstract J createJob(File destFile, List<URL> urls, long size, String hash, String name,
+                                   DownloadPriority priority);
+
+    /**
+     * Make sure that we aren't re-using hash IDs.
+     *
+     * @param baseKey the key to make unique
+     * @return a unique key
+     */
+    private String createUniqueKey(String baseKey) {
+        String key = baseKey;
+        int i = 0;
+        while (usedKeys.contains(key)) {
+            key = baseKey + "_" + (i++);
+        }
+        usedKeys.add(key);
+        return key;
+    }
+
+    @Override
+    public File download(@NonNull List<URL> urls, @NonNull String key, long size, String name) {
+        return download(urls, key, size, null, name);
+    }
+
+    @Override
+    public File download(URL url, String key, long size, String name) {
+        return download(url, key, size, null, name);
+    }
+
+    @Override
+    public File download(@NonNull List<URL> urls, @NonNull String key, long size, String hash, String name) {
+        return download(urls, key, size, hash, name, DownloadPriority.NORMAL);
+    }
+
+    @Override
+    public File download(URL url, String key, long size, String hash, String name) {
+        return download(url, key, size, hash, name, DownloadPriority.NORMAL);
+    }
+
+    @Override
+    public synchronized File download(@NonNull List<URL> urls, @NonNull String key, long size,
+                                      String hash, String name, @NonNull DownloadPriority priority) {
+        if (urls.isEmpty()) {
+            throw new IllegalArgumentException("Can't download empty list of URLs");
+        }
+
+        String hashKey = hf.hashString(Strings.nullToEmpty(key) + urls.get(0), Charsets.UTF_8).toString();
+        hashKey = createUniqueKey(hashKey);
+        File tempFile = new File(tempDir, hashKey.substring(0, 2) + "/" + hashKey);
+
+        // A file left over from an earlier run is only kept if it's intact
+        if (tempFile.exists() && !isIntact(tempFile, hash)) {
+            log.warning("Discarding " + tempFile + " because it does not match the hash " + hash);
+            tempFile.delete();
+        }
+
+        // If the file is already downloaded (such as from before), then don't re-download
+        if (!tempFile.exists()) {
+            total.addAndGet(size);
+            queued.incrementAndGet();
+            left.incrementAndGet();
+            queue.add(createJob(tempFile, urls, size, hash, name != null ? name : tempFile.getName(), priority));
+            if (journal != null) {
+                journal.planned(tempFile, size, hash);
+            }
+        }
+
+        return tempFile;
+    }
+
+    @Override
+    public File download(URL url, String key, long size, String hash, String name, DownloadPriority priority) {
+        List<URL> urls = new ArrayList<URL>();
+        urls.add(url);
+        return download(urls, key, size, hash, name, priority);
+    }
+
+    @Override
+    public void setPreferredMirrors(@NonNull List<URL> urls) {
+        mirrorStats.setPreferred(urls);
+    }
+
+    @Override
+    public void setOptional(@NonNull File file) {
+        optional.add(file);
+    }
+
+    @Override
+    public void setConcurrency(int min, int max) {
+        concurrencyController.setBounds(min, max);
+    }
+
+    /**
+     * Check whether a file left over from an earlier run can be used. Files
+     * that the journal says were verified already are not hashed again.
+     *
+     * @param file the file
+     * @param hash the expected hash, or null if not known
+     * @return true if the file can be used
+     */
+    private boolean isIntact(File file, String hash) {
+        if (hash == null || (journal != null && journal.isComplete(file, hash))) {
+            return true;
+        }
+        if (!matchesHash(file, hash)) {
+            return false;
+        }
+        if (journal != null) {
+            journal.completed(file, hash);
+        }
+        return true;
+    }
+
+    /**
+     * Check whether a file matches the given hash.
+     *
+     * @param file the file
+     * @param hash the SHA-1 hash
+     * @return true if the file matches
+     */
+    private boolean matchesHash(File file, String hash) {
+        try {
+            return Files.hash(file, hf).toString().equalsIgnoreCase(hash);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Prevent further downloads from being queued and get the queued jobs
+     * in the order that they should be started in, according to the
+     * scheduling policy.
+     *
+     * @return the jobs
+     */
+    protected synchronized List<J> takeQueue() {
+        queue = Collections.unmodifiableList(queue);
+
+        final SchedulingPolicy policy = schedulingPolicy;
+        List<J> sorted = new ArrayList<J>(queue);
+        // The sort is stable, so equal jobs stay in the order they were queued
+        Collections.sort(sorted, new Comparator<J>() {
+            @Override
+            public int compare(J o1, J o2) {
+                return policy.compare(o1.getPriority(), o1.size, o2.getPriority(), o2.size);
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * Get the total size of the queued downloads.
+     *
+     * @return the size in bytes
+     */
+    protected long getTotalSize() {
+        return total.get();
+    }
+
+    /**
+     * Get the jobs that have been started and not yet finished.
+     *
+     * @return the jobs
+     */
+    protected Set<J> getRunningJobs() {
+        return Collections.unmodifiableSet(running);
+    }
+
+    /**
+     * Move a downloaded file into place, and tell the journal and the
+     * listener that it has been downloaded.
+     *
+     * @param job the job
+     * @param tempFile the file that the download was saved to
+     * @throws IOException thrown if the file could not be moved
+     */
+    protected void commit(J job, File tempFile) throws IOException {
+        job.destFile.delete();
+        if (!tempFile.renameTo(job.destFile)) {
+            throw new IOException(String.format("Failed to rename %s to %s", tempFile, job.destFile));
+        }
+        if (journal != null) {
+            journal.completed(job.destFile, job.hash);
+        }
+        DownloadListener listener = this.listener;
+        if (listener != null) {
+            listener.downloaded(job.destFile);
+        }
+    }
+
+    /**
+     * Record that a job has started.
+     *
+     * @param job the job
+     */
+    protected void started(J job) {
+        beginUpdate();
+        running.add(job);
+        endUpdate();
+    }
+
+    /**
+     * Record that a job has finished.
+     *
+     * @param job the job
+     * @param successful true if the file was downloaded
+     */
+    protected void finished(J job, boolean successful) {
+        beginUpdate();
+        if (successful) {
+            downloaded.addAndGet(job.size);
+        } else if (optional.contains(job.destFile)) {
+            log.warning("Continuing without " + job.destFile + ", which is optional");
+        } else {
+            failed.add(job);
+        }
+        left.decrementAndGet();
+        running.remove(job);
+        endUpdate();
+    }
+
+    /**
+     * Record that a job was stopped before it could finish, such as
+     * because of interruption, without counting it as failed.
+     *
+     * @param job the job
+     */
+    protected void abandoned(J job) {
+        beginUpdate();
+        left.decrementAndGet();
+        running.remove(job);
+        endUpdate();
+    }
+
+    /**
+     * Throw an exception if any of the downloads failed.
+     *
+     * @throws IOException thrown if a download failed
+     */
+    protected void checkFailures() throws IOException {
+        if (failed.size() > 0) {
+            throw new IOException(failed.size() + " file(s) could not be downloaded. Please retry the failed downloads by relaunching the modpack and make sure that your internet connection is stable by disabling downloads, videos, streams.. In case it is still failing after a few trys please contact support at: mym.li/support");
+        }
+    }
+
+    /**
+     * Get the progress of the downloads.
+     * </p>
+     * This never blocks the downloads. The counters are read optimistically
+     * and read again if a download started, finished or failed in the
+     * meantime, so that a finishing download is not counted both as running
+     * and as downloaded.
+     *
+     * @return a snapshot of the progress
+     */
+    @Override
+    public DownloadSnapshot getSnapshot() {
+        DownloadSnapshot snapshot;
+        int attempts = 0;
+        boolean consistent;
+
+        do {
+            long before = version.get();
+            List<DownloadSnapshot.Job> jobs = new ArrayList<DownloadSnapshot.Job>();
+            long bytes = downloaded.get();
+            for (J job : running) {
+                double progress = job.getProgress();
+                jobs.add(new DownloadSnapshot.Job(job.getName(), progress));
+                bytes += Math.max(0, progress * job.size);
+            }
+            snapshot = new DownloadSnapshot(queued.get(), left.get(), failed.size(), total.get(), bytes, jobs);
+            consistent = updating.get() == 0 && version.get() == before;
+        } while (!consistent && ++attempts < MAX_SNAPSHOT_ATTEMPTS);
+
+        return snapshot;
+    }
+
+    private void beginUpdate() {
+        updating.incrementAndGet();
+    }
+
+    private void endUpdate() {
+        version.incrementAndGet();
+        updating.decrementAndGet();
+    }
+
+    @Override
+    public double getProgress() {
+        return getSnapshot().getProgress();
+    }
+
+    @Override
+    public String getStatus() {
+        return getSnapshot().getStatus(concurrencyController.getStatus());
+    }
+
+    /**
+     * Thrown when a download does not match its expected hash.
+     */
+    protected static class HashMismatchException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private HashMismatchException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * A queued download.
+     */
+    protected abstract static class Job implements ProgressObservable {
+        protected final File destFile;
+        protected final List<URL> urls;
+        protected final long size;
+        protected final String hash;
+        @Getter protected final String name;
+        @Getter protected final DownloadPriority priority;
+
+        protected Job(File destFile, List<URL> urls, long size, String hash, String name,
+                      DownloadPriority priority) {
+            this.destFile = destFile;
+            this.urls = urls;
+            this.size = size;
+            this.hash = hash;
+            this.name = name;
+            this.priority = priority;
+        }
+
+        /**
+         * Check the hash of a completed download.
+         *
+         * @param url the URL the file came from
+         * @param actual the actual hash
+         * @throws HashMismatchException thrown if the hash is not the expected one
+         */
+        protected void verify(URL url, String actual) throws HashMismatchException {
+            if (hash != null && !hash.equalsIgnoreCase(actual)) {
+                throw new HashMismatchException("Download of " + name + " from " + url +
+                        " has hash " + actual + " but " + hash + " was expected");
+            }
+        }
+
+        @Override
+        public String getStatus() {
+            return new DownloadSnapshot.Job(name, getProgress()).getStatus();
+        }
+    }
+
+}
@@ -0,0 +1,152 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Closer;
+import com.google.common.io.CountingInputStream;
+import lombok.NonNull;
+import lombok.extern.java.Log;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.TeeOutputStream;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static com.skcraft.launcher.util.SharedLocale.tr;
+
+/**
+ * Extracts a downloaded {@link com.skcraft.launcher.model.modpack.Bundle}
+ * into the object store, checking every entry against the hash it is
+ * named after. The task fails if any of the objects that it was asked
+ * for is not in the bundle.
+ */
+@Log
+public class BundleExtract implements FileTask {
+
+    private final File file;
+    private final ObjectStore objectStore;
+    private final Set<String> objects;
+    private final File tempDir;
+    private long size;
+    private volatile CountingInputStream counter;
+
+    /**
+     * Create a new task.
+     *
+     * @param file the downloaded bundle, which is deleted afterwards
+     * @param objectStore the object store to extract into
+     * @param objects the hashes of the objects to extract, which the bundle must contain
+     * @param tempDir the directory to extract entries to before they are stored
+     */
+    public BundleExtract(@NonNull File file, @NonNull ObjectStore objectStore,
+                         @NonNull Collection<String> objects, @NonNull File tempDir) {
+        this.file = file;
+        this.objectStore = objectStore;
+        this.objects = new HashSet<String>();
+        for (String hash : objects) {
+            this.objects.add(hash.toLowerCase());
+        }
+        this.tempDir = tempDir;
+    }
+
+    @Override
+    public void execute() throws IOException {
+        log.info("Extracting bundle " + file.getName() + "...");
+
+        int count = 0;
+        size = file.length();
+        Closer closer = Closer.create();
+
+        try {
+            counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
+            closer.register(counter);
+            ZipInputStream zis = closer.register(new ZipInputStream(new GZIPInputStream(counter)));
+            ZipEntry entry;
+
+            tempDir.mkdirs();
+
+            while ((entry = zis.getNextEntry()) != null) {
+                String hash = entry.getName().toLowerCase();
+                if (entry.isDirectory() || !objects.contains(hash) || objectStore.has(hash)) {
+                    continue;
+                }
+
+                File tempFile = File.createTempFile("bundle", null, tempDir);
+                try {
+                    String actual = writeEntry(zis, tempFile);
+                    if (!actual.equals(hash)) {
+                        throw new IOException("Entry " + hash + " of bundle " + file.getName() + " has hash " + actual);
+                    }
+                    objectStore.add(hash, tempFile, true);
+                    count++;
+                } finally {
+                    tempFile.delete();
+                }
+            }
+
+            for (String hash : objects) {
+                if (!objectStore.has(hash)) {
+                    throw new IOException("Bundle " + file.getName() + " does not contain the object " + hash +
+                            ", which the manifest says it does");
+                }
+            }
+        } finally {
+            closer.close();
+            file.delete();
+        }
+
+        log.info("Extracted " + count + " objects from bundle " + file.getName());
+    }
+
+    private static String writeEntry(InputStream in, File path) throws IOException {
+        Hasher hasher = Hashing.sha1().newHasher();
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(path));
+        try {
+            IOUtils.copy(in, new TeeOutputStream(out, Funnels.asOutputStream(hasher)));
+        } finally {
+            out.close();
+        }
+        return hasher.hash().toString();
+    }
+
+    @Override
+    public Collection<File> getInputs() {
+        return Collections.singleton(file);
+    }
+
+    @Override
+    public Collection<File> getOutputs() {
+        List<File> outputs = new ArrayList<File>();
+        for (String hash : objects) {
+            outputs.add(objectStore.getPath(hash));
+        }
+        return outputs;
+    }
+
+    @Override
+    public double getProgress() {
+        CountingInputStream counter = this.counter;
+        return counter != null && size > 0 ? counter.getCount() / (double) size : -1;
+    }
+
+    @Override
+    public String getStatus() {
+        return tr("installer.extractingBundle", file.getName());
+    }
+
+}
@@ -0,0 +1,174 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import lombok.extern.java.Log;
+
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stops using a mirror (identified by protocol, host and port) for all
+ * downloads once it has failed several times in a row, instead of letting
+ * every queued download find out for itself.
+ * </p>
+ * After a while, a single request is let through to see whether the mirror
+ * has recovered. If it succeeds, the mirror is used again, and if it fails,
+ * the mirror is left out for twice as long as before. Once a mirror has been
+ * left out several times over, it is considered down and downloads that have
+ * no other mirror give up instead of waiting for it.
+ */
+@Log
+public class CircuitBreaker {
+
+    private static final long PROBE_POLL_INTERVAL = 250;
+
+    @Getter @Setter private int failureThreshold = 5;
+    @Getter @Setter private long openTime = 5000;
+    @Getter @Setter private long maxOpenTime = 60000;
+    @Getter @Setter private long probeTimeout = 60000;
+    @Getter @Setter private int maxTrips = 3;
+    private final Map<String, Circuit> circuits = new HashMap<String, Circuit>();
+
+    private static String getKey(URL url) {
+        return url.getProtocol() + "://" + url.getAuthority();
+    }
+
+    private Circuit getCircuit(URL url) {
+        String key = getKey(url);
+        Circuit circuit = circuits.get(key);
+        if (circuit == null) {
+            circuit = new Circuit(key);
+            circuits.put(key, circuit);
+        }
+        return circuit;
+    }
+
+    /**
+     * Check whether the mirror of the given URL has been left out.
+     *
+     * @param url the URL
+     * @return true if requests to the mirror are currently not allowed
+     */
+    public synchronized boolean isOpen(@NonNull URL url) {
+        Circuit circuit = circuits.get(getKey(url));
+        return circuit != null && circuit.openUntil != 0 &&
+                (System.currentTimeMillis() < circuit.openUntil || circuit.isProbing());
+    }
+
+    /**
+     * Check whether the mirror of the given URL has been left out so many
+     * times that it should not be waited for.
+     *
+     * @param url the URL
+     * @return true if the mirror is considered down
+     */
+    public synchronized boolean isDown(@NonNull URL url) {
+        Circuit circuit = circuits.get(getKey(url));
+        return circuit != null && circuit.openUntil != 0 && circuit.trips >= maxTrips;
+    }
+
+    /**
+     * Ask to make a request to the mirror of the given URL. Once a mirror has
+     * been left out for long enough, this returns true for exactly one
+     * caller, whose request decides whether the mirror is used again.
+     * The outcome must be reported with {@link #recordSuccess(URL)} or
+     * {@link #recordFailure(URL)}.
+     *
+     * @param url the URL
+     * @return true if the request may be made
+     */
+    public synchronized boolean allowRequest(@NonNull URL url) {
+        Circuit circuit = circuits.get(getKey(url));
+        if (circuit == null || circuit.openUntil == 0) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        if (now < circuit.openUntil || circuit.isProbing()) {
+            return false;
+        }
+        circuit.probeStarted = now;
+        return true;
+    }
+
+    /**
+     * Get how long to wait before asking again to make a request to the
+     * mirror of the given URL.
+     *
+     * @param url the URL
+     * @return the time in milliseconds, which is 0 if a request may be made now
+     */
+    public synchronized long getWaitTime(@NonNull URL url) {
+        Circuit circuit = circuits.get(getKey(url));
+        if (circuit == null || circuit.openUntil == 0) {
+            return 0;
+        }
+        if (circuit.isProbing()) {
+            return PROBE_POLL_INTERVAL;
+        }
+        return Math.max(0, circuit.openUntil - System.currentTimeMillis());
+    }
+
+    /**
+     * Record that the mirror of the given URL answered.
+     *
+     * @param url the URL
+     */
+    public synchronized void recordSuccess(@NonNull URL url) {
+        Circuit circuit = circuits.get(getKey(url));
+        if (circuit != null) {
+            if (circuit.openUntil != 0) {
+                log.info("Mirror " + circuit.key + " has recovered and will be used again");
+            }
+            circuit.failures = 0;
+            circuit.trips = 0;
+            circuit.openUntil = 0;
+            circuit.probeStarted = 0;
+        }
+    }
+
+    /**
+     * Record that the mirror of the given URL failed.
+     *
+     * @param url the URL
+     */
+    public synchronized void recordFailure(@NonNull URL url) {
+        Circuit circuit = getCircuit(url);
+        circuit.failures++;
+
+        if (circuit.isProbing() || (circuit.openUntil == 0 && circuit.failures >= failureThreshold)) {
+            long duration = Math.min(maxOpenTime, openTime << Math.min(20, circuit.trips));
+            circuit.trips++;
+            circuit.openUntil = System.currentTimeMillis() + duration;
+            circuit.probeStarted = 0;
+            log.warning("Mirror " + circuit.key + " failed " + circuit.failures + " times in a row " +
+                    "and won't be used for " + duration / 1000 + " seconds");
+        }
+    }
+
+    private class Circuit {
+        private final String key;
+        private int failures;
+        private int trips;
+        private long openUntil;
+        private long probeStarted;
+
+        private Circuit(String key) {
+            this.key = key;
+        }
+
+        private boolean isProbing() {
+            // A probe that never reported back (the download was cancelled) is given up on eventually
+            return probeStarted != 0 && System.currentTimeMillis() - probeStarted < probeTimeout;
+        }
+    }
+
+}
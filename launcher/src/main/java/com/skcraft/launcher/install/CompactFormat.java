@@ -0,0 +1,184 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import com.google.common.base.Charsets;
+
+import java.io.*;
+
+/**
+ * Helpers for the binary files that the installer keeps its records in.
+ * </p>
+ * Numbers are written as variable-length integers, and sorted lists of
+ * paths are written with each path sharing what it can of the start of
+ * the one before it, as most paths share their directories.
+ */
+final class CompactFormat {
+
+    private static final int MAX_STRING_LENGTH = 1024 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private CompactFormat() {
+    }
+
+    /**
+     * Open a file for reading, checking that it has the given header.
+     *
+     * @param file the file
+     * @param magic the expected magic number
+     * @param version the expected format version
+     * @return the stream
+     * @throws IOException thrown if the file can't be read or is not in the expected format
+     */
+    static DataInputStream openForReading(File file, int magic, int version) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+        try {
+            if (in.readInt() != magic) {
+                throw new IOException(file + " is not in the expected format");
+            }
+            int actual = in.readUnsignedByte();
+            if (actual != version) {
+                throw new IOException(file + " has format version " + actual + ", but only " + version + " is supported");
+            }
+            return in;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open a file for writing, writing the given header.
+     *
+     * @param file the file
+     * @param magic the magic number
+     * @param version the format version
+     * @return the stream
+     * @throws IOException thrown on I/O error
+     */
+    static DataOutputStream openForWriting(File file, int magic, int version) throws IOException {
+        file.getParentFile().mkdirs();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+        out.writeInt(magic);
+        out.writeByte(version);
+        return out;
+    }
+
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable-length integer");
+    }
+
+    static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(Charsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        int length = readVarInt(in);
+        if (length < 0 || length > MAX_STRING_LENGTH) {
+            throw new IOException("Malformed string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    /**
+     * Write a string as the length of the start that it shares with the
+     * previous string, followed by the rest of it.
+     *
+     * @param out the output
+     * @param previous the previous string, or an empty string for the first
+     * @param value the string
+     * @throws IOException thrown on I/O error
+     */
+    static void writeSharedString(DataOutput out, String previous, String value) throws IOException {
+        int max = Math.min(previous.length(), value.length());
+        int shared = 0;
+        while (shared < max && previous.charAt(shared) == value.charAt(shared)) {
+            shared++;
+        }
+        // Don't split a surrogate pair
+        if (shared > 0 && Character.isHighSurrogate(value.charAt(shared - 1))) {
+            shared--;
+        }
+        writeVarInt(out, shared);
+        writeString(out, value.substring(shared));
+    }
+
+    static String readSharedString(DataInput in, String previous) throws IOException {
+        int shared = readVarInt(in);
+        if (shared > previous.length()) {
+            throw new IOException("Malformed shared string");
+        }
+        return previous.substring(0, shared) + readString(in);
+    }
+
+    /**
+     * Convert a 40 character hex string to the 20 bytes that it stands for.
+     *
+     * @param hash the hex string
+     * @return the bytes, or null if the string is not a SHA-1 hash
+     */
+    static byte[] toBytes(String hash) {
+        if (hash.length() != 40) {
+            return null;
+        }
+        byte[] bytes = new byte[20];
+        for (int i = 0; i < 20; i++) {
+            int high = Character.digit(hash.charAt(i * 2), 16);
+            int low = Character.digit(hash.charAt(i * 2 + 1), 16);
+            if (high == -1 || low == -1) {
+                return null;
+            }
+            bytes[i] = (byte) (high << 4 | low);
+        }
+        return bytes;
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Replace a file with a new one that was written next to it.
+     *
+     * @param tempFile the new file
+     * @param file the file to replace
+     * @throws IOException thrown if the file could not be replaced
+     */
+    static void replace(File tempFile, File file) throws IOException {
+        file.delete();
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Failed to write " + file);
+        }
+    }
+
+}
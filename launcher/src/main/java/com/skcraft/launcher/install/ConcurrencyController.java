@@ -0,0 +1,318 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.java.Log;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.skcraft.launcher.util.SharedLocale.tr;
+
+/**
+ * Limits the number of concurrent downloads from each host, adjusting each
+ * limit to what the host and the connection can handle.
+ * </p>
+ * Limits follow an additive increase, multiplicative decrease scheme. Once as
+ * many downloads as the current limit have finished (a "round"), the
+ * throughput of the round is compared with the best seen so far: if adding a
+ * connection helped, the limit grows by one, and if throughput fell or
+ * requests took much longer to answer without a gain, it shrinks by one. A
+ * download that failed because of the host halves the limit straight away.
+ */
+@Log
+public class ConcurrencyController {
+
+    private static final double GAIN_THRESHOLD = 1.05;
+    private static final double LOSS_THRESHOLD = 0.8;
+    private static final double LATENCY_THRESHOLD = 3;
+
+    private final Map<String, Host> hosts = new HashMap<String, Host>();
+    private long changes;
+    @Getter private int minLimit;
+    @Getter private int maxLimit;
+
+    /**
+     * Create a new controller.
+     *
+     * @param minLimit the minimum number of concurrent downloads per host
+     * @param maxLimit the maximum number of concurrent downloads per host
+     */
+    public ConcurrencyController(int minLimit, int maxLimit) {
+        setBounds(minLimit, maxLimit);
+    }
+
+    /**
+     * Set the bounds of the per-host limits.
+     *
+     * @param minLimit the minimum number of concurrent downloads per host
+     * @param maxLimit the maximum number of concurrent downloads per host
+     */
+    public synchronized void setBounds(int minLimit, int maxLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        for (Host host : hosts.values()) {
+            host.limit = clamp(host.limit);
+        }
+        changed();
+    }
+
+    /**
+     * Wait until another download from the host of the given URL is allowed.
+     *
+     * @param url the URL
+     * @return a permit that must be released when the download has finished
+     * @throws InterruptedException thrown on interruption
+     */
+    public synchronized Permit acquire(@NonNull URL url) throws InterruptedException {
+        Host host = getHost(url);
+        while (host.active >= host.limit) {
+            wait();
+        }
+        host.active++;
+        return new Permit(host);
+    }
+
+    /**
+     * Get a permit to download from the host of the given URL if another
+     * download from it is allowed right now.
+     *
+     * @param url the URL
+     * @return a permit that must be released when the download has finished, or null
+     */
+    public synchronized Permit tryAcquire(@NonNull URL url) {
+        Host host = getHost(url);
+        if (host.active >= host.limit) {
+            return null;
+        }
+        host.active++;
+        return new Permit(host);
+    }
+
+    /**
+     * Get a number that changes whenever a permit is released or a limit
+     * changes, for use with {@link #awaitChange(long)}.
+     *
+     * @return the number
+     */
+    public synchronized long getChangeCount() {
+        return changes;
+    }
+
+    /**
+     * Wait until a permit is released or a limit changes, if that has not
+     * happened since the given change count was read.
+     *
+     * @param changeCount the change count from {@link #getChangeCount()}
+     * @throws InterruptedException thrown on interruption
+     */
+    public synchronized void awaitChange(long changeCount) throws InterruptedException {
+        while (changes == changeCount) {
+            wait();
+        }
+    }
+
+    private void changed() {
+        changes++;
+        notifyAll();
+    }
+
+    private Host getHost(URL url) {
+        String name = url.getHost().toLowerCase();
+        Host host = hosts.get(name);
+        if (host == null) {
+            host = new Host(name, clamp((minLimit + maxLimit) / 2));
+            hosts.put(name, host);
+        }
+        return host;
+    }
+
+    private int clamp(int limit) {
+        return Math.max(minLimit, Math.min(maxLimit, limit));
+    }
+
+    private synchronized void release(Host host, long bytes, long latency, Boolean success) {
+        host.active--;
+
+        if (success == null) {
+            // The download says nothing about the host
+        } else if (success) {
+            host.succeeded(bytes, latency);
+        } else {
+            host.failed();
+        }
+
+        changed();
+    }
+
+    /**
+     * Get the current limit for the given host.
+     *
+     * @param hostName the host name
+     * @return the limit, or -1 if nothing was downloaded from the host
+     */
+    public synchronized int getLimit(@NonNull String hostName) {
+        Host host = hosts.get(hostName.toLowerCase());
+        return host != null ? host.limit : -1;
+    }
+
+    /**
+     * Get the throughput measured during the last round for the given host.
+     *
+     * @param hostName the host name
+     * @return the throughput in bytes per second, or -1 if not yet measured
+     */
+    public synchronized double getThroughput(@NonNull String hostName) {
+        Host host = hosts.get(hostName.toLowerCase());
+        return host != null ? host.lastRate : -1;
+    }
+
+    /**
+     * Get a status line for each host that has been downloaded from,
+     * listing the active downloads, the limit and the measured throughput.
+     *
+     * @return a list of status lines
+     */
+    public synchronized List<String> getStatus() {
+        List<String> status = new ArrayList<String>();
+        for (Host host : hosts.values()) {
+            status.add(tr("downloader.hostStatus", host.name, host.active, host.limit,
+                    Math.max(0, host.lastRate) / 1024));
+        }
+        return status;
+    }
+
+    /**
+     * Log the limits that were settled on for each host.
+     */
+    public synchronized void logStatistics() {
+        for (Host host : hosts.values()) {
+            log.info(String.format("Host %s: limit %d (range %d-%d), %d rounds, %.0f KB/s in the last round",
+                    host.name, host.limit, minLimit, maxLimit, host.rounds, Math.max(0, host.lastRate) / 1024));
+        }
+    }
+
+    /**
+     * A permit to download from a host.
+     */
+    public class Permit {
+        private final Host host;
+        private final long start = System.nanoTime();
+        private long latency = -1;
+        private boolean released;
+
+        private Permit(Host host) {
+            this.host = host;
+        }
+
+        /**
+         * Record that the host has started to answer. The time until then is
+         * what the limit is adjusted on, as the time that the whole download
+         * takes depends on the size of the file.
+         */
+        public void responded() {
+            if (latency < 0) {
+                latency = System.nanoTime() - start;
+            }
+        }
+
+        /**
+         * Release the permit.
+         *
+         * @param bytes the number of bytes that were downloaded, or 0 if none
+         *              were, in which case the limit is left as it is
+         * @param success false if the download failed because of the host
+         */
+        public void release(long bytes, boolean success) {
+            if (!released) {
+                released = true;
+                ConcurrencyController.this.release(host, bytes,
+                        latency >= 0 ? latency : System.nanoTime() - start, success);
+            }
+        }
+
+        /**
+         * Release the permit without taking the download into account, such
+         * as when it was interrupted.
+         */
+        public void abandon() {
+            if (!released) {
+                released = true;
+                ConcurrencyController.this.release(host, 0, 0, null);
+            }
+        }
+    }
+
+    private class Host {
+        private final String name;
+        private int limit;
+        private int active;
+        private int rounds;
+        private long roundStart = System.nanoTime();
+        private int roundCount;
+        private long roundBytes;
+        private long roundLatency;
+        private double bestRate = -1;
+        private double lastRate = -1;
+        private long minLatency = Long.MAX_VALUE;
+
+        private Host(String name, int limit) {
+            this.name = name;
+            this.limit = limit;
+        }
+
+        private void succeeded(long bytes, long latency) {
+            if (bytes <= 0) {
+                return;
+            }
+
+            roundCount++;
+            roundBytes += bytes;
+            roundLatency += latency;
+
+            if (roundCount < limit) {
+                return;
+            }
+
+            long now = System.nanoTime();
+            double rate = roundBytes / Math.max(1e-3, (now - roundStart) / 1e9);
+            long averageLatency = roundLatency / roundCount;
+            minLatency = Math.min(minLatency, averageLatency);
+
+            if (rate > bestRate * GAIN_THRESHOLD) {
+                bestRate = rate;
+                limit = clamp(limit + 1);
+            } else if (rate < bestRate * LOSS_THRESHOLD || averageLatency > minLatency * LATENCY_THRESHOLD) {
+                limit = clamp(limit - 1);
+            }
+
+            lastRate = rate;
+            rounds++;
+            startRound(now);
+        }
+
+        private void failed() {
+            limit = clamp(limit / 2);
+            // Throughput measured before the failure no longer applies
+            bestRate = lastRate * LOSS_THRESHOLD;
+            startRound(System.nanoTime());
+        }
+
+        private void startRound(long now) {
+            roundStart = now;
+            roundCount = 0;
+            roundBytes = 0;
+            roundLatency = 0;
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import lombok.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Creates directories, remembering the ones that are known to exist so that
+ * installing many files into the same few directories doesn't check the
+ * file system for each of them.
+ * </p>
+ * Directories that are deleted by something else afterwards are not noticed,
+ * so a cache should only live as long as one install.
+ */
+class DirectoryCache {
+
+    private final Set<File> directories = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+
+    /**
+     * Create the given directory and its parents if they don't exist.
+     *
+     * @param dir the directory
+     * @throws IOException thrown if the directory could not be created
+     */
+    public void mkdirs(@NonNull File dir) throws IOException {
+        dir = dir.getAbsoluteFile();
+        if (directories.contains(dir)) {
+            return;
+        }
+
+        if (!dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Failed to create the directory " + dir);
+        }
+
+        File parent = dir;
+        while (parent != null && directories.add(parent)) {
+            parent = parent.getParentFile();
+        }
+    }
+
+}
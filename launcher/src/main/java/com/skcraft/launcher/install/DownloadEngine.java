@@ -0,0 +1,54 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import lombok.extern.java.Log;
+
+import java.io.File;
+
+/**
+ * The implementation that downloads files.
+ */
+@Log
+public enum DownloadEngine {
+
+    /**
+     * Download each file on its own thread with {@link HttpDownloader}, which
+     * can resume, split and hedge downloads.
+     */
+    BLOCKING {
+        @Override
+        public Downloader createDownloader(File tempDir) {
+            return new HttpDownloader(tempDir);
+        }
+    },
+
+    /**
+     * Download all files on one thread with {@link NioDownloader}, which can
+     * have many more downloads in flight at once. It can't go through a
+     * proxy, so {@link HttpDownloader} is used instead when one is set.
+     */
+    NIO {
+        @Override
+        public Downloader createDownloader(File tempDir) {
+            if (NioDownloader.isProxyConfigured()) {
+                log.info("Using the blocking download engine because a proxy is configured");
+                return new HttpDownloader(tempDir);
+            }
+            return new NioDownloader(tempDir);
+        }
+    };
+
+    /**
+     * Create a new downloader.
+     *
+     * @param tempDir the temporary directory
+     * @return the downloader
+     */
+    public abstract Downloader createDownloader(File tempDir);
+
+}
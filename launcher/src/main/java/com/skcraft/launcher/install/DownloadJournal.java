@@ -0,0 +1,405 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.java.Log;
+
+import java.io.*;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only record of an update in progress, kept in the installer's
+ * temporary directory so that an update that was cut short (because the
+ * launcher was killed or crashed) can pick up where it left off. An update
+ * that fails or is cancelled only keeps its finished downloads, with
+ * {@link #forgetPlan()}.
+ * </p>
+ * The journal remembers the manifest that the update was planned with,
+ * the features that were chosen, the downloads that were planned and the
+ * downloads that finished, along with the hash that they were verified
+ * against. A finished download is trusted later on without hashing it
+ * again for as long as its size and modification time are unchanged.
+ * </p>
+ * Each record is a line with a checksum that is handed to the operating
+ * system as soon as it is written, so it survives the launcher being
+ * killed. A record that was torn by a crash is ignored along with anything
+ * after it, and the journal is compacted whenever it is opened.
+ */
+@Log
+public class DownloadJournal {
+
+    private static final String HEADER = "SKCRAFT-JOURNAL 1";
+    private static final String NONE = "-";
+
+    @Getter private final File file;
+    private String manifestUrl;
+    private String manifestHash;
+    private final Map<String, Boolean> features = new LinkedHashMap<String, Boolean>();
+    private final Map<String, Download> downloads = new LinkedHashMap<String, Download>();
+    private OutputStream out;
+
+    /**
+     * Open the journal at the given path, reading what an earlier run
+     * recorded in it, if anything.
+     *
+     * @param file the file
+     */
+    public DownloadJournal(@NonNull File file) {
+        this.file = file;
+        load();
+        rewrite();
+    }
+
+    /**
+     * Check whether the update was planned with the manifest from the given
+     * URL, and the copy of that manifest in the given file is still the same.
+     *
+     * @param url the URL of the manifest
+     * @param manifestFile the saved copy of the manifest
+     * @return true if the update can be resumed with the saved manifest
+     */
+    public synchronized boolean hasManifest(@NonNull URL url, @NonNull File manifestFile) {
+        if (manifestHash == null || !url.toExternalForm().equals(manifestUrl) || !manifestFile.isFile()) {
+            return false;
+        }
+        try {
+            return Files.hash(manifestFile, Hashing.sha1()).toString().equals(manifestHash);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Record the manifest that the update is planned with.
+     *
+     * @param url the URL of the manifest
+     * @param manifestFile the saved copy of the manifest
+     * @throws IOException thrown if the saved copy could not be read
+     */
+    public synchronized void setManifest(@NonNull URL url, @NonNull File manifestFile) throws IOException {
+        manifestUrl = url.toExternalForm();
+        manifestHash = Files.hash(manifestFile, Hashing.sha1()).toString();
+        append(true, "manifest", manifestUrl, manifestHash);
+    }
+
+    /**
+     * Get whether a feature was chosen for the update.
+     *
+     * @param name the name of the feature
+     * @return whether the feature was selected, or null if it was not recorded
+     */
+    public synchronized Boolean getFeature(@NonNull String name) {
+        return features.get(name);
+    }
+
+    /**
+     * Record whether a feature was chosen for the update.
+     *
+     * @param name the name of the feature
+     * @param selected whether the feature was selected
+     */
+    public synchronized void setFeature(@NonNull String name, boolean selected) {
+        features.put(name, selected);
+        append(false, "feature", name, String.valueOf(selected));
+    }
+
+    /**
+     * Record that a file is going to be downloaded.
+     *
+     * @param file the file that the download is saved to
+     * @param size the expected size of the file
+     * @param hash the expected hash of the file, or null if not known
+     */
+    public synchronized void planned(@NonNull File file, long size, String hash) {
+        Download download = getDownload(file.getAbsolutePath());
+        download.size = size;
+        download.hash = hash;
+        append(false, "planned", download.path, String.valueOf(size), hash != null ? hash : NONE);
+    }
+
+    /**
+     * Record that a file was downloaded in full.
+     *
+     * @param file the file that the download was saved to
+     * @param hash the hash that the file was verified against, or null if it was not verified
+     */
+    public synchronized void completed(@NonNull File file, String hash) {
+        Download download = getDownload(file.getAbsolutePath());
+        download.completed = true;
+        download.length = file.length();
+        download.modified = file.lastModified();
+        download.verifiedHash = hash;
+        append(false, "completed", download.path, String.valueOf(download.length),
+                String.valueOf(download.modified), hash != null ? hash : NONE);
+    }
+
+    /**
+     * Check whether a file that exists was recorded as downloaded in full
+     * and has not changed since.
+     *
+     * @param file the file
+     * @param hash the hash that the file is expected to have, or null if not known
+     * @return true if the file can be used without downloading or hashing it again
+     */
+    public synchronized boolean isComplete(@NonNull File file, String hash) {
+        Download download = downloads.get(file.getAbsolutePath());
+        if (download == null || !download.completed) {
+            return false;
+        }
+        if (hash != null && !hash.equalsIgnoreCase(download.verifiedHash)) {
+            return false;
+        }
+        return file.isFile() && file.length() == download.length && file.lastModified() == download.modified;
+    }
+
+    /**
+     * Forget the manifest and the features that the update was planned
+     * with, keeping the downloads that finished.
+     * </p>
+     * This is for an update that failed or was cancelled rather than cut
+     * short, so that the next update fetches the manifest again and lets
+     * the user choose the features again instead of resuming the old plan.
+     */
+    public synchronized void forgetPlan() {
+        close();
+        manifestUrl = null;
+        manifestHash = null;
+        features.clear();
+        rewrite();
+    }
+
+    /**
+     * Delete the journal once the update has finished.
+     */
+    public synchronized void delete() {
+        close();
+        manifestUrl = null;
+        manifestHash = null;
+        features.clear();
+        downloads.clear();
+        if (file.exists() && !file.delete()) {
+            log.warning("Failed to delete " + file);
+        }
+    }
+
+    /**
+     * Close the journal, keeping it for the next run.
+     */
+    public synchronized void close() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+            out = null;
+        }
+    }
+
+    private Download getDownload(String path) {
+        Download download = downloads.get(path);
+        if (download == null) {
+            download = new Download(path);
+            downloads.put(path, download);
+        }
+        return download;
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charsets.UTF_8));
+            if (!HEADER.equals(reader.readLine())) {
+                log.warning("Ignoring " + file + " because it is not a journal that can be read");
+                return;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!replay(line)) {
+                    log.info("Ignoring the rest of " + file + " after an incomplete record");
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to read " + file, e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        int completed = 0;
+        for (Download download : downloads.values()) {
+            if (download.completed) {
+                completed++;
+            }
+        }
+        if (manifestHash != null || !downloads.isEmpty()) {
+            log.info("Journal " + file + " shows " + completed + " of " + downloads.size() +
+                    " download(s) finished by an earlier run");
+        }
+    }
+
+    private boolean replay(String line) {
+        int index = line.indexOf(' ');
+        if (index != 8) {
+            return false;
+        }
+        String payload = line.substring(index + 1);
+        if (!line.substring(0, index).equals(checksum(payload))) {
+            return false;
+        }
+
+        String[] fields = payload.split("\t", -1);
+        try {
+            if (fields[0].equals("manifest") && fields.length == 3) {
+                manifestUrl = fields[1];
+                manifestHash = fields[2];
+            } else if (fields[0].equals("feature") && fields.length == 3) {
+                features.put(fields[1], Boolean.valueOf(fields[2]));
+            } else if (fields[0].equals("planned") && fields.length == 4) {
+                Download download = getDownload(fields[1]);
+                download.size = Long.parseLong(fields[2]);
+                download.hash = fields[3].equals(NONE) ? null : fields[3];
+            } else if (fields[0].equals("completed") && fields.length == 5) {
+                Download download = getDownload(fields[1]);
+                download.completed = true;
+                download.length = Long.parseLong(fields[2]);
+                download.modified = Long.parseLong(fields[3]);
+                download.verifiedHash = fields[4].equals(NONE) ? null : fields[4];
+            } else {
+                return false;
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Replace the journal with one that only contains the current state,
+     * and open it for appending.
+     */
+    private void rewrite() {
+        File tempFile = new File(file.getPath() + ".tmp");
+        file.getParentFile().mkdirs();
+
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(tempFile);
+            out = fos;
+            out.write((HEADER + "\n").getBytes(Charsets.UTF_8));
+            if (manifestHash != null) {
+                append(false, "manifest", manifestUrl, manifestHash);
+            }
+            for (Map.Entry<String, Boolean> entry : features.entrySet()) {
+                append(false, "feature", entry.getKey(), String.valueOf(entry.getValue()));
+            }
+            Iterator<Download> it = downloads.values().iterator();
+            while (it.hasNext()) {
+                Download download = it.next();
+                if (download.completed && !new File(download.path).exists()) {
+                    // The file has been installed or cleaned up since
+                    it.remove();
+                } else if (download.completed) {
+                    append(false, "completed", download.path, String.valueOf(download.length),
+                            String.valueOf(download.modified), download.verifiedHash != null ? download.verifiedHash : NONE);
+                } else {
+                    append(false, "planned", download.path, String.valueOf(download.size),
+                            download.hash != null ? download.hash : NONE);
+                }
+            }
+            fos.getFD().sync();
+            fos.close();
+            out = null;
+
+            file.delete();
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Failed to rename " + tempFile + " to " + file);
+            }
+            out = new FileOutputStream(file, true);
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to write " + file + ", so the update can't be resumed if it is interrupted", e);
+            if (fos != null) {
+                try {
+                    fos.close();
+                } catch (IOException ignored) {
+                }
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * Write a record to the journal.
+     *
+     * @param sync true to wait until the record is on disk
+     * @param fields the fields of the record
+     */
+    private void append(boolean sync, String... fields) {
+        if (out == null) {
+            return;
+        }
+
+        StringBuilder payload = new StringBuilder();
+        for (String field : fields) {
+            if (payload.length() > 0) {
+                payload.append('\t');
+            }
+            payload.append(field.replaceAll("[\t\r\n]", " "));
+        }
+        String line = checksum(payload.toString()) + " " + payload + "\n";
+
+        try {
+            // One write per record, so that a record is either written in full or torn at the end
+            out.write(line.getBytes(Charsets.UTF_8));
+            if (sync && out instanceof FileOutputStream) {
+                ((FileOutputStream) out).getFD().sync();
+            }
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to write to " + file + ", so the update can't be resumed if it is interrupted", e);
+            close();
+        }
+    }
+
+    private static String checksum(String payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload.getBytes(Charsets.UTF_8));
+        return String.format("%08x", crc.getValue());
+    }
+
+    private static class Download {
+        private final String path;
+        private long size;
+        private String hash;
+        private boolean completed;
+        private long length;
+        private long modified;
+        private String verifiedHash;
+
+        private Download(String path) {
+            this.path = path;
+        }
+    }
+
+}
@@ -0,0 +1,25 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import java.io.File;
+
+/**
+ * Told about each file as soon as it has been downloaded.
+ */
+public interface DownloadListener {
+
+    /**
+     * Called once a file has been downloaded in full and, if its hash is
+     * known, verified. This is called from the thread that downloaded
+     * the file, so it must not block.
+     *
+     * @param file the file, as returned when the download was queued
+     */
+    void downloaded(File file);
+
+}
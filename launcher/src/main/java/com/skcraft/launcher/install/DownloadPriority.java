@@ -0,0 +1,29 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+/**
+ * How important a download is for getting the game running.
+ */
+public enum DownloadPriority {
+
+    /**
+     * Needed to launch the game at all, such as the version jar and libraries.
+     */
+    CRITICAL,
+
+    /**
+     * Part of the modpack.
+     */
+    NORMAL,
+
+    /**
+     * Can be fetched last, such as assets.
+     */
+    OPTIONAL
+
+}
@@ -0,0 +1,106 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.List;
+
+import static com.skcraft.launcher.util.SharedLocale.tr;
+
+/**
+ * The progress of a {@link Downloader} at one point in time.
+ */
+public class DownloadSnapshot {
+
+    @Getter private final int queuedCount;
+    @Getter private final int remainingCount;
+    @Getter private final int failedCount;
+    @Getter private final long totalBytes;
+    @Getter private final long downloadedBytes;
+    @Getter private final List<Job> running;
+
+    DownloadSnapshot(int queuedCount, int remainingCount, int failedCount,
+                     long totalBytes, long downloadedBytes, List<Job> running) {
+        this.queuedCount = queuedCount;
+        this.remainingCount = remainingCount;
+        this.failedCount = failedCount;
+        this.totalBytes = totalBytes;
+        this.downloadedBytes = downloadedBytes;
+        this.running = Collections.unmodifiableList(running);
+    }
+
+    /**
+     * Get the overall progress.
+     *
+     * @return the progress between 0 and 1, or -1 if the total size is not known
+     */
+    public double getProgress() {
+        if (totalBytes <= 0) {
+            return -1;
+        }
+        return Math.min(1, downloadedBytes / (double) totalBytes);
+    }
+
+    /**
+     * Describe the progress to the user.
+     *
+     * @param details extra lines to show while several files are downloading
+     * @return the status
+     */
+    public String getStatus(List<String> details) {
+        String failMessage = tr("downloader.failedCount", failedCount);
+        if (running.size() == 1) {
+            return tr("downloader.downloadingItem", running.get(0).getName()) +
+                    "\n" + running.get(0).getStatus() +
+                    "\n" + failMessage;
+        } else if (running.size() > 0) {
+            StringBuilder builder = new StringBuilder();
+            for (Job job : running) {
+                builder.append("\n");
+                builder.append(job.getStatus());
+            }
+            for (String detail : details) {
+                builder.append("\n");
+                builder.append(detail);
+            }
+            return tr("downloader.downloadingList", queuedCount, remainingCount, failedCount) +
+                    builder.toString() +
+                    "\n" + failMessage;
+        } else {
+            return tr("downloader.noDownloads");
+        }
+    }
+
+    /**
+     * The progress of a running download.
+     */
+    public static class Job {
+        @Getter private final String name;
+        @Getter private final double progress;
+
+        Job(String name, double progress) {
+            this.name = name;
+            this.progress = progress;
+        }
+
+        /**
+         * Describe the progress of the download to the user.
+         *
+         * @return the status
+         */
+        public String getStatus() {
+            if (progress >= 0) {
+                return tr("downloader.jobProgress", name, Math.round(progress * 100 * 100) / 100.0);
+            } else {
+                return tr("downloader.jobPending", name);
+            }
+        }
+    }
+
+}
@@ -9,6 +9,7 @@ package com.skcraft.launcher.install;
 import com.skcraft.concurrency.ProgressObservable;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URL;
 import java.util.List;
 
@@ -18,4 +19,98 @@ public interface Downloader extends ProgressObservable {
     File download(List<URL> urls, String key, long size, String name);
 
     File download(URL url, String key, long size, String name);
+
+    /**
+     * Queue a download that is verified against the given SHA-1 hash. A
+     * download that does not match is treated as failed and retried.
+     *
+     * @param urls the URLs to try, in order
+     * @param key a key that identifies the file
+     * @param size the expected size in bytes
+     * @param hash the expected SHA-1 hash, or null to not verify
+     * @param name a name to show in the progress status
+     * @return the file that will contain the download
+     */
+    File download(List<URL> urls, String key, long size, String hash, String name);
+
+    File download(URL url, String key, long size, String hash, String name);
+
+    /**
+     * Queue a download with the given priority, which may be used to decide
+     * which downloads are started first.
+     *
+     * @param urls the URLs to try, in order
+     * @param key a key that identifies the file
+     * @param size the expected size in bytes
+     * @param hash the expected SHA-1 hash, or null to not verify
+     * @param name a name to show in the progress status
+     * @param priority the priority
+     * @return the file that will contain the download
+     */
+    File download(List<URL> urls, String key, long size, String hash, String name, DownloadPriority priority);
+
+    File download(URL url, String key, long size, String hash, String name, DownloadPriority priority);
+
+    /**
+     * Let a queued download fail without failing the others, such as
+     * because the file can also be obtained another way. Whatever uses
+     * the file must check that it exists.
+     *
+     * @param file the file, as returned when the download was queued
+     */
+    void setOptional(File file);
+
+    /**
+     * Set the order in which queued downloads are started.
+     *
+     * @param policy the scheduling policy
+     */
+    void setSchedulingPolicy(SchedulingPolicy policy);
+
+    /**
+     * Set the bounds within which the number of concurrent downloads from
+     * each host is adjusted.
+     *
+     * @param min the minimum number of concurrent downloads per host
+     * @param max the maximum number of concurrent downloads per host
+     */
+    void setConcurrency(int min, int max);
+
+    /**
+     * Set the mirrors that are tried before all others for files that
+     * list them, such as another launcher on the local network.
+     *
+     * @param urls URLs on the preferred mirrors
+     */
+    void setPreferredMirrors(List<URL> urls);
+
+    /**
+     * Set the journal to record planned and finished downloads in, so
+     * that they need not be repeated if the update is interrupted.
+     *
+     * @param journal the journal, or null to not keep one
+     */
+    void setJournal(DownloadJournal journal);
+
+    /**
+     * Set the listener to tell about each file as soon as it has been downloaded.
+     *
+     * @param listener the listener, or null
+     */
+    void setListener(DownloadListener listener);
+
+    /**
+     * Prevent further downloads from being queued and download queued files.
+     *
+     * @throws InterruptedException thrown on interruption
+     * @throws IOException thrown if a download failed
+     */
+    void execute() throws InterruptedException, IOException;
+
+    /**
+     * Get the progress of the downloads without waiting on the downloads.
+     *
+     * @return a snapshot of the progress
+     */
+    DownloadSnapshot getSnapshot();
 }
@@ -6,18 +6,20 @@
 
 package com.skcraft.launcher.install;
 
-import com.google.common.io.Files;
+import com.skcraft.launcher.LauncherUtils;
 import lombok.NonNull;
 import lombok.extern.java.Log;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.logging.Level;
 
 import static com.skcraft.launcher.util.SharedLocale.tr;
 
 @Log
-public class FileCopy implements InstallTask {
+public class FileCopy implements FileTask {
 
     private final File from;
     private final File to;
@@ -30,8 +32,17 @@ public class FileCopy implements InstallTask {
     @Override
     public void execute() throws IOException {
         log.log(Level.INFO, "Copying to {0} (from {1})...", new Object[]{to.getAbsoluteFile(), from.getName()});
-        to.getParentFile().mkdirs();
-        Files.copy(from, to);
+        LauncherUtils.copyFile(from, to);
+    }
+
+    @Override
+    public Collection<File> getInputs() {
+        return Collections.singleton(from);
+    }
+
+    @Override
+    public Collection<File> getOutputs() {
+        return Collections.singleton(to);
     }
 
     @Override
@@ -6,17 +6,20 @@
 
 package com.skcraft.launcher.install;
 
+import com.skcraft.launcher.LauncherUtils;
 import lombok.NonNull;
 import lombok.extern.java.Log;
 
 import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
 import java.io.IOException;
 import java.util.logging.Level;
 
 import static com.skcraft.launcher.util.SharedLocale.tr;
 
 @Log
-public class FileMover implements InstallTask {
+public class FileMover implements FileTask {
 
     private final File from;
     private final File to;
@@ -29,9 +32,17 @@ public class FileMover implements InstallTask {
     @Override
     public void execute() throws IOException {
         log.log(Level.INFO, "Moving to {0} (from {1})...", new Object[]{to.getAbsoluteFile(), from.getName()});
-        to.getParentFile().mkdirs();
-        to.delete();
-        from.renameTo(to);
+        LauncherUtils.moveFile(from, to);
+    }
+
+    @Override
+    public Collection<File> getInputs() {
+        return Collections.singleton(from);
+    }
+
+    @Override
+    public Collection<File> getOutputs() {
+        return Collections.singleton(to);
     }
 
     @Override
@@ -0,0 +1,35 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import java.io.File;
+import java.util.Collection;
+
+/**
+ * An install task that says which files it reads and writes, so that it
+ * can run as soon as the files that it reads are ready rather than after
+ * every download has finished.
+ */
+public interface FileTask extends InstallTask {
+
+    /**
+     * Get the files that must be ready before the task runs, which may be
+     * downloads or the outputs of other tasks.
+     *
+     * @return the files
+     */
+    Collection<File> getInputs();
+
+    /**
+     * Get the files that the task creates or replaces. Their parent
+     * directories are created before the task is executed.
+     *
+     * @return the files
+     */
+    Collection<File> getOutputs();
+
+}
@@ -7,50 +7,41 @@
 package com.skcraft.launcher.install;
 
 import com.google.common.base.Charsets;
-import com.google.common.base.Strings;
-import com.google.common.hash.HashFunction;
-import com.google.common.hash.Hashing;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hasher;
+import com.google.common.io.Closer;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.io.Files;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
-import com.skcraft.concurrency.ProgressObservable;
+import com.skcraft.launcher.util.HttpConnections;
 import com.skcraft.launcher.util.HttpRequest;
-import com.skcraft.launcher.util.SharedLocale;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.Setter;
 import lombok.extern.java.Log;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
 import java.net.URL;
+import java.nio.channels.Channels;
 import java.util.*;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
+import java.util.concurrent.*;
 import java.util.logging.Level;
 
-import static com.skcraft.launcher.util.SharedLocale.tr;
+import static org.apache.commons.io.IOUtils.closeQuietly;
 
 @Log
-public class HttpDownloader implements Downloader {
+public class HttpDownloader extends BaseDownloader<HttpDownloader.HttpDownloadJob> {
 
-    private final Random random = new Random();
-    private final HashFunction hf = Hashing.sha1();
-
-    private final File tempDir;
-    @Getter @Setter private int threadCount = 6;
-    @Getter @Setter private int retryDelay = 2000;
-    @Getter @Setter private int tryCount = 3;
-
-    private List<HttpDownloadJob> queue = new ArrayList<HttpDownloadJob>();
-    private final Set<String> usedKeys = new HashSet<String>();
-
-    private final List<HttpDownloadJob> running = new ArrayList<HttpDownloadJob>();
-    private final List<HttpDownloadJob> failed = new ArrayList<HttpDownloadJob>();
-    private long downloaded = 0;
-    private long total = 0;
-    private int left = 0;
+    @Getter @Setter private boolean resumeEnabled = true;
+    @Getter @Setter private long segmentThreshold = 8 * 1024 * 1024;
+    @Getter @Setter private long minSegmentSize = 2 * 1024 * 1024;
+    @Getter @Setter private int maxSegments = 4;
+    @Getter @Setter private boolean hedgingEnabled = true;
+    private ExecutorService segmentExecutor;
+    private ExecutorService hedgeExecutor;
 
     /**
      * Create a new downloader using the given executor.
@@ -58,51 +49,13 @@ public class HttpDownloader implements Downloader {
      * @param tempDir the temporary directory
      */
     public HttpDownloader(@NonNull File tempDir) {
-        this.tempDir = tempDir;
-    }
-
-    /**
-     * Make sure that we aren't re-using hash IDs.
-     *
-     * @param baseKey the key to make unique
-     * @return a unique key
-     */
-    private String createUniqueKey(String baseKey) {
-        String key = baseKey;
-        int i = 0;
-        while (usedKeys.contains(key)) {
-            key = baseKey + "_" + (i++);
-        }
-        usedKeys.add(key);
-        return key;
+        super(tempDir);
     }
 
     @Override
-    public synchronized File download(@NonNull List<URL> urls, @NonNull String key, long size, String name) {
-        if (urls.isEmpty()) {
-            throw new IllegalArgumentException("Can't download empty list of URLs");
-        }
-
-        String hash = hf.hashString(Strings.nullToEmpty(key) + urls.get(0), Charsets.UTF_8).toString();
-        hash = createUniqueKey(hash);
-        File tempFile = new File(tempDir, hash.substring(0, 2) + "/" + hash);
-
-        // If the file is already downloaded (such as from before), then don't re-download
-        if (!tempFile.exists()) {
-            total += size;
-            left++;
-            queue.add(new HttpDownloadJob(tempFile, urls, size, name != null ? name : tempFile.getName()));
-        }
-
-        return tempFile;
-    }
-
-
-    @Override
-    public File download(URL url, String key, long size, String name) {
-        List<URL> urls = new ArrayList<URL>();
-        urls.add(url);
-        return download(urls, key, size, name);
+    protected HttpDownloadJob createJob(File destFile, List<URL> urls, long size, String hash, String name,
+                                        DownloadPriority priority) {
+        return new HttpDownloadJob(destFile, urls, size, hash, name, priority);
     }
 
     /**
@@ -111,22 +64,24 @@ public class HttpDownloader implements Downloader {
      * @throws InterruptedException thrown on interruption
      * @throws IOException thrown on I/O error
      */
+    @Override
     public void execute() throws InterruptedException, IOException {
-        synchronized (this) {
-            queue = Collections.unmodifiableList(queue);
-        }
-
+        // Jobs are only given a thread once their host allows them to start
+        // (see dispatch()), so the number of threads follows the host limits
         ListeningExecutorService executor = MoreExecutors.listeningDecorator(
-                Executors.newFixedThreadPool(threadCount));
+                Executors.newCachedThreadPool());
+        segmentExecutor = Executors.newFixedThreadPool(concurrencyController.getMaxLimit());
+        hedgeExecutor = Executors.newCachedThreadPool();
 
         try {
             List<ListenableFuture<?>> futures = new ArrayList<ListenableFuture<?>>();
 
-            synchronized (this) {
-                for (HttpDownloadJob job : queue) {
-                    futures.add(executor.submit(job));
-                }
-            }
+            long start = System.currentTimeMillis();
+
+            List<HttpDownloadJob> jobs = takeQueue();
+            log.info("Downloading " + jobs.size() + " file(s) (" + getTotalSize() + " bytes) " +
+                    "with the " + getSchedulingPolicy() + " policy");
+            dispatch(jobs, executor, futures);
 
             try {
                 Futures.allAsList(futures).get();
@@ -134,105 +89,181 @@ public class HttpDownloader implements Downloader {
                 throw new IOException("Something went wrong", e);
             }
 
+            log.info("Downloads finished in " + (System.currentTimeMillis() - start) + " ms " +
+                    "with the " + getSchedulingPolicy() + " policy");
+            HttpConnections.logStatistics();
+            concurrencyController.logStatistics();
+            mirrorStats.logStatistics();
 
-            // retry failed downloads once
-            synchronized (this) {
-                List<HttpDownloadJob> retry = new ArrayList<HttpDownloadJob>(failed);
-                failed.clear();
-                futures.clear();
-                if (retry.size() > 0) {
-                    for (HttpDownloadJob job : retry) {
-                        futures.add(executor.submit(job));
-                    }
-                }
-            }
+            checkFailures();
+        } finally {
+            executor.shutdownNow();
+            segmentExecutor.shutdownNow();
+            hedgeExecutor.shutdownNow();
+        }
+    }
 
-            try {
-                Futures.allAsList(futures).get();
-            } catch (ExecutionException e) {
-                throw new IOException("Something went wrong", e);
+    /**
+     * Start the given jobs in order, each once the host of its best mirror
+     * allows another download. Jobs are queued by the mirrors that they can
+     * be downloaded from, so a job that waits for a busy host does not hold
+     * up the jobs for other hosts, and no thread is taken up by waiting.
+     *
+     * @param jobs the jobs in the order to start them in
+     * @param executor the executor to run the jobs on
+     * @param futures the list to add the futures of the jobs to
+     * @throws InterruptedException thrown on interruption
+     */
+    private void dispatch(List<HttpDownloadJob> jobs, ListeningExecutorService executor,
+                          List<ListenableFuture<?>> futures) throws InterruptedException {
+        Map<String, Deque<HttpDownloadJob>> queues = new LinkedHashMap<String, Deque<HttpDownloadJob>>();
+        final Map<HttpDownloadJob, Integer> order = new HashMap<HttpDownloadJob, Integer>();
+        for (HttpDownloadJob job : jobs) {
+            String key = getHostKey(job.urls);
+            Deque<HttpDownloadJob> hostQueue = queues.get(key);
+            if (hostQueue == null) {
+                hostQueue = new ArrayDeque<HttpDownloadJob>();
+                queues.put(key, hostQueue);
             }
+            hostQueue.add(job);
+            order.put(job, order.size());
+        }
 
-            synchronized (this) {
-                if (failed.size() > 0) {
-                    throw new IOException(failed.size() + " file(s) could not be downloaded. Please retry the failed downloads by relaunching the modpack and make sure that your internet connection is stable by disabling downloads, videos, streams.. In case it is still failing after a few trys please contact support at: mym.li/support");
+        List<Deque<HttpDownloadJob>> pending = new ArrayList<Deque<HttpDownloadJob>>(queues.values());
+        while (!pending.isEmpty()) {
+            long changeCount = concurrencyController.getChangeCount();
+            boolean started = false;
+
+            // The queue with the job that was scheduled first goes first
+            Collections.sort(pending, new Comparator<Deque<HttpDownloadJob>>() {
+                @Override
+                public int compare(Deque<HttpDownloadJob> o1, Deque<HttpDownloadJob> o2) {
+                    return order.get(o1.peek()).compareTo(order.get(o2.peek()));
+                }
+            });
+
+            for (Iterator<Deque<HttpDownloadJob>> it = pending.iterator(); it.hasNext(); ) {
+                Deque<HttpDownloadJob> hostQueue = it.next();
+                HttpDownloadJob job;
+                while ((job = hostQueue.peek()) != null && job.tryStart()) {
+                    hostQueue.poll();
+                    futures.add(executor.submit(job));
+                    started = true;
+                }
+                if (hostQueue.isEmpty()) {
+                    it.remove();
                 }
             }
-        } finally {
-            executor.shutdownNow();
+
+            if (!started && !pending.isEmpty()) {
+                concurrencyController.awaitChange(changeCount);
+            }
         }
     }
 
-    @Override
-    public synchronized double getProgress() {
-        if (total <= 0) {
-            return -1;
+    private static String getHostKey(List<URL> urls) {
+        StringBuilder builder = new StringBuilder();
+        for (URL url : urls) {
+            builder.append(url.getHost().toLowerCase()).append(' ');
         }
+        return builder.toString();
+    }
 
-        long downloaded = this.downloaded;
-        for (HttpDownloadJob job : running) {
-            downloaded += Math.max(0, job.getProgress() * job.size);
-        }
-        return downloaded / (double) total;
+    /**
+     * Open a stream that writes to the given file, starting at the given offset.
+     *
+     * @param file the file
+     * @param offset the offset
+     * @return a stream that counts the number of bytes written
+     * @throws IOException thrown on I/O error
+     */
+    private static CountingOutputStream openSegment(File file, long offset) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(offset);
+        // Bodies are written in large blocks, so there is no need for another buffer
+        return new CountingOutputStream(Channels.newOutputStream(raf.getChannel()));
     }
 
-    @Override
-    public synchronized String getStatus() {
-        String failMessage = tr("downloader.failedCount", failed.size());
-        if (running.size() == 1) {
-            return tr("downloader.downloadingItem", running.get(0).getName()) +
-                    "\n" + running.get(0).getStatus() +
-                    "\n" + failMessage;
-        } else if (running.size() > 0) {
-            StringBuilder builder = new StringBuilder();
-            for (HttpDownloadJob job : running) {
-                builder.append("\n");
-                builder.append(job.getStatus());
-            }
-            return tr("downloader.downloadingList", queue.size(), left, failed.size()) +
-                    builder.toString() +
-                    "\n" + failMessage;
-        } else {
-            return SharedLocale.tr("downloader.noDownloads");
+    /**
+     * Get the value that can be used in a If-Range header to check that
+     * a resource has not changed since it was partially downloaded.
+     *
+     * @param request the executed request
+     * @return a strong ETag or a Last-Modified date, or null if there is neither
+     */
+    private static String getValidator(HttpRequest request) {
+        String etag = request.getHeaderField("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
         }
+        return request.getHeaderField("Last-Modified");
     }
 
-    public class HttpDownloadJob implements Runnable, ProgressObservable {
-        private final File destFile;
-        private final List<URL> urls;
-        private final long size;
-        @Getter private String name;
+    public class HttpDownloadJob extends Job implements Runnable {
         private HttpRequest request;
+        private URL firstUrl;
+        private ConcurrencyController.Permit firstPermit;
+        private volatile List<CountingOutputStream> segmentCounters;
+        private volatile long segmentedSize;
+        private volatile long segmentedPresent;
+
+        private HttpDownloadJob(File destFile, List<URL> urls, long size, String hash, String name,
+                                DownloadPriority priority) {
+            super(destFile, urls, size, hash, name, priority);
+        }
 
-        private HttpDownloadJob(File destFile, List<URL> urls, long size, String name) {
-            this.destFile = destFile;
-            this.urls = urls;
-            this.size = size;
-            this.name = name;
+        /**
+         * Get a permit for the best mirror that may be tried, so that the
+         * job can be started.
+         *
+         * @return true if the job can be started
+         */
+        private boolean tryStart() {
+            for (URL url : mirrorStats.rank(urls, size)) {
+                if (!circuitBreaker.isOpen(url)) {
+                    firstPermit = concurrencyController.tryAcquire(url);
+                    firstUrl = url;
+                    return firstPermit != null;
+                }
+            }
+            // Every mirror has been left out, which the job waits out by itself
+            return true;
+        }
+
+        /**
+         * Get a permit to download from the given URL, which is the permit
+         * that the job was started with if it is for the same URL.
+         */
+        private ConcurrencyController.Permit acquire(URL url) throws InterruptedException {
+            ConcurrencyController.Permit permit = firstPermit;
+            if (permit != null && url.equals(firstUrl)) {
+                firstPermit = null;
+                return permit;
+            }
+            return concurrencyController.acquire(url);
         }
 
         @Override
         public void run() {
+            boolean successful = false;
+            boolean failedDownload = false;
             try {
-                synchronized (HttpDownloader.this) {
-                    running.add(this);
-                }
-
+                started(this);
                 download();
-
-                synchronized (HttpDownloader.this) {
-                    downloaded += size;
-                }
+                successful = true;
             } catch (IOException e) {
-                synchronized (HttpDownloader.this) {
-                    failed.add(this);
-                }
+                failedDownload = true;
             } catch (InterruptedException e) {
                 log.info("Download of " + destFile + " was interrupted");
             } finally {
-                synchronized (HttpDownloader.this) {
-                    left--;
-                    running.remove(this);
+                if (firstPermit != null) {
+                    firstPermit.abandon();
+                    firstPermit = null;
+                }
+                if (successful || failedDownload) {
+                    finished(this, successful);
+                } else {
+                    abandoned(this);
                 }
             }
         }
@@ -246,54 +277,684 @@ public class HttpDownloader implements Downloader {
 
             // Try to download
             download(tempFile);
-
-            destFile.delete();
-            if (!tempFile.renameTo(destFile)) {
-                throw new IOException(String.format("Failed to rename %s to %s", tempFile, destFile));
-            }
+            commit(this, tempFile);
         }
 
+        /**
+         * Download the file, trying each mirror in turn and retrying in rounds
+         * as the retry policy allows. Mirrors that don't have the file are
+         * not tried again, and mirrors that the circuit breaker has left out
+         * are skipped.
+         *
+         * @param file the file to write to
+         * @throws IOException thrown if every mirror failed
+         * @throws InterruptedException thrown on interruption
+         */
         private void download(File file) throws IOException, InterruptedException {
-            int trial = 0;
-            boolean first = true;
+            RetryPolicy retryPolicy = getRetryPolicy();
+            List<URL> candidates = new ArrayList<URL>(urls);
             IOException lastException = null;
+            int attempt = 0;
+            long delay = 0;
 
-            do {
-                for (URL url : urls) {
-                    // Sleep between each trial
-                    if (!first) {
-                        Thread.sleep((long) (retryDelay / 2 + (random.nextDouble() * retryDelay)));
+            while (attempt < retryPolicy.getMaxAttempts() && !candidates.isEmpty()) {
+                if (delay > 0) {
+                    Thread.sleep(delay);
+                }
+
+                boolean tried = false;
+                List<URL> ranked = mirrorStats.rank(candidates, size);
+                // The mirror that the job was started for is tried first
+                if (firstPermit != null && ranked.remove(firstUrl)) {
+                    ranked.add(0, firstUrl);
+                }
+                for (int i = 0; i < ranked.size(); i++) {
+                    URL url = ranked.get(i);
+                    if (!circuitBreaker.allowRequest(url)) {
+                        continue;
+                    }
+                    tried = true;
+
+                    // A request that is slow to answer may be hedged with the next best mirror
+                    URL alternate = null;
+                    for (int j = 1; j < ranked.size() && alternate == null; j++) {
+                        URL other = ranked.get((i + j) % ranked.size());
+                        if (candidates.contains(other) && !circuitBreaker.isOpen(other)) {
+                            alternate = other;
+                        }
                     }
-                    first = false;
 
+                    long startLength = file.length();
+                    ConcurrencyController.Permit permit = acquire(url);
                     try {
-                        request = HttpRequest.get(url);
-                        request.execute().expectResponseCode(200).saveContent(file);
+                        download(url, alternate, file, permit);
+                        permit.release(file.length() - startLength, true);
+                        circuitBreaker.recordSuccess(url);
                         return;
+                    } catch (HashMismatchException e) {
+                        // The host delivered the data fine, so this says nothing against its capacity
+                        permit.release(file.length() - startLength, true);
+                        circuitBreaker.recordSuccess(url);
+                        lastException = e;
+                        log.log(Level.WARNING, e.getMessage());
+                        file.delete();
+                        new File(file.getPath() + ".etag").delete();
+                        new File(file.getPath() + ".ranges").delete();
                     } catch (IOException e) {
                         lastException = e;
-                        log.log(Level.WARNING, "Failed to download " + url, e);
+                        // Missing files and the like are not the fault of the host
+                        permit.release(0, !retryPolicy.isMirrorFailure(e));
+                        if (retryPolicy.isMirrorFailure(e)) {
+                            mirrorStats.recordFailure(url);
+                            circuitBreaker.recordFailure(url);
+                        } else {
+                            circuitBreaker.recordSuccess(url);
+                        }
+                        if (retryPolicy.isRetryable(e)) {
+                            log.log(Level.WARNING, "Failed to download " + url, e);
+                        } else {
+                            log.log(Level.WARNING, "Failed to download " + url + " and won't retry: " + e.getMessage());
+                            candidates.remove(url);
+                        }
+                    } finally {
+                        // Such as on interruption
+                        permit.abandon();
                     }
                 }
-            } while (++trial < tryCount);
 
+                if (tried) {
+                    attempt++;
+                    delay = retryPolicy.getDelay(attempt);
+                } else {
+                    // Every mirror has been left out, so wait until one of them may be tried again,
+                    // unless they have been left out so often that they are likely down
+                    delay = Long.MAX_VALUE;
+                    boolean down = true;
+                    for (URL url : candidates) {
+                        delay = Math.min(delay, circuitBreaker.getWaitTime(url));
+                        down &= circuitBreaker.isDown(url);
+                    }
+                    if (down) {
+                        break;
+                    }
+                }
+            }
+
+            if (lastException == null) {
+                throw new IOException("Failed to download from " + urls + " because all of its mirrors are unavailable");
+            }
             throw new IOException("Failed to download from " + urls, lastException);
         }
 
+        /**
+         * Download from the given URL to the given file. If resuming is enabled
+         * and a partial file from an earlier attempt exists, only the remainder
+         * is requested, provided that the server still has the same version
+         * of the file (as checked with the saved ETag or Last-Modified value).
+         *
+         * @param url the URL
+         * @param alternate a URL of the same file on another mirror, or null
+         * @param file the file to write to
+         * @param permit the permit to download from the host
+         * @throws IOException thrown on I/O error
+         * @throws InterruptedException thrown on interruption
+         */
+        private void download(URL url, URL alternate, File file, ConcurrencyController.Permit permit)
+                throws IOException, InterruptedException {
+            File validatorFile = new File(file.getPath() + ".etag");
+            String validator = null;
+            long offset = 0;
+
+            if (resumeEnabled && file.length() > 0 && validatorFile.exists()) {
+                validator = Files.toString(validatorFile, Charsets.UTF_8).trim();
+                if (!validator.isEmpty()) {
+                    offset = file.length();
+                }
+            }
+
+            // A segmented download that failed part way is resumed as one
+            boolean segmented = new File(file.getPath() + ".ranges").exists() ||
+                    (offset == 0 && size >= segmentThreshold && size >= 2 * minSegmentSize && maxSegments > 1);
+            if (segmented) {
+                validatorFile.delete();
+                downloadSegmented(url, file, permit);
+                // Set if the server didn't split the file after all
+                validatorFile.delete();
+                return;
+            }
+
+            request = execute(url, alternate, offset, validator);
+            permit.responded();
+            url = request.getUrl();
+            long start = System.nanoTime();
+
+            int responseCode = request.getResponseCode();
+            if (offset > 0 && responseCode == 206) {
+                if (request.getContentRangeStart() != offset) {
+                    request.close();
+                    file.delete();
+                    throw new IOException("Server returned an unexpected range for " + url);
+                }
+                log.info("Resuming download of " + url + " from byte " + offset);
+                save(request, file, true);
+            } else if (offset > 0 && responseCode == 416) {
+                request.close();
+                file.delete();
+                throw new IOException("Partial download of " + url + " is no longer valid");
+            } else {
+                offset = 0;
+                saveFull(request, file, validatorFile);
+            }
+
+            mirrorStats.recordTransfer(url, file.length() - offset, System.nanoTime() - start);
+            validatorFile.delete();
+        }
+
+        /**
+         * Create a request for the given URL.
+         *
+         * @param url the URL
+         * @param offset the offset to resume from, or 0 to download the whole file
+         * @param validator the validator of the partial file if resuming
+         * @return the request, not yet executed
+         */
+        private HttpRequest createRequest(URL url, long offset, String validator) {
+            // Files are fetched as they are so that ranges and lengths stay meaningful
+            HttpRequest request = HttpRequest.get(url).budget(getBudget()).compressed(false);
+            if (offset > 0) {
+                request.header("Range", "bytes=" + offset + "-");
+                request.header("If-Range", validator);
+            }
+            return request;
+        }
+
+        /**
+         * Execute a request, recording how long the mirror took to answer.
+         *
+         * @param request the request
+         * @return the request
+         * @throws IOException thrown on I/O error
+         */
+        private HttpRequest execute(HttpRequest request) throws IOException {
+            long start = System.nanoTime();
+            try {
+                request.execute();
+            } catch (IOException e) {
+                mirrorStats.recordFailure(request.getUrl());
+                throw e;
+            }
+            mirrorStats.recordLatency(request.getUrl(), System.nanoTime() - start);
+            return request;
+        }
+
+        /**
+         * Execute a request for the file. If the mirror takes longer to answer
+         * than it does 95% of the time, the same request is also sent to the
+         * alternate mirror and whichever answers first is used.
+         *
+         * @param url the URL
+         * @param alternate a URL of the same file on another mirror, or null
+         * @param offset the offset to resume from, or 0 to download the whole file
+         * @param validator the validator of the partial file if resuming
+         * @return the executed request
+         * @throws IOException thrown on I/O error
+         * @throws InterruptedException thrown on interruption
+         */
+        private HttpRequest execute(URL url, URL alternate, long offset, String validator)
+                throws IOException, InterruptedException {
+            final HttpRequest primary = createRequest(url, offset, validator);
+            long hedgeDelay = mirrorStats.getLatencyPercentile(url);
+
+            if (!hedgingEnabled || alternate == null || alternate.equals(url) || hedgeDelay < 0) {
+                return execute(primary);
+            }
+
+            CompletionService<HttpRequest> completion = new ExecutorCompletionService<HttpRequest>(hedgeExecutor);
+            List<Future<HttpRequest>> pending = new ArrayList<Future<HttpRequest>>();
+            pending.add(submit(completion, primary));
+
+            Future<HttpRequest> done = completion.poll(hedgeDelay, TimeUnit.NANOSECONDS);
+            if (done == null) {
+                log.info("No answer from " + url + " after " + hedgeDelay / 1000000 + " ms, also trying " + alternate);
+                pending.add(submit(completion, createRequest(alternate, offset, validator)));
+            }
+
+            IOException lastException = null;
+            HttpRequest unsuccessful = null;
+            try {
+                while (!pending.isEmpty()) {
+                    if (done == null) {
+                        done = completion.take();
+                    }
+                    pending.remove(done);
+                    try {
+                        HttpRequest request = done.get();
+                        // A mirror that doesn't have the file must not win over one that does
+                        int responseCode = request.getResponseCode();
+                        if (pending.isEmpty() || responseCode == 200 || responseCode == 206) {
+                            if (unsuccessful != null) {
+                                unsuccessful.close();
+                            }
+                            return request;
+                        }
+                        unsuccessful = request;
+                    } catch (ExecutionException e) {
+                        lastException = e.getCause() instanceof IOException ?
+                                (IOException) e.getCause() : new IOException(e.getCause());
+                    }
+                    done = null;
+                }
+                if (unsuccessful != null) {
+                    return unsuccessful;
+                }
+                throw lastException;
+            } finally {
+                // Abandon the slower request
+                for (Future<HttpRequest> future : pending) {
+                    closeLater(future);
+                }
+            }
+        }
+
+        private Future<HttpRequest> submit(CompletionService<HttpRequest> completion, final HttpRequest request) {
+            return completion.submit(new Callable<HttpRequest>() {
+                @Override
+                public HttpRequest call() throws Exception {
+                    return execute(request);
+                }
+            });
+        }
+
+        private void closeLater(final Future<HttpRequest> future) {
+            hedgeExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        future.get().close();
+                    } catch (Exception e) {
+                        // The request failed, so there is nothing to close
+                    }
+                }
+            });
+        }
+
+        /**
+         * Save a complete (200) response, remembering its validator so that
+         * the download can be resumed if it fails part way.
+         *
+         * @param request the executed request
+         * @param file the file to write to
+         * @param validatorFile the file to store the validator in
+         * @throws IOException thrown on I/O error
+         * @throws InterruptedException thrown on interruption
+         */
+        private void saveFull(HttpRequest request, File file, File validatorFile) throws IOException, InterruptedException {
+            request.expectResponseCode(200);
+            validatorFile.delete();
+            String newValidator = getValidator(request);
+            if (resumeEnabled && newValidator != null) {
+                Files.write(newValidator, validatorFile, Charsets.UTF_8);
+            }
+            save(request, file, false);
+        }
+
+        /**
+         * Save the response to the file, computing its hash in the same pass
+         * and checking it against the expected hash, if there is one.
+         *
+         * @param request the executed request
+         * @param file the file to write to
+         * @param append true to append to the existing partial file
+         * @throws IOException thrown on I/O error or if the hash does not match
+         * @throws InterruptedException thrown on interruption
+         */
+        private void save(HttpRequest request, File file, boolean append) throws IOException, InterruptedException {
+            if (hash == null) {
+                request.saveContent(file, append);
+                return;
+            }
+
+            Hasher hasher = hf.newHasher();
+            OutputStream hashStream = Funnels.asOutputStream(hasher);
+            if (append) {
+                Files.asByteSource(file).copyTo(hashStream);
+            }
+
+            Closer closer = Closer.create();
+            try {
+                FileOutputStream out = closer.register(new FileOutputStream(file, append));
+                request.saveContent(out.getChannel(), hashStream);
+            } finally {
+                closer.close();
+            }
+
+            verify(request.getUrl(), hasher.hash().toString());
+        }
+
+        /**
+         * Download a large file as several byte ranges that are fetched
+         * concurrently into a preallocated file. The first range doubles as
+         * a probe: if the server does not answer it with a partial response,
+         * the full response is saved instead.
+         * </p>
+         * If the download fails, the ranges that are still missing are
+         * recorded next to the file, and the next attempt only requests
+         * those, provided that the server still has the same version of
+         * the file.
+         *
+         * @param url the URL
+         * @param file the file to write to
+         * @param permit the permit to download from the host
+         * @throws IOException thrown on I/O error
+         * @throws InterruptedException thrown on interruption
+         */
+        private void downloadSegmented(final URL url, File file, ConcurrencyController.Permit permit)
+                throws IOException, InterruptedException {
+            File rangesFile = new File(file.getPath() + ".ranges");
+            PartialDownload partial = resumeEnabled ? PartialDownload.read(rangesFile) : null;
+            rangesFile.delete();
+            if (partial != null && file.length() != partial.total) {
+                partial = null;
+            }
+
+            List<Segment> segments = new ArrayList<Segment>();
+            int count = (int) Math.max(1, Math.min(maxSegments, size / minSegmentSize));
+            Segment first;
+            request = HttpRequest.get(url).budget(getBudget());
+            if (partial != null) {
+                segments.addAll(partial.missing);
+                first = segments.get(0);
+                request.header("If-Range", partial.validator);
+            } else {
+                first = new Segment(0, size / count - 1);
+                segments.add(first);
+            }
+            request.header("Range", "bytes=" + first.start + "-" + first.end);
+            execute(request);
+            permit.responded();
+
+            long total = request.getContentRangeTotal();
+            String validator = getValidator(request);
+            boolean usable = request.getResponseCode() == 206 && request.getContentRangeStart() == first.start &&
+                    (partial != null ? total == partial.total : total > first.end + 1);
+            if (!usable) {
+                // No (useful) range support, or the file has changed, so this is a normal download
+                saveFull(request, file, new File(file.getPath() + ".etag"));
+                return;
+            }
+
+            if (partial != null) {
+                log.info("Resuming download of " + url + " with " + segments.size() + " missing segments");
+            } else {
+                log.info("Downloading " + url + " (" + total + " bytes) in " + count + " segments");
+
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    raf.setLength(total);
+                } finally {
+                    raf.close();
+                }
+
+                long remaining = total - first.length();
+                long segmentLength = (remaining + count - 2) / (count - 1);
+                for (long start = first.length(); start < total; start += segmentLength) {
+                    segments.add(new Segment(start, Math.min(total, start + segmentLength) - 1));
+                }
+            }
+
+            List<CountingOutputStream> counters = new ArrayList<CountingOutputStream>();
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            boolean successful = false;
+
+            try {
+                for (Segment segment : segments) {
+                    segment.counter = openSegment(file, segment.start);
+                    counters.add(segment.counter);
+                }
+                segmentedSize = total;
+                segmentedPresent = total;
+                for (Segment segment : segments) {
+                    segmentedPresent -= segment.length();
+                }
+                segmentCounters = counters;
+
+                // Queue the remaining ranges, each on its own connection if the host allows another
+                List<Segment> local = new ArrayList<Segment>();
+                for (final Segment segment : segments.subList(1, segments.size())) {
+                    final ConcurrencyController.Permit segmentPermit = concurrencyController.tryAcquire(url);
+                    if (segmentPermit == null) {
+                        local.add(segment);
+                        continue;
+                    }
+                    futures.add(segmentExecutor.submit(new Callable<Object>() {
+                        @Override
+                        public Object call() throws Exception {
+                            fetchSegment(url, segment, segmentPermit);
+                            return null;
+                        }
+                    }));
+                }
+
+                // Meanwhile, read the first range on this thread, followed by the ranges that got no connection
+                try {
+                    request.saveContent(first.counter);
+                } finally {
+                    closeQuietly(first.counter);
+                }
+                for (Segment segment : local) {
+                    fetchSegment(url, segment, null);
+                }
+
+                for (Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        throw cause instanceof IOException ?
+                                (IOException) cause : new IOException("Segment download failed", cause);
+                    }
+                }
+
+                for (Segment segment : segments) {
+                    if (segment.getMissing() != null) {
+                        throw new IOException("Segment of " + url + " from byte " + segment.start + " ended early");
+                    }
+                }
+
+                // The segments arrive out of order, so the joined file is hashed once at the end
+                if (hash != null) {
+                    verify(url, Files.hash(file, hf).toString());
+                }
+
+                successful = true;
+            } finally {
+                segmentCounters = null;
+                if (!successful) {
+                    for (Future<?> future : futures) {
+                        future.cancel(true);
+                    }
+                }
+                // A segment that was cancelled before it started never closes its own file
+                for (CountingOutputStream counter : counters) {
+                    closeQuietly(counter);
+                }
+                if (!successful) {
+                    keepPartial(file, rangesFile, validator, total, segments);
+                }
+            }
+        }
+
+        /**
+         * Record the ranges of a failed segmented download that are still
+         * missing, so that the next attempt can fetch only those, or delete
+         * the file if it can't be resumed.
+         *
+         * @param file the file
+         * @param rangesFile the file to record the missing ranges in
+         * @param validator the validator of the file, or null if there is none
+         * @param total the size of the file
+         * @param segments the segments of the download
+         */
+        private void keepPartial(File file, File rangesFile, String validator, long total, List<Segment> segments) {
+            PartialDownload partial = new PartialDownload(validator, total);
+            for (Segment segment : segments) {
+                Segment missing = segment.getMissing();
+                if (missing != null) {
+                    partial.missing.add(missing);
+                }
+            }
+
+            // A download that was complete but failed verification is of no use
+            if (resumeEnabled && validator != null && !partial.missing.isEmpty()) {
+                try {
+                    partial.write(rangesFile);
+                    return;
+                } catch (IOException e) {
+                    log.log(Level.WARNING, "Failed to record the missing ranges of " + file, e);
+                    rangesFile.delete();
+                }
+            }
+            file.delete();
+        }
+
+        /**
+         * Download one range of a segmented download. A range that is fetched
+         * on its own connection has its own permit from the host, so that the
+         * segments of a file count towards the host's limit and its failures
+         * are seen by the controller.
+         *
+         * @param url the URL
+         * @param segment the range
+         * @param permit the permit for the extra connection, or null if it uses the job's connection
+         * @throws IOException thrown on I/O error
+         * @throws InterruptedException thrown on interruption
+         */
+        private void fetchSegment(URL url, Segment segment, ConcurrencyController.Permit permit)
+                throws IOException, InterruptedException {
+            HttpRequest segmentRequest = HttpRequest.get(url).budget(getBudget());
+            segmentRequest.header("Range", "bytes=" + segment.start + "-" + segment.end);
+            try {
+                long start = System.nanoTime();
+                execute(segmentRequest).expectResponseCode(206);
+                if (permit != null) {
+                    permit.responded();
+                }
+                if (segmentRequest.getContentRangeStart() != segment.start) {
+                    throw new IOException("Server returned an unexpected range");
+                }
+                segmentRequest.saveContent(segment.counter);
+                mirrorStats.recordTransfer(url, segment.counter.getCount(), System.nanoTime() - start);
+                if (permit != null) {
+                    permit.release(segment.counter.getCount(), true);
+                }
+            } catch (IOException e) {
+                if (permit != null) {
+                    permit.release(0, !getRetryPolicy().isMirrorFailure(e));
+                }
+                throw e;
+            } finally {
+                closeQuietly(segment.counter);
+                segmentRequest.close();
+                if (permit != null) {
+                    // Such as on interruption
+                    permit.abandon();
+                }
+            }
+        }
+
         @Override
         public double getProgress() {
+            List<CountingOutputStream> counters = this.segmentCounters;
+            if (counters != null) {
+                long written = segmentedPresent;
+                for (CountingOutputStream counter : counters) {
+                    written += counter.getCount();
+                }
+                return written / (double) segmentedSize;
+            }
+
             HttpRequest request = this.request;
             return request != null ? request.getProgress() : -1;
         }
+    }
 
-        @Override
-        public String getStatus() {
-            double progress = getProgress();
-            if (progress >= 0) {
-                return tr("downloader.jobProgress", name, Math.round(progress * 100 * 100) / 100.0);
-            } else {
-                return tr("downloader.jobPending", name);
+    /**
+     * A byte range of a segmented download.
+     */
+    private static class Segment {
+        private final long start;
+        private final long end;
+        private CountingOutputStream counter;
+
+        private Segment(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        private long length() {
+            return end - start + 1;
+        }
+
+        /**
+         * Get the part of this range that has not been written yet.
+         *
+         * @return the missing range, or null if the range is complete
+         */
+        private Segment getMissing() {
+            long written = counter != null ? counter.getCount() : 0;
+            return written < length() ? new Segment(start + written, end) : null;
+        }
+    }
+
+    /**
+     * The ranges of a segmented download that are still missing, which are
+     * saved next to the partial file as the validator of the file, its size
+     * and then a line for each range.
+     */
+    private static class PartialDownload {
+        private final String validator;
+        private final long total;
+        private final List<Segment> missing = new ArrayList<Segment>();
+
+        private PartialDownload(String validator, long total) {
+            this.validator = validator;
+            this.total = total;
+        }
+
+        private void write(File file) throws IOException {
+            StringBuilder builder = new StringBuilder();
+            builder.append(validator).append('\n');
+            builder.append(total).append('\n');
+            for (Segment segment : missing) {
+                builder.append(segment.start).append(' ').append(segment.end).append('\n');
+            }
+            Files.write(builder, file, Charsets.UTF_8);
+        }
+
+        /**
+         * Read the missing ranges of a partial download.
+         *
+         * @param file the file
+         * @return the partial download, or null if there is none or it can't be read
+         */
+        private static PartialDownload read(File file) {
+            if (!file.exists()) {
+                return null;
+            }
+            try {
+                List<String> lines = Files.readLines(file, Charsets.UTF_8);
+                PartialDownload partial = new PartialDownload(lines.get(0), Long.parseLong(lines.get(1)));
+                for (String line : lines.subList(2, lines.size())) {
+                    String[] parts = line.split(" ");
+                    partial.missing.add(new Segment(Long.parseLong(parts[0]), Long.parseLong(parts[1])));
+                }
+                return partial.missing.isEmpty() ? null : partial;
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Failed to read " + file, e);
+            } catch (RuntimeException e) {
+                log.log(Level.WARNING, "Failed to read " + file, e);
             }
+            return null;
         }
     }
 
@@ -0,0 +1,276 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import lombok.Getter;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parses a HTTP/1.1 response as it arrives, in whatever pieces it arrives in.
+ * </p>
+ * The body may be delimited by a Content-Length, be chunked, or run until
+ * the connection is closed. Content encodings are not supported, so the
+ * request must not ask for any.
+ */
+class HttpResponseParser {
+
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private enum State {
+        STATUS_LINE, HEADERS, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS, DONE
+    }
+
+    private State state = State.STATUS_LINE;
+    private final StringBuilder line = new StringBuilder();
+    @Getter private int responseCode;
+    private final Map<String, String> headers = new HashMap<String, String>();
+    @Getter private long contentLength = -1;
+    private boolean chunked;
+    private boolean keepAlive;
+    private long remaining;
+
+    /**
+     * Receives the body of a response.
+     */
+    interface BodySink {
+        /**
+         * Called with the next piece of the body.
+         *
+         * @param data the bytes, which must all be consumed
+         * @throws IOException thrown on I/O error
+         */
+        void write(ByteBuffer data) throws IOException;
+    }
+
+    /**
+     * Check whether the status line and the headers have been read.
+     *
+     * @return true if the headers are available
+     */
+    boolean hasHeaders() {
+        return state != State.STATUS_LINE && state != State.HEADERS;
+    }
+
+    /**
+     * Check whether the whole response has been read.
+     *
+     * @return true if the response is complete
+     */
+    boolean isDone() {
+        return state == State.DONE;
+    }
+
+    /**
+     * Check whether the connection may be used for another request
+     * once the response is complete.
+     *
+     * @return true if the connection can be kept alive
+     */
+    boolean isKeepAlive() {
+        return keepAlive && state == State.DONE;
+    }
+
+    /**
+     * Get the value of a header.
+     *
+     * @param name the name, which is not case sensitive
+     * @return the value, or null if the header was not sent
+     */
+    String getHeader(String name) {
+        return headers.get(name.toLowerCase());
+    }
+
+    /**
+     * Parse the given bytes, passing any body bytes to the sink. Parsing
+     * stops after the headers so that the caller can decide what to do
+     * with the body, and after the end of the response.
+     *
+     * @param data the bytes, ready for reading
+     * @param sink the sink for the body
+     * @throws IOException thrown on a malformed response or an error from the sink
+     */
+    void parse(ByteBuffer data, BodySink sink) throws IOException {
+        while (data.hasRemaining() && state != State.DONE) {
+            switch (state) {
+                case STATUS_LINE:
+                case HEADERS:
+                case CHUNK_SIZE:
+                case CHUNK_END:
+                case TRAILERS:
+                    if (readLine(data)) {
+                        boolean headersDone = handleLine(line.toString());
+                        line.setLength(0);
+                        if (headersDone) {
+                            return;
+                        }
+                    }
+                    break;
+                case BODY:
+                case CHUNK_DATA:
+                    int length = data.remaining();
+                    if (remaining >= 0 && remaining < length) {
+                        length = (int) remaining;
+                    }
+                    ByteBuffer slice = data.slice();
+                    slice.limit(length);
+                    sink.write(slice);
+                    data.position(data.position() + length);
+                    if (remaining >= 0) {
+                        remaining -= length;
+                        if (remaining == 0) {
+                            state = state == State.BODY ? State.DONE : State.CHUNK_END;
+                        }
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Tell the parser that the server closed the connection.
+     *
+     * @throws IOException thrown if the response was not complete
+     */
+    void finish() throws IOException {
+        if (state == State.BODY && remaining < 0) {
+            state = State.DONE;
+        } else if (state != State.DONE) {
+            throw new EOFException("The connection was closed before the response was complete");
+        }
+    }
+
+    private boolean readLine(ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            char c = (char) (data.get() & 0xFF);
+            if (line.length() > MAX_LINE_LENGTH) {
+                throw new IOException("A line of the response is too long");
+            }
+            if (c == '\n') {
+                int end = line.length();
+                if (end > 0 && line.charAt(end - 1) == '\r') {
+                    line.setLength(end - 1);
+                }
+                return true;
+            }
+            line.append(c);
+        }
+        return false;
+    }
+
+    private boolean handleLine(String text) throws IOException {
+        switch (state) {
+            case STATUS_LINE:
+                String[] parts = text.split(" ", 3);
+                if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+                    throw new IOException("Invalid status line: " + text);
+                }
+                try {
+                    responseCode = Integer.parseInt(parts[1]);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid status line: " + text);
+                }
+                keepAlive = !parts[0].equals("HTTP/1.0");
+                state = State.HEADERS;
+                return false;
+
+            case HEADERS:
+                if (!text.isEmpty()) {
+                    int index = text.indexOf(':');
+                    if (index <= 0) {
+                        throw new IOException("Invalid header: " + text);
+                    }
+                    headers.put(text.substring(0, index).trim().toLowerCase(), text.substring(index + 1).trim());
+                    return false;
+                }
+
+                // An interim response such as 100 Continue is followed by the real one
+                if (responseCode >= 100 && responseCode < 200) {
+                    headers.clear();
+                    state = State.STATUS_LINE;
+                    return false;
+                }
+
+                startBody();
+                return true;
+
+            case CHUNK_SIZE:
+                int end = text.indexOf(';');
+                try {
+                    remaining = Long.parseLong((end >= 0 ? text.substring(0, end) : text).trim(), 16);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid chunk size: " + text);
+                }
+                if (remaining < 0) {
+                    throw new IOException("Invalid chunk size: " + text);
+                }
+                state = remaining == 0 ? State.TRAILERS : State.CHUNK_DATA;
+                return false;
+
+            case CHUNK_END:
+                if (!text.isEmpty()) {
+                    throw new IOException("Chunk is longer than its size");
+                }
+                state = State.CHUNK_SIZE;
+                return false;
+
+            case TRAILERS:
+                if (text.isEmpty()) {
+                    state = State.DONE;
+                }
+                return false;
+
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    private void startBody() throws IOException {
+        String connection = getHeader("Connection");
+        if (connection != null) {
+            if (connection.equalsIgnoreCase("close")) {
+                keepAlive = false;
+            } else if (connection.equalsIgnoreCase("keep-alive")) {
+                keepAlive = true;
+            }
+        }
+
+        String encoding = getHeader("Transfer-Encoding");
+        chunked = encoding != null && encoding.toLowerCase().contains("chunked");
+
+        String length = getHeader("Content-Length");
+        if (length != null && !chunked) {
+            try {
+                contentLength = Long.parseLong(length);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid Content-Length: " + length);
+            }
+            if (contentLength < 0) {
+                throw new IOException("Invalid Content-Length: " + length);
+            }
+        }
+
+        if (responseCode == 204 || responseCode == 304) {
+            state = State.DONE;
+        } else if (chunked) {
+            state = State.CHUNK_SIZE;
+        } else if (contentLength >= 0) {
+            remaining = contentLength;
+            state = remaining == 0 ? State.DONE : State.BODY;
+        } else {
+            // The body runs until the server closes the connection
+            remaining = -1;
+            keepAlive = false;
+            state = State.BODY;
+        }
+    }
+
+}
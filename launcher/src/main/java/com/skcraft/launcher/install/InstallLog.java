@@ -7,35 +7,63 @@
 package com.skcraft.launcher.install;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
-import lombok.Data;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.skcraft.launcher.persistence.Persistence;
+import lombok.Getter;
 import lombok.NonNull;
+import lombok.Setter;
+import lombok.extern.java.Log;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.net.URI;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.io.IOException;
+import java.util.*;
+import java.util.logging.Level;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
-@Data
+/**
+ * Records which files were installed into an instance, in groups, so that
+ * the files that a new version no longer has can be removed.
+ * </p>
+ * Almost every file is a group of its own, so those files are only kept
+ * in one set, and other groups are kept separately. The log is saved in a
+ * compact binary format, and a log in the JSON format that was used before
+ * can still be read.
+ */
+@Log
+@JsonIgnoreProperties(ignoreUnknown = true)
 public class InstallLog {
 
-    @JsonIgnore
+    private static final int MAGIC = 0x534b494c; // SKIL
+    private static final int VERSION = 1;
+
+    @JsonIgnore @Getter @Setter
     private File baseDir;
-    private Map<String, Set<String>> entries = new HashMap<String, Set<String>>();
-    @JsonIgnore
-    private Set<String> cache = new HashSet<String>();
+    private final Set<String> files = new HashSet<String>();
+    private final Map<String, Set<String>> groups = new HashMap<String, Set<String>>();
+    private final Set<String> grouped = new HashSet<String>();
 
     public synchronized void add(@NonNull String group, @NonNull String entry) {
-        cache.add(entry);
-        Set<String> subEntries = entries.get(group);
+        if (group.equals(entry) && !groups.containsKey(group)) {
+            files.add(entry);
+            return;
+        }
+
+        Set<String> subEntries = groups.get(group);
         if (subEntries == null) {
             subEntries = new HashSet<String>();
-            entries.put(group, subEntries);
+            groups.put(group, subEntries);
+            // The group was a file of its own until now
+            if (files.remove(group)) {
+                subEntries.add(group);
+                grouped.add(group);
+            }
         }
         subEntries.add(entry);
+        grouped.add(entry);
     }
 
     public synchronized void add(@NonNull File group, @NonNull File entry) {
@@ -43,7 +71,7 @@ public class InstallLog {
     }
 
     public synchronized boolean has(@NonNull String entry) {
-        return cache.contains(entry);
+        return files.contains(entry) || grouped.contains(entry);
     }
 
     public synchronized boolean has(@NonNull File entry) {
@@ -51,7 +79,7 @@ public class InstallLog {
     }
 
     public synchronized boolean copyGroupFrom(InstallLog other, String group) {
-        Set<String> otherSet = other.entries.get(group);
+        Set<String> otherSet = other.getGroup(group);
         if (otherSet == null) {
             return false;
         }
@@ -65,23 +93,161 @@ public class InstallLog {
         return copyGroupFrom(other, relativize(entry));
     }
 
-    @JsonIgnore
     public synchronized Set<Map.Entry<String, Set<String>>> getEntrySet() {
-        return entries.entrySet();
+        return getEntries().entrySet();
     }
 
     public synchronized boolean hasGroup(String group) {
-        return entries.containsKey(group);
+        return files.contains(group) || groups.containsKey(group);
+    }
+
+    /**
+     * Get a copy of the groups and their entries.
+     *
+     * @return the groups
+     */
+    @JsonProperty("entries")
+    public synchronized Map<String, Set<String>> getEntries() {
+        Map<String, Set<String>> entries = new HashMap<String, Set<String>>(files.size() + groups.size());
+        for (String file : files) {
+            entries.put(file, Collections.singleton(file));
+        }
+        for (Map.Entry<String, Set<String>> entry : groups.entrySet()) {
+            entries.put(entry.getKey(), Collections.unmodifiableSet(entry.getValue()));
+        }
+        return entries;
+    }
+
+    /**
+     * Set the groups and their entries, such as from a log in the old format.
+     *
+     * @param entries the groups
+     */
+    @JsonProperty("entries")
+    public synchronized void setEntries(@NonNull Map<String, Set<String>> entries) {
+        files.clear();
+        groups.clear();
+        grouped.clear();
+        for (Map.Entry<String, Set<String>> entry : entries.entrySet()) {
+            for (String value : entry.getValue()) {
+                add(entry.getKey(), value);
+            }
+        }
+    }
+
+    private synchronized Set<String> getGroup(String group) {
+        if (files.contains(group)) {
+            return Collections.singleton(group);
+        } else {
+            return groups.get(group);
+        }
     }
 
     private String relativize(File child) {
         checkNotNull(baseDir);
-        URI uri = child.toURI();
-        String relative = baseDir.toURI().relativize(uri).getPath();
-        if (relative.equals(uri.toString())) {
+        String base = baseDir.getAbsolutePath();
+        String path = child.getAbsolutePath();
+        if (!base.endsWith(File.separator)) {
+            base += File.separator;
+        }
+        if (!path.startsWith(base)) {
             throw new IllegalArgumentException("Child path not in base");
         }
-        return relative;
+        return path.substring(base.length()).replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Write the log to the given file in the binary format.
+     *
+     * @param file the file
+     * @throws IOException thrown on I/O error
+     */
+    public synchronized void write(@NonNull File file) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = CompactFormat.openForWriting(tempFile, MAGIC, VERSION);
+        try {
+            // Files of their own are written as groups without any entries
+            SortedMap<String, Set<String>> sorted = new TreeMap<String, Set<String>>(groups);
+            for (String f : files) {
+                sorted.put(f, Collections.<String>emptySet());
+            }
+
+            CompactFormat.writeVarInt(out, sorted.size());
+            String previous = "";
+            for (Map.Entry<String, Set<String>> entry : sorted.entrySet()) {
+                CompactFormat.writeSharedString(out, previous, entry.getKey());
+                previous = entry.getKey();
+
+                List<String> values = new ArrayList<String>(entry.getValue());
+                Collections.sort(values);
+                CompactFormat.writeVarInt(out, values.size());
+                String previousValue = "";
+                for (String value : values) {
+                    CompactFormat.writeSharedString(out, previousValue, value);
+                    previousValue = value;
+                }
+            }
+        } finally {
+            out.close();
+        }
+        CompactFormat.replace(tempFile, file);
+    }
+
+    /**
+     * Read a log in the binary format.
+     *
+     * @param file the file
+     * @return the log
+     * @throws IOException thrown if the log could not be read
+     */
+    public static InstallLog read(@NonNull File file) throws IOException {
+        InstallLog installLog = new InstallLog();
+        DataInputStream in = CompactFormat.openForReading(file, MAGIC, VERSION);
+        try {
+            int count = CompactFormat.readVarInt(in);
+            String previous = "";
+            for (int i = 0; i < count; i++) {
+                String group = CompactFormat.readSharedString(in, previous);
+                previous = group;
+
+                int size = CompactFormat.readVarInt(in);
+                if (size == 0) {
+                    installLog.add(group, group);
+                }
+                String previousValue = "";
+                for (int j = 0; j < size; j++) {
+                    String value = CompactFormat.readSharedString(in, previousValue);
+                    previousValue = value;
+                    installLog.add(group, value);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return installLog;
+    }
+
+    /**
+     * Read the log from the given file, or from a log in the old JSON
+     * format if there is no log in the binary format yet.
+     *
+     * @param file the log in the binary format
+     * @param legacyFile the log in the JSON format
+     * @return the log, which is empty if neither file could be read
+     */
+    public static InstallLog read(@NonNull File file, @NonNull File legacyFile) {
+        if (file.exists()) {
+            try {
+                return read(file);
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Failed to read " + file, e);
+                return new InstallLog();
+            }
+        } else if (legacyFile.exists()) {
+            return Persistence.read(legacyFile, InstallLog.class);
+        } else {
+            return new InstallLog();
+        }
     }
 
 }
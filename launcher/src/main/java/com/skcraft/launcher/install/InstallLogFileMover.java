@@ -6,37 +6,122 @@
 
 package com.skcraft.launcher.install;
 
+import com.skcraft.launcher.LauncherUtils;
 import lombok.NonNull;
+import lombok.Setter;
 import lombok.extern.java.Log;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.logging.Level;
 
 import static com.skcraft.launcher.util.SharedLocale.tr;
 
 @Log
-public class InstallLogFileMover implements InstallTask {
+public class InstallLogFileMover implements FileTask {
 
     private final InstallLog installLog;
     private final File from;
     private final File to;
+    private final ObjectStore objectStore;
+    private final String hash;
+    @Setter private boolean verified;
+    @Setter private boolean linkable;
+    @Setter private InstallTransaction transaction;
+    private UpdateCache updateCache;
+    private String cacheKey;
 
     public InstallLogFileMover(InstallLog installLog, @NonNull File from, @NonNull File to) {
+        this(installLog, from, to, null, null);
+    }
+
+    /**
+     * Create a new mover that installs the file through the given object store.
+     * The source file is added to the store (unless it is already stored) and
+     * the target is materialized from the store.
+     *
+     * @param installLog the install log
+     * @param from the downloaded file, or the stored object
+     * @param to the target
+     * @param objectStore the object store, or null to move the file directly
+     * @param hash the SHA-1 hash of the file, required if a store is given
+     */
+    public InstallLogFileMover(InstallLog installLog, @NonNull File from, @NonNull File to,
+                               ObjectStore objectStore, String hash) {
         this.installLog = installLog;
         this.from = from;
         this.to = to;
+        this.objectStore = objectStore;
+        this.hash = hash;
+    }
+
+    /**
+     * Record the hash of the installed file in the given update cache so
+     * that the next update does not have to hash it again.
+     *
+     * @param updateCache the update cache
+     * @param cacheKey the key of the file
+     */
+    public void trackIn(@NonNull UpdateCache updateCache, @NonNull String cacheKey) {
+        this.updateCache = updateCache;
+        this.cacheKey = cacheKey;
+    }
+
+    /**
+     * Get the file that is installed.
+     *
+     * @return the target
+     */
+    public File getTarget() {
+        return to;
+    }
+
+    /**
+     * Check whether the file is written to a transaction's staging
+     * directory rather than to its target.
+     *
+     * @return true if staged
+     */
+    public boolean isStaged() {
+        return transaction != null;
     }
 
     @Override
     public void execute() throws IOException {
         InstallLogFileMover.log.log(Level.INFO, "Installing to {0} (from {1})...", new Object[]{to.getAbsoluteFile(), from.getName()});
-        to.getParentFile().mkdirs();
-        to.delete();
-        from.renameTo(to);
+        // With a transaction, the file only replaces the target when the update is committed
+        File dest = transaction != null ? transaction.stage(to) : to;
+        if (objectStore != null) {
+            objectStore.add(hash, from, verified);
+            objectStore.materialize(hash, dest, linkable);
+            if (updateCache != null) {
+                updateCache.markVerified(cacheKey, dest, hash);
+            }
+        } else {
+            LauncherUtils.moveFile(from, dest);
+        }
         installLog.add(to, to);
     }
 
+    @Override
+    public Collection<File> getInputs() {
+        return Collections.singleton(from);
+    }
+
+    @Override
+    public Collection<File> getOutputs() {
+        List<File> outputs = new ArrayList<File>();
+        outputs.add(to);
+        if (objectStore != null) {
+            outputs.add(objectStore.getPath(hash));
+        }
+        return outputs;
+    }
+
     @Override
     public double getProgress() {
         return -1;
@@ -0,0 +1,325 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.java.Log;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs install tasks on a pool of worker threads, starting each task as soon
+ * as the files that it needs are ready, which can be while other files are
+ * still being downloaded.
+ * </p>
+ * The order in which the tasks were queued is kept wherever it matters: a
+ * task waits for the earlier tasks that write the files that it reads or
+ * writes, and for the earlier tasks that read the files that it writes.
+ * Inputs that no earlier task writes are downloads, which are waited for
+ * unless they exist already. Tasks that don't say which files they use
+ * wait for every download and every earlier task, and every later task
+ * waits for them.
+ * </p>
+ * The parent directories of a task's outputs are created before it runs,
+ * and each directory is only checked for once. Files that are staged in
+ * an {@link InstallTransaction} are left out, so that no directory is
+ * created in the instance before the update is committed.
+ */
+@Log
+class InstallPipeline implements DownloadListener {
+
+    private final Installer installer;
+    private final List<Node> nodes = new ArrayList<Node>();
+    private final Map<File, List<Node>> waitingForFile = new HashMap<File, List<Node>>();
+    private final List<Node> waitingForDownloads = new ArrayList<Node>();
+    private final DirectoryCache directories = new DirectoryCache();
+    private ExecutorService executor;
+    private int remaining;
+    private int pending;
+    private Exception failure;
+
+    /**
+     * Create a new pipeline for the given tasks.
+     *
+     * @param installer the installer, which is told about the progress
+     * @param tasks the tasks, in the order that they were queued
+     */
+    InstallPipeline(Installer installer, List<InstallTask> tasks) {
+        this.installer = installer;
+
+        Map<File, Node> writers = new HashMap<File, Node>();
+        Map<File, List<Node>> readers = new HashMap<File, List<Node>>();
+        List<Node> sinceBarrier = new ArrayList<Node>();
+        Node barrier = null;
+
+        for (InstallTask task : tasks) {
+            Node node = new Node(task);
+            Set<Node> dependencies = new HashSet<Node>();
+            if (barrier != null) {
+                dependencies.add(barrier);
+            }
+
+            if (task instanceof FileTask) {
+                FileTask fileTask = (FileTask) task;
+                List<File> inputs = normalize(fileTask.getInputs());
+                List<File> outputs = normalize(fileTask.getOutputs());
+                node.createdOutputs = outputs;
+                if (task instanceof InstallLogFileMover && ((InstallLogFileMover) task).isStaged()) {
+                    // The target only appears once the transaction commits, which creates its directory
+                    node.createdOutputs = new ArrayList<File>(outputs);
+                    node.createdOutputs.remove(((InstallLogFileMover) task).getTarget().getAbsoluteFile());
+                }
+
+                for (File file : inputs) {
+                    Node writer = writers.get(file);
+                    if (writer != null) {
+                        dependencies.add(writer);
+                    } else {
+                        node.downloads.add(file);
+                    }
+                }
+                for (File file : outputs) {
+                    Node writer = writers.get(file);
+                    if (writer != null) {
+                        dependencies.add(writer);
+                    }
+                    List<Node> fileReaders = readers.get(file);
+                    if (fileReaders != null) {
+                        dependencies.addAll(fileReaders);
+                    }
+                }
+
+                for (File file : inputs) {
+                    List<Node> fileReaders = readers.get(file);
+                    if (fileReaders == null) {
+                        fileReaders = new ArrayList<Node>();
+                        readers.put(file, fileReaders);
+                    }
+                    fileReaders.add(node);
+                }
+                for (File file : outputs) {
+                    writers.put(file, node);
+                    readers.remove(file);
+                }
+
+                sinceBarrier.add(node);
+            } else {
+                dependencies.addAll(sinceBarrier);
+                node.waitingForDownloads = true;
+                waitingForDownloads.add(node);
+                barrier = node;
+                sinceBarrier.clear();
+            }
+
+            dependencies.remove(node);
+            for (Node dependency : dependencies) {
+                dependency.dependents.add(node);
+                node.waitingTasks++;
+            }
+            nodes.add(node);
+        }
+
+        remaining = nodes.size();
+    }
+
+    private static List<File> normalize(Collection<File> files) {
+        List<File> normalized = new ArrayList<File>(files.size());
+        for (File file : files) {
+            normalized.add(file.getAbsoluteFile());
+        }
+        return normalized;
+    }
+
+    private void waitFor(Node node, File file) {
+        List<Node> waiting = waitingForFile.get(file);
+        if (waiting == null) {
+            waiting = new ArrayList<Node>();
+            waitingForFile.put(file, waiting);
+        }
+        waiting.add(node);
+        node.waitingFiles++;
+    }
+
+    /**
+     * Run the tasks once the files have already been downloaded. If a task
+     * fails, no more tasks are started.
+     *
+     * @param threads the number of tasks to run at the same time
+     * @throws Exception thrown if a task failed
+     */
+    void execute(int threads) throws Exception {
+        execute(null, threads);
+    }
+
+    /**
+     * Download the files with the given downloader and run the tasks as
+     * their files become ready. If a download or a task fails, no more
+     * tasks are started.
+     *
+     * @param downloader the downloader, with the downloads queued, or null if the files are already downloaded
+     * @param threads the number of tasks to run at the same time
+     * @throws Exception thrown if a download or a task failed
+     */
+    void execute(Downloader downloader, int threads) throws Exception {
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("Installer %d")
+                .build());
+        if (downloader != null) {
+            downloader.setListener(this);
+        }
+
+        try {
+            synchronized (this) {
+                for (Node node : nodes) {
+                    if (downloader != null) {
+                        for (File file : node.downloads) {
+                            if (!file.exists()) {
+                                waitFor(node, file);
+                            }
+                        }
+                    } else {
+                        node.waitingForDownloads = false;
+                    }
+                    submitIfReady(node);
+                }
+            }
+
+            if (downloader != null) {
+                try {
+                    downloader.execute();
+                    installer.setDownloaded();
+                } catch (Exception e) {
+                    fail(e);
+                }
+            }
+
+            synchronized (this) {
+                if (failure == null) {
+                    // Anything still waiting for a file will fail without it, as it would have before
+                    for (List<Node> waiting : waitingForFile.values()) {
+                        for (Node node : waiting) {
+                            node.waitingFiles = 0;
+                            submitIfReady(node);
+                        }
+                    }
+                    waitingForFile.clear();
+                    for (Node node : waitingForDownloads) {
+                        node.waitingForDownloads = false;
+                        submitIfReady(node);
+                    }
+                }
+
+                try {
+                    while (pending > 0 || (failure == null && remaining > 0)) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    fail(e);
+                    throw e;
+                }
+
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+        } finally {
+            if (downloader != null) {
+                downloader.setListener(null);
+            }
+            // Tasks that were started are left to finish, but no more are started
+            executor.shutdown();
+        }
+    }
+
+    @Override
+    public synchronized void downloaded(File file) {
+        List<Node> waiting = waitingForFile.remove(file.getAbsoluteFile());
+        if (waiting != null && failure == null) {
+            for (Node node : waiting) {
+                node.waitingFiles--;
+                submitIfReady(node);
+            }
+        }
+    }
+
+    private synchronized void fail(Exception e) {
+        if (failure == null) {
+            failure = e;
+        }
+        notifyAll();
+    }
+
+    private void submitIfReady(Node node) {
+        if (!node.submitted && node.waitingTasks == 0 && node.waitingFiles == 0 && !node.waitingForDownloads) {
+            node.submitted = true;
+            pending++;
+            executor.execute(node);
+        }
+    }
+
+    private class Node implements Runnable {
+        private final InstallTask task;
+        private final List<Node> dependents = new ArrayList<Node>();
+        private List<File> createdOutputs = Collections.emptyList();
+        private final List<File> downloads = new ArrayList<File>(1);
+        private int waitingTasks;
+        private int waitingFiles;
+        private boolean waitingForDownloads;
+        private boolean submitted;
+
+        private Node(InstallTask task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            boolean skip;
+            synchronized (InstallPipeline.this) {
+                skip = failure != null;
+            }
+
+            Exception error = null;
+            if (!skip) {
+                installer.started(task);
+                try {
+                    for (File file : createdOutputs) {
+                        directories.mkdirs(file.getParentFile());
+                    }
+                    task.execute();
+                } catch (Exception e) {
+                    error = e;
+                } finally {
+                    installer.finished(task);
+                }
+            }
+
+            synchronized (InstallPipeline.this) {
+                pending--;
+                if (error != null) {
+                    log.warning("Failed to execute " + task + ": " + error.getMessage());
+                    fail(error);
+                } else if (!skip) {
+                    remaining--;
+                    if (failure == null) {
+                        for (Node dependent : dependents) {
+                            dependent.waitingTasks--;
+                            submitIfReady(dependent);
+                        }
+                    }
+                }
+                if (pending == 0) {
+                    InstallPipeline.this.notifyAll();
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,332 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.skcraft.launcher.LauncherUtils;
+import lombok.Data;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.java.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+
+/**
+ * Collects the changes that an update makes to an instance and applies them
+ * all at once, so that an update that fails or is cut short leaves the
+ * instance as it was rather than half-updated.
+ * </p>
+ * New files are written to a staging directory, which should be on the same
+ * file system as the instance, and files to remove are only noted. When the
+ * transaction is committed, the staged files are synced to disk and a record
+ * of the commit is written. Each file that is replaced or removed is then moved
+ * aside and each staged file is moved into place, and the record is deleted
+ * once every file has been moved. If the commit fails, or the launcher stops
+ * before the record is deleted, the files that were moved aside are moved back,
+ * either straight away or by {@link #recover(File)}, which is called when a
+ * transaction is next opened in the same staging directory and before the
+ * instance is launched.
+ */
+@Log
+public class InstallTransaction {
+
+    private static final String RECORD_NAME = "commit.json";
+    private static final int SYNC_THREADS = 8;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    @Getter private final File dir;
+    private final Map<File, Change> changes = new LinkedHashMap<File, Change>();
+    private int stagedCount;
+    @Getter private boolean committed;
+
+    /**
+     * Open a transaction that stages files in the given directory. If an
+     * earlier commit in the same directory did not finish, it is rolled back,
+     * and anything else left in the directory is deleted.
+     *
+     * @param dir the staging directory
+     */
+    public InstallTransaction(@NonNull File dir) {
+        this.dir = dir;
+        recover(dir);
+    }
+
+    /**
+     * Roll back a commit in the given staging directory that did not finish,
+     * such as because the launcher crashed, and delete anything else left in
+     * the directory.
+     * </p>
+     * If a commit could not be rolled back, the files that it moved aside
+     * are kept so that they can be restored by hand, and the instance is
+     * left in a mix of old and new files.
+     *
+     * @param dir the staging directory
+     * @return true if there was nothing to roll back or it was rolled back
+     */
+    public static boolean recover(@NonNull File dir) {
+        File recordFile = new File(dir, RECORD_NAME);
+        if (recordFile.exists()) {
+            log.warning("Rolling back an update that did not finish committing in " + dir);
+            try {
+                Record record = new ObjectMapper().readValue(recordFile, Record.class);
+                if (!restore(record.getChanges())) {
+                    log.warning("Not every file could be restored in " + dir + ", so the rest are kept");
+                    return false;
+                }
+            } catch (IOException e) {
+                // Keep the files that were moved aside, so that they can be restored by hand
+                log.log(Level.WARNING, "Failed to read " + recordFile + ", so the update can't be rolled back", e);
+                return false;
+            }
+        }
+
+        clean(dir);
+        return true;
+    }
+
+    /**
+     * Get the file to write the new contents of the given file to. The file
+     * replaces the target when the transaction is committed.
+     *
+     * @param target the file to replace
+     * @return the staged file, which does not exist yet
+     */
+    public synchronized File stage(@NonNull File target) {
+        target = target.getAbsoluteFile();
+        Change change = changes.get(target);
+        if (change == null || change.getStaged() == null) {
+            change = new Change();
+            change.setTarget(target.getPath());
+            change.setStaged(new File(dir, String.valueOf(stagedCount++)).getPath());
+            changes.remove(target);
+            changes.put(target, change);
+        }
+        File staged = new File(change.getStaged());
+        staged.getParentFile().mkdirs();
+        staged.delete();
+        return staged;
+    }
+
+    /**
+     * Remove the given file when the transaction is committed.
+     *
+     * @param target the file to remove
+     */
+    public synchronized void delete(@NonNull File target) {
+        target = target.getAbsoluteFile();
+        Change change = changes.remove(target);
+        if (change != null && change.getStaged() != null) {
+            new File(change.getStaged()).delete();
+        }
+        change = new Change();
+        change.setTarget(target.getPath());
+        changes.put(target, change);
+    }
+
+    /**
+     * Apply the staged changes.
+     *
+     * @throws IOException thrown if the changes could not be applied, in which case they were rolled back
+     */
+    public synchronized void commit() throws IOException {
+        if (committed) {
+            throw new IllegalStateException("Already committed");
+        }
+
+        List<Change> list = new ArrayList<Change>(changes.values());
+        for (int i = 0; i < list.size(); i++) {
+            list.get(i).setBackup(new File(dir, i + ".old").getPath());
+        }
+
+        long start = System.currentTimeMillis();
+        syncStaged(list);
+        long synced = System.currentTimeMillis();
+
+        // From here on, the changes can be rolled back after a crash
+        Record record = new Record();
+        record.setChanges(list);
+        writeRecord(record);
+
+        try {
+            for (Change change : list) {
+                File target = new File(change.getTarget());
+                File backup = new File(change.getBackup());
+                if (target.exists() && !target.renameTo(backup)) {
+                    throw new IOException("Failed to move " + target + " aside, which may be in use");
+                }
+                if (change.getStaged() != null) {
+                    File staged = new File(change.getStaged());
+                    target.getParentFile().mkdirs();
+                    LauncherUtils.moveFile(staged, target);
+                }
+            }
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to commit the update, so it is being rolled back", e);
+            if (restore(list)) {
+                clean(dir);
+            }
+            throw e;
+        }
+
+        // This is the point at which the update has happened
+        if (!new File(dir, RECORD_NAME).delete()) {
+            throw new IOException("Failed to delete the commit record in " + dir);
+        }
+        committed = true;
+        clean(dir);
+
+        log.info("Committed " + list.size() + " change(s) in " + (System.currentTimeMillis() - start) +
+                " ms, of which syncing the staged files took " + (synced - start) + " ms");
+    }
+
+    /**
+     * Discard the staged changes if the transaction was not committed.
+     * A commit that failed part way and could not be rolled back is tried
+     * again.
+     */
+    public synchronized void rollback() {
+        if (!committed) {
+            changes.clear();
+            recover(dir);
+        }
+    }
+
+    /**
+     * Flush the staged files to disk before they replace anything, on
+     * several threads so that the file system can write them together.
+     */
+    private void syncStaged(List<Change> list) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(SYNC_THREADS, new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("Install Sync %d")
+                .build());
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final Change change : list) {
+                if (change.getStaged() != null) {
+                    futures.add(executor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                sync(new File(change.getStaged()));
+                            } catch (IOException e) {
+                                throw new RuntimeException(e);
+                            }
+                        }
+                    }));
+                }
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while syncing the staged files");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof RuntimeException && e.getCause().getCause() != null
+                    ? e.getCause().getCause() : e.getCause();
+            throw new IOException("Failed to sync the staged files: " + cause.getMessage(), cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void writeRecord(Record record) throws IOException {
+        File recordFile = new File(dir, RECORD_NAME);
+        File tempFile = new File(dir, RECORD_NAME + ".tmp");
+        dir.mkdirs();
+
+        FileOutputStream fos = new FileOutputStream(tempFile);
+        try {
+            fos.write(mapper.writeValueAsBytes(record));
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+
+        if (!tempFile.renameTo(recordFile)) {
+            throw new IOException("Failed to write the commit record to " + recordFile);
+        }
+    }
+
+    /**
+     * Put back the files that were moved aside by a commit, and remove the
+     * files that the commit added.
+     *
+     * @return true if every file was restored
+     */
+    private static boolean restore(List<Change> list) {
+        boolean restored = true;
+        List<Change> reversed = new ArrayList<Change>(list);
+        Collections.reverse(reversed);
+
+        for (Change change : reversed) {
+            File target = new File(change.getTarget());
+            File backup = change.getBackup() != null ? new File(change.getBackup()) : null;
+            File staged = change.getStaged() != null ? new File(change.getStaged()) : null;
+
+            try {
+                if (backup != null && backup.exists()) {
+                    target.delete();
+                    target.getParentFile().mkdirs();
+                    LauncherUtils.moveFile(backup, target);
+                } else if (staged != null && !staged.exists() && target.exists()) {
+                    // The file was new, and it had been moved into place
+                    target.delete();
+                }
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Failed to restore " + target, e);
+                restored = false;
+            }
+        }
+
+        return restored;
+    }
+
+    private static void clean(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.delete()) {
+                    log.warning("Failed to delete " + file);
+                }
+            }
+        }
+    }
+
+    private static void sync(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.getFD().sync();
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Data
+    public static class Record {
+        private List<Change> changes = new ArrayList<Change>();
+    }
+
+    @Data
+    public static class Change {
+        private String target;
+        private String staged;
+        private String backup;
+    }
+
+}
@@ -10,31 +10,51 @@ import com.skcraft.concurrency.ProgressObservable;
 import com.skcraft.launcher.util.SharedLocale;
 import lombok.Getter;
 import lombok.NonNull;
+import lombok.Setter;
 import lombok.extern.java.Log;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import static com.skcraft.launcher.LauncherUtils.checkInterrupted;
+import static com.skcraft.launcher.LauncherUtils.concat;
 import static com.skcraft.launcher.util.SharedLocale.tr;
 
 @Log
 public class Installer implements ProgressObservable {
 
     @Getter private final File tempDir;
-    private final HttpDownloader downloader;
-    private InstallTask running;
-    private int count = 0;
-    private int finished = 0;
+    private final Downloader downloader;
+    @Getter @Setter private ObjectStore objectStore;
+    @Getter private List<URL> localMirrors = Collections.emptyList();
+    @Getter private DownloadJournal journal;
+    @Getter @Setter private InstallTransaction transaction;
+    @Getter @Setter private int installThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+    // Written by the installing threads and read without locking by the progress dialog
+    private volatile InstallTask running;
+    private volatile int count = 0;
+    private final AtomicInteger finished = new AtomicInteger();
+    private volatile boolean downloaded;
 
     private List<InstallTask> queue = new ArrayList<InstallTask>();
+    private final Set<String> plannedObjects = new HashSet<String>();
 
     public Installer(@NonNull File tempDir) {
+        this(tempDir, DownloadEngine.BLOCKING);
+    }
+
+    /**
+     * Create a new installer that downloads files with the given engine.
+     *
+     * @param tempDir the temporary directory
+     * @param engine the download engine
+     */
+    public Installer(@NonNull File tempDir, @NonNull DownloadEngine engine) {
         this.tempDir = tempDir;
-        this.downloader = new HttpDownloader(tempDir);
+        this.downloader = engine.createDownloader(tempDir);
     }
 
     public synchronized void queue(@NonNull InstallTask runnable) {
@@ -42,32 +62,186 @@ public class Installer implements ProgressObservable {
         count++;
     }
 
+    /**
+     * Note that the objects with the given hashes will be in the object
+     * store once the queued tasks have run, such as because a bundle that
+     * contains them was queued.
+     *
+     * @param hashes the SHA-1 hashes of the objects
+     */
+    public synchronized void addPlannedObjects(@NonNull Collection<String> hashes) {
+        for (String hash : hashes) {
+            plannedObjects.add(hash.toLowerCase());
+        }
+    }
+
+    /**
+     * Check whether the object with the given hash will be in the object
+     * store once the queued tasks have run.
+     *
+     * @param hash the SHA-1 hash of the object
+     * @return true if the object is planned
+     * @see #addPlannedObjects(Collection)
+     */
+    public synchronized boolean isPlannedObject(@NonNull String hash) {
+        return plannedObjects.contains(hash.toLowerCase());
+    }
+
     public void download() throws IOException, InterruptedException {
         downloader.execute();
+        downloaded = true;
     }
 
+    /**
+     * Run the queued tasks once the files have been downloaded. Tasks that
+     * don't work on the same files are run at the same time on a pool of
+     * worker threads.
+     *
+     * @throws Exception thrown if a task failed
+     * @see InstallPipeline
+     */
     public synchronized void execute() throws Exception {
         queue = Collections.unmodifiableList(queue);
 
         try {
-            for (InstallTask runnable : queue) {
-                checkInterrupted();
-                running = runnable;
-                runnable.execute();
-                finished++;
-            }
+            new InstallPipeline(this, queue).execute(installThreads);
+        } finally {
+            running = null;
+        }
+    }
+
+    /**
+     * Download the files and run the queued tasks at the same time, starting
+     * each task on a pool of worker threads once the files that it needs have
+     * been downloaded and verified, rather than waiting for every download
+     * to finish first.
+     *
+     * @throws Exception thrown if a download or a task failed
+     * @see InstallPipeline
+     */
+    public synchronized void downloadAndExecute() throws Exception {
+        queue = Collections.unmodifiableList(queue);
+
+        try {
+            new InstallPipeline(this, queue).execute(downloader, installThreads);
         } finally {
             running = null;
         }
     }
 
+    /**
+     * Check whether all of the downloads have finished.
+     *
+     * @return true if downloaded
+     */
+    public boolean isDownloaded() {
+        return downloaded;
+    }
+
+    void setDownloaded() {
+        downloaded = true;
+    }
+
+    void started(InstallTask task) {
+        running = task;
+    }
+
+    void finished(InstallTask task) {
+        finished.incrementAndGet();
+    }
+
+    /**
+     * Set the bounds within which the number of concurrent downloads from
+     * each host is adjusted.
+     *
+     * @param min the minimum number of concurrent downloads per host
+     * @param max the maximum number of concurrent downloads per host
+     */
+    public void setDownloadConcurrency(int min, int max) {
+        downloader.setConcurrency(min, max);
+    }
+
+    /**
+     * Set the order in which queued downloads are started.
+     *
+     * @param policy the scheduling policy
+     */
+    public void setSchedulingPolicy(@NonNull SchedulingPolicy policy) {
+        downloader.setSchedulingPolicy(policy);
+    }
+
+    /**
+     * Set the base URLs of other launchers on the local network that serve
+     * their files with a {@link MirrorServer}. They are tried before any
+     * other source for files whose hash is known.
+     *
+     * @param mirrors the base URLs
+     */
+    public void setLocalMirrors(@NonNull List<URL> mirrors) {
+        this.localMirrors = Collections.unmodifiableList(new ArrayList<URL>(mirrors));
+        downloader.setPreferredMirrors(localMirrors);
+    }
+
+    /**
+     * Get the URLs to download the object with the given hash from, which
+     * are the local mirrors followed by the given URL.
+     *
+     * @param url the URL of the object at its source
+     * @param hash the SHA-1 hash of the object
+     * @return a list of URLs
+     */
+    public List<URL> getObjectUrls(@NonNull URL url, @NonNull String hash) {
+        return getMirrorUrls(MirrorServer.OBJECTS_PATH + hash, url);
+    }
+
+    /**
+     * Get the URLs to download the file with the given path on the local
+     * mirrors from, followed by the given URLs.
+     *
+     * @param path the path on the mirrors
+     * @param urls the URLs of the file at its source
+     * @return a list of URLs
+     */
+    public List<URL> getMirrorUrls(@NonNull String path, @NonNull URL... urls) {
+        List<URL> result = new ArrayList<URL>();
+        for (URL mirror : localMirrors) {
+            try {
+                result.add(concat(mirror, path));
+            } catch (MalformedURLException e) {
+                log.warning("Bad local mirror URL: " + mirror);
+            }
+        }
+        Collections.addAll(result, urls);
+        return result;
+    }
+
+    /**
+     * Set the journal that records the progress of the update, so that
+     * it can be resumed if it is interrupted.
+     *
+     * @param journal the journal, or null to not keep one
+     */
+    public void setJournal(DownloadJournal journal) {
+        this.journal = journal;
+        downloader.setJournal(journal);
+    }
+
     public Downloader getDownloader() {
         return downloader;
     }
 
+    /**
+     * Get the progress of the downloads without waiting on the download threads.
+     *
+     * @return a snapshot of the download progress
+     */
+    public DownloadSnapshot getDownloadSnapshot() {
+        return downloader.getSnapshot();
+    }
+
     @Override
     public double getProgress() {
-        return finished / (double) count;
+        return finished.get() / (double) count;
     }
 
     @Override
@@ -78,7 +252,7 @@ public class Installer implements ProgressObservable {
             if (status == null) {
                 status = running.toString();
             }
-            return tr("installer.executing", count - finished) + "\n" + status;
+            return tr("installer.executing", count - finished.get()) + "\n" + status;
         } else {
             return SharedLocale.tr("installer.installing");
         }
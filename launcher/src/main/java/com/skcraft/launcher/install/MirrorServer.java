@@ -0,0 +1,201 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import lombok.extern.java.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Serves the objects, libraries and assets that this launcher has downloaded
+ * to other launchers on the local network, which can then use it as a
+ * mirror that is tried before the usual sources.
+ * </p>
+ * Objects and assets are requested by hash and libraries by their path.
+ * Nothing served is trusted by the other side: every file fetched from
+ * a mirror must have a known hash, which the downloader checks.
+ */
+@Log
+public class MirrorServer {
+
+    public static final String OBJECTS_PATH = "objects/";
+    public static final String ASSETS_PATH = "assets/";
+    public static final String LIBRARIES_PATH = "libraries/";
+
+    private final ObjectStore objectStore;
+    private final File assetsDir;
+    private final File librariesDir;
+    @Getter @Setter private int threads = 4;
+    private HttpServer server;
+    private ExecutorService executor;
+    private final AtomicLong servedCount = new AtomicLong();
+    private final AtomicLong servedBytes = new AtomicLong();
+    private final AtomicLong missingCount = new AtomicLong();
+
+    /**
+     * Create a new mirror server.
+     *
+     * @param objectStore the object store
+     * @param assetsDir the assets directory, which contains the objects directory
+     * @param librariesDir the libraries directory
+     */
+    public MirrorServer(@NonNull ObjectStore objectStore, @NonNull File assetsDir, @NonNull File librariesDir) {
+        this.objectStore = objectStore;
+        this.assetsDir = assetsDir;
+        this.librariesDir = librariesDir;
+    }
+
+    /**
+     * Start listening on all interfaces on the given port. If the server
+     * is already running on another port, it is restarted.
+     *
+     * @param port the port
+     * @throws IOException thrown if the port could not be bound
+     */
+    public synchronized void start(int port) throws IOException {
+        if (server != null) {
+            if (server.getAddress().getPort() == port) {
+                return;
+            }
+            stop();
+        }
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("Mirror Server %d")
+                .build());
+        server.setExecutor(executor);
+        server.createContext("/", new Handler());
+        server.start();
+        this.server = server;
+
+        log.info("Serving downloaded files to other launchers on port " + port);
+    }
+
+    /**
+     * Stop the server if it is running.
+     */
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+            executor = null;
+
+            log.info("Mirror server stopped after serving " + servedCount.get() + " files (" +
+                    servedBytes.get() + " bytes, " + missingCount.get() + " not available)");
+        }
+    }
+
+    /**
+     * Check whether the server is running.
+     *
+     * @return true if running
+     */
+    public synchronized boolean isRunning() {
+        return server != null;
+    }
+
+    /**
+     * Get the file for the given request path.
+     *
+     * @param path the path, without the leading slash
+     * @return the file, or null if the path is not one that is served
+     */
+    private File resolve(String path) throws IOException {
+        if (path.startsWith(OBJECTS_PATH)) {
+            String hash = path.substring(OBJECTS_PATH.length());
+            return ObjectStore.isValidHash(hash) ? objectStore.getPath(hash) : null;
+        }
+
+        if (path.startsWith(ASSETS_PATH)) {
+            String[] parts = path.substring(ASSETS_PATH.length()).split("/");
+            if (parts.length != 2 || !ObjectStore.isValidHash(parts[1]) || !parts[1].startsWith(parts[0])) {
+                return null;
+            }
+            return new File(assetsDir, "objects/" + parts[0] + "/" + parts[1]);
+        }
+
+        if (path.startsWith(LIBRARIES_PATH)) {
+            String relative = path.substring(LIBRARIES_PATH.length());
+            for (String part : relative.split("/", -1)) {
+                if (part.isEmpty() || part.equals(".") || part.equals("..") || part.contains("\\")) {
+                    return null;
+                }
+            }
+            File file = new File(librariesDir, relative);
+            // Do not follow links out of the libraries directory
+            if (!file.getCanonicalPath().startsWith(librariesDir.getCanonicalPath() + File.separator)) {
+                return null;
+            }
+            return file;
+        }
+
+        return null;
+    }
+
+    private class Handler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                String method = exchange.getRequestMethod();
+                if (!method.equals("GET") && !method.equals("HEAD")) {
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+
+                String path = exchange.getRequestURI().getPath();
+                File file = path.startsWith("/") ? resolve(path.substring(1)) : null;
+                if (file == null || !file.isFile()) {
+                    missingCount.incrementAndGet();
+                    exchange.sendResponseHeaders(404, -1);
+                    return;
+                }
+
+                long length = file.length();
+                exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+                if (method.equals("HEAD")) {
+                    exchange.getResponseHeaders().set("Content-Length", String.valueOf(length));
+                    exchange.sendResponseHeaders(200, -1);
+                    return;
+                }
+
+                // A length of 0 would mean a chunked response to the server
+                exchange.sendResponseHeaders(200, length > 0 ? length : -1);
+                if (length > 0) {
+                    OutputStream out = exchange.getResponseBody();
+                    Files.copy(file, out);
+                    out.flush();
+                }
+                servedCount.incrementAndGet();
+                servedBytes.addAndGet(length);
+            } catch (IOException e) {
+                log.log(Level.FINE, "Failed to serve " + exchange.getRequestURI() +
+                        " to " + exchange.getRemoteAddress(), e);
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+}
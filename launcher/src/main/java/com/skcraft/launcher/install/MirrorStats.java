@@ -0,0 +1,221 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import lombok.NonNull;
+import lombok.extern.java.Log;
+
+import java.net.URL;
+import java.util.*;
+
+/**
+ * Keeps track of the latency and throughput of each mirror (identified by
+ * protocol, host and port) in order to pick the best mirror for a file.
+ * </p>
+ * Mirrors whose expected download time is close to that of the best one
+ * are taken in turns, so that a set of files is spread over all healthy
+ * mirrors rather than all going to the one that happens to be slightly faster.
+ * Preferred mirrors, such as another launcher on the local network, come
+ * before all others regardless of how they measure up.
+ */
+@Log
+public class MirrorStats {
+
+    private static final double SMOOTHING = 0.2;
+    private static final double SIMILARITY = 1.2;
+    private static final int SAMPLE_COUNT = 100;
+    private static final int MIN_HEDGE_SAMPLES = 20;
+    private static final double FAILURE_PENALTY = 4;
+
+    private final Map<String, Mirror> mirrors = new HashMap<String, Mirror>();
+    private final Set<String> preferred = new HashSet<String>();
+    private int turn = 0;
+
+    private static String getKey(URL url) {
+        return url.getProtocol() + "://" + url.getAuthority();
+    }
+
+    private Mirror getMirror(URL url) {
+        String key = getKey(url);
+        Mirror mirror = mirrors.get(key);
+        if (mirror == null) {
+            mirror = new Mirror(key);
+            mirrors.put(key, mirror);
+        }
+        return mirror;
+    }
+
+    /**
+     * Set the mirrors that should be tried before all others.
+     *
+     * @param urls URLs on the preferred mirrors
+     */
+    public synchronized void setPreferred(@NonNull Collection<URL> urls) {
+        preferred.clear();
+        for (URL url : urls) {
+            preferred.add(getKey(url));
+        }
+    }
+
+    /**
+     * Record the time it took to get the response headers from a mirror.
+     *
+     * @param url the URL that was requested
+     * @param nanos the time in nanoseconds
+     */
+    public synchronized void recordLatency(@NonNull URL url, long nanos) {
+        Mirror mirror = getMirror(url);
+        mirror.latency = mirror.latency < 0 ? nanos : (long) (mirror.latency * (1 - SMOOTHING) + nanos * SMOOTHING);
+        mirror.samples[mirror.sampleCount++ % SAMPLE_COUNT] = nanos;
+        mirror.failures = 0;
+    }
+
+    /**
+     * Record a completed transfer from a mirror.
+     *
+     * @param url the URL that was requested
+     * @param bytes the number of bytes transferred
+     * @param nanos the time the transfer took in nanoseconds
+     */
+    public synchronized void recordTransfer(@NonNull URL url, long bytes, long nanos) {
+        if (bytes <= 0 || nanos <= 0) {
+            return;
+        }
+        Mirror mirror = getMirror(url);
+        double rate = bytes / (nanos / 1e9);
+        mirror.throughput = mirror.throughput < 0 ? rate : mirror.throughput * (1 - SMOOTHING) + rate * SMOOTHING;
+    }
+
+    /**
+     * Record a failed request to a mirror.
+     *
+     * @param url the URL that was requested
+     */
+    public synchronized void recordFailure(@NonNull URL url) {
+        getMirror(url).failures++;
+    }
+
+    /**
+     * Get the 95th percentile of the time it took to get response headers
+     * from the mirror of the given URL.
+     *
+     * @param url the URL
+     * @return the time in nanoseconds, or -1 if there are not enough samples yet
+     */
+    public synchronized long getLatencyPercentile(@NonNull URL url) {
+        Mirror mirror = mirrors.get(getKey(url));
+        if (mirror == null || mirror.sampleCount < MIN_HEDGE_SAMPLES) {
+            return -1;
+        }
+        int count = Math.min(mirror.sampleCount, SAMPLE_COUNT);
+        long[] sorted = Arrays.copyOf(mirror.samples, count);
+        Arrays.sort(sorted);
+        return sorted[(int) Math.ceil(count * 0.95) - 1];
+    }
+
+    /**
+     * Order the given URLs so that the mirror expected to deliver a file of
+     * the given size the soonest comes first. Mirrors that have not been
+     * used yet are treated as being as good as the best one so that they get
+     * measured. URLs on preferred mirrors are put first, in their given order.
+     *
+     * @param urls the URLs
+     * @param size the size of the file
+     * @return a new list of the URLs, best first
+     */
+    public synchronized List<URL> rank(@NonNull List<URL> urls, long size) {
+        if (!preferred.isEmpty()) {
+            List<URL> first = new ArrayList<URL>();
+            List<URL> others = new ArrayList<URL>();
+            for (URL url : urls) {
+                (preferred.contains(getKey(url)) ? first : others).add(url);
+            }
+            if (!first.isEmpty()) {
+                first.addAll(rankOthers(others, size));
+                return first;
+            }
+        }
+        return rankOthers(urls, size);
+    }
+
+    private List<URL> rankOthers(List<URL> urls, long size) {
+        if (urls.size() <= 1) {
+            return urls;
+        }
+
+        final Map<URL, Double> costs = new HashMap<URL, Double>();
+        double best = Double.MAX_VALUE;
+        for (URL url : urls) {
+            Mirror mirror = mirrors.get(getKey(url));
+            double cost = mirror != null ? mirror.getCost(size) : -1;
+            costs.put(url, cost);
+            if (cost >= 0) {
+                best = Math.min(best, cost);
+            }
+        }
+
+        // Mirrors close to the best one are taken in turns
+        List<URL> preferred = new ArrayList<URL>();
+        List<URL> rest = new ArrayList<URL>();
+        for (URL url : urls) {
+            double cost = costs.get(url);
+            if (cost < 0 || cost <= best * SIMILARITY) {
+                preferred.add(url);
+            } else {
+                rest.add(url);
+            }
+        }
+
+        Collections.rotate(preferred, -(turn++ % preferred.size()));
+        Collections.sort(rest, new Comparator<URL>() {
+            @Override
+            public int compare(URL o1, URL o2) {
+                return Double.compare(costs.get(o1), costs.get(o2));
+            }
+        });
+
+        List<URL> ranked = new ArrayList<URL>(urls.size());
+        ranked.addAll(preferred);
+        ranked.addAll(rest);
+        return ranked;
+    }
+
+    /**
+     * Log the measurements of each mirror.
+     */
+    public synchronized void logStatistics() {
+        for (Mirror mirror : mirrors.values()) {
+            log.info(String.format("Mirror %s: %.0f ms latency, %.0f KB/s, %d samples",
+                    mirror.key, mirror.latency / 1e6, Math.max(0, mirror.throughput) / 1024, mirror.sampleCount));
+        }
+    }
+
+    private static class Mirror {
+        private final String key;
+        private final long[] samples = new long[SAMPLE_COUNT];
+        private int sampleCount;
+        private long latency = -1;
+        private double throughput = -1;
+        private int failures;
+
+        private Mirror(String key) {
+            this.key = key;
+        }
+
+        private double getCost(long size) {
+            if (latency < 0 && failures == 0) {
+                return -1;
+            }
+            double cost = Math.max(0, latency) / 1e9;
+            if (throughput > 0) {
+                cost += size / throughput;
+            }
+            return cost * Math.pow(FAILURE_PENALTY, failures) + failures;
+        }
+    }
+
+}
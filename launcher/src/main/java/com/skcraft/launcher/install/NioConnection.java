@@ -0,0 +1,359 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.net.ssl.*;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A non-blocking connection to a HTTP server, which may be secured with TLS.
+ * </p>
+ * The connection is driven by the selector thread of a {@link NioDownloader}
+ * and is not thread safe. Bytes to send are queued with {@link #send(ByteBuffer)}
+ * and received bytes are collected in {@link #getInput()}, which is kept
+ * ready for writing between calls.
+ */
+class NioConnection {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    @Getter private final String hostKey;
+    private final String host;
+    private final int port;
+    private final boolean secure;
+    private SocketChannel channel;
+    private SelectionKey key;
+    private SSLEngine engine;
+    private boolean identityChecked;
+    private boolean verified;
+    private ByteBuffer netIn;
+    private ByteBuffer netOut;
+    private ByteBuffer plainOut = EMPTY;
+    @Getter private ByteBuffer input;
+    @Getter private boolean connected;
+    @Getter private boolean closed;
+    @Getter @Setter private Object attachment;
+    @Getter private int requestCount;
+    @Getter private long lastActivity;
+    @Getter private boolean paused;
+
+    /**
+     * Create a new connection to the host of the given URL.
+     *
+     * @param url the URL
+     */
+    NioConnection(URL url) {
+        this.hostKey = getHostKey(url);
+        this.host = url.getHost();
+        this.secure = url.getProtocol().equalsIgnoreCase("https");
+        this.port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+    }
+
+    /**
+     * Get the key that connections that can be shared between URLs have in common.
+     *
+     * @param url the URL
+     * @return the key
+     */
+    static String getHostKey(URL url) {
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        return url.getProtocol().toLowerCase() + "://" + url.getHost().toLowerCase() + ":" + port;
+    }
+
+    /**
+     * Start connecting.
+     *
+     * @param selector the selector to register with
+     * @throws IOException thrown on I/O error
+     */
+    void connect(Selector selector) throws IOException {
+        lastActivity = System.currentTimeMillis();
+        channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+            if (channel.connect(new InetSocketAddress(host, port))) {
+                finishConnect();
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Complete connecting once the selector says the socket is connectable.
+     *
+     * @throws IOException thrown on I/O error
+     */
+    void finishConnect() throws IOException {
+        if (!channel.finishConnect()) {
+            return;
+        }
+
+        connected = true;
+        lastActivity = System.currentTimeMillis();
+
+        if (secure) {
+            try {
+                engine = SSLContext.getDefault().createSSLEngine(host, port);
+            } catch (Exception e) {
+                throw new SSLException("Could not create a TLS engine", e);
+            }
+            engine.setUseClientMode(true);
+            identityChecked = requireIdentity(engine);
+            engine.beginHandshake();
+            netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+            netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+            input = ByteBuffer.allocate(Math.max(BUFFER_SIZE, engine.getSession().getApplicationBufferSize()));
+        } else {
+            input = ByteBuffer.allocate(BUFFER_SIZE);
+        }
+
+        pump();
+    }
+
+    /**
+     * Queue bytes to be sent, such as a request. The previous bytes must
+     * have been sent already.
+     *
+     * @param data the bytes
+     * @throws IOException thrown on I/O error
+     */
+    void send(ByteBuffer data) throws IOException {
+        if (plainOut.hasRemaining()) {
+            throw new IllegalStateException("The previous request has not been sent yet");
+        }
+        plainOut = data;
+        requestCount++;
+        lastActivity = System.currentTimeMillis();
+        pump();
+    }
+
+    /**
+     * Read what is available once the selector says that the socket is readable.
+     *
+     * @return false if the server closed the connection
+     * @throws IOException thrown on I/O error
+     */
+    boolean read() throws IOException {
+        int read = channel.read(secure ? netIn : input);
+        if (read > 0) {
+            lastActivity = System.currentTimeMillis();
+        }
+        pump();
+        return read >= 0;
+    }
+
+    /**
+     * Decrypt bytes that were received earlier but did not fit in the input
+     * buffer at the time, which must be called after emptying the buffer.
+     *
+     * @return true if more input is available
+     * @throws IOException thrown on I/O error
+     */
+    boolean readBuffered() throws IOException {
+        if (!secure || closed || netIn.position() == 0) {
+            return false;
+        }
+        int before = input.position();
+        pump();
+        return input.position() > before;
+    }
+
+    /**
+     * Continue sending once the selector says that the socket is writable.
+     *
+     * @throws IOException thrown on I/O error
+     */
+    void write() throws IOException {
+        pump();
+    }
+
+    /**
+     * Move bytes between the socket, the TLS engine and the buffers as far
+     * as possible without blocking, and update what the selector waits for.
+     *
+     * @throws IOException thrown on I/O error
+     */
+    private void pump() throws IOException {
+        if (secure) {
+            boolean progress;
+            do {
+                progress = false;
+                switch (engine.getHandshakeStatus()) {
+                    case NEED_TASK:
+                        Runnable task;
+                        while ((task = engine.getDelegatedTask()) != null) {
+                            task.run();
+                        }
+                        progress = true;
+                        break;
+                    case NEED_WRAP:
+                        progress = wrap(EMPTY);
+                        break;
+                    case NEED_UNWRAP:
+                        progress = unwrap();
+                        break;
+                    default:
+                        if (!verified) {
+                            verifyHost();
+                        }
+                        progress = wrap(plainOut) | unwrap();
+                        break;
+                }
+                progress |= flush();
+            } while (progress && !closed);
+        } else {
+            if (plainOut.hasRemaining()) {
+                channel.write(plainOut);
+            }
+        }
+
+        updateInterest();
+    }
+
+    /**
+     * Stop or resume reading from the socket, such as while no more bytes
+     * may be received under the bandwidth limit. Time spent paused does not
+     * count towards a timeout.
+     *
+     * @param paused true to stop reading
+     */
+    void setPaused(boolean paused) {
+        if (this.paused != paused) {
+            this.paused = paused;
+            lastActivity = System.currentTimeMillis();
+            if (connected) {
+                updateInterest();
+            }
+        }
+    }
+
+    private void updateInterest() {
+        if (!closed) {
+            boolean writing = secure ? netOut.position() > 0 : plainOut.hasRemaining();
+            key.interestOps((paused ? 0 : SelectionKey.OP_READ) | (writing ? SelectionKey.OP_WRITE : 0));
+        }
+    }
+
+    /**
+     * Have the engine check that the server's certificate is for the host
+     * during the handshake, as HTTPS requires. This is only possible from
+     * Java 7 onwards.
+     *
+     * @param engine the engine
+     * @return true if the engine checks the host
+     */
+    private static boolean requireIdentity(SSLEngine engine) {
+        try {
+            SSLParameters parameters = engine.getSSLParameters();
+            Method method = SSLParameters.class.getMethod("setEndpointIdentificationAlgorithm", String.class);
+            method.invoke(parameters, "HTTPS");
+            engine.setSSLParameters(parameters);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Check that the server's certificate is for the host once the handshake
+     * has finished and before any request is sent, if the engine could not
+     * check it during the handshake.
+     *
+     * @throws SSLPeerUnverifiedException thrown if the certificate is for another host
+     */
+    private void verifyHost() throws SSLPeerUnverifiedException {
+        if (!identityChecked && !HttpsURLConnection.getDefaultHostnameVerifier().verify(host, engine.getSession())) {
+            throw new SSLPeerUnverifiedException("The certificate of " + this + " is not for " + host);
+        }
+        verified = true;
+    }
+
+    private boolean wrap(ByteBuffer source) throws IOException {
+        if (source == plainOut && !source.hasRemaining()) {
+            return false;
+        }
+        SSLEngineResult result = engine.wrap(source, netOut);
+        if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+            throw new EOFException("The TLS session was closed");
+        }
+        return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+    }
+
+    private boolean unwrap() throws IOException {
+        netIn.flip();
+        try {
+            SSLEngineResult result = engine.unwrap(netIn, input);
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                throw new EOFException("The TLS session was closed");
+            }
+            return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+        } finally {
+            netIn.compact();
+        }
+    }
+
+    private boolean flush() throws IOException {
+        if (netOut.position() == 0) {
+            return false;
+        }
+        netOut.flip();
+        try {
+            return channel.write(netOut) > 0;
+        } finally {
+            netOut.compact();
+        }
+    }
+
+    /**
+     * Check whether the connection has been idle for longer than the given time.
+     *
+     * @param now the current time
+     * @param timeout the time in milliseconds
+     * @return true if the connection timed out
+     */
+    boolean isTimedOut(long now, long timeout) {
+        return now - lastActivity > timeout;
+    }
+
+    /**
+     * Close the connection.
+     */
+    void close() {
+        closed = true;
+        if (key != null) {
+            key.cancel();
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return hostKey;
+    }
+
+}
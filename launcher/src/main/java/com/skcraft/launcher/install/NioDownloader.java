@@ -0,0 +1,954 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.hash.Hasher;
+import com.skcraft.launcher.util.BandwidthLimiter;
+import com.skcraft.launcher.util.HttpStatusException;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import lombok.extern.java.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Downloads files over non-blocking sockets, so that hundreds of downloads
+ * can be in flight at once on the thread that calls {@link #execute()},
+ * rather than on a thread each.
+ * </p>
+ * Connections are kept alive and shared by the downloads from the same
+ * host. The number of downloads from each host is adjusted by the same
+ * {@link ConcurrencyController} as in {@link HttpDownloader}, and failed
+ * downloads are retried under the same {@link RetryPolicy} and
+ * {@link CircuitBreaker} rules, but downloads are not resumed, split into
+ * segments or hedged, so this engine suits many small files (such as
+ * assets) better than a few large ones.
+ * </p>
+ * Bodies are hashed and written to disk on a separate thread so that the
+ * selector thread only moves bytes. Reading stops while the bandwidth limit
+ * has been used up or too much is waiting to be written, rather than
+ * blocking the selector thread.
+ * </p>
+ * Connections are made directly, so the <code>http.proxyHost</code>,
+ * <code>https.proxyHost</code> and <code>socksProxyHost</code> properties
+ * are ignored; {@link DownloadEngine} uses {@link HttpDownloader} instead
+ * while any of them is set. Certificates are checked against the host name
+ * during the handshake on Java 7 and newer. On Java 6, the default
+ * {@link javax.net.ssl.HostnameVerifier} decides after the handshake.
+ */
+@Log
+public class NioDownloader extends BaseDownloader<NioDownloader.NioDownloadJob> {
+
+    private static final int MAX_REDIRECTS = 5;
+    private static final long TIMEOUT_CHECK_INTERVAL = 1000;
+    private static final int MAX_BUFFERED = 8 * 1024 * 1024;
+    private static final int BANDWIDTH_CHUNK = 32 * 1024;
+
+    @Getter @Setter private int maxConnections = 256;
+    @Getter @Setter private long connectTimeout = 30000;
+    @Getter @Setter private long readTimeout = 60000;
+
+    // Only used by the thread that runs execute()
+    private Selector selector;
+    private final LinkedList<NioDownloadJob> pending = new LinkedList<NioDownloadJob>();
+    private final LinkedList<NioDownloadJob> throttled = new LinkedList<NioDownloadJob>();
+    private final PriorityQueue<Timer> timers = new PriorityQueue<Timer>();
+    private final Map<String, Host> hosts = new HashMap<String, Host>();
+    private final Set<NioConnection> connections = new HashSet<NioConnection>();
+    private int active;
+    private int requestCount;
+    private int reusedCount;
+    private int connectionCount;
+    private long lastChangeCount = -1;
+    private boolean limited;
+    private long allowance;
+    private boolean grantRequested;
+
+    // Shared with the threads that write files and wait for bandwidth
+    private ExecutorService fileExecutor;
+    private ExecutorService bandwidthExecutor;
+    private final Queue<Runnable> callbacks = new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicLong buffered = new AtomicLong();
+    private final AtomicLong granted = new AtomicLong();
+    private volatile boolean readsPaused;
+
+    /**
+     * Create a new downloader.
+     *
+     * @param tempDir the temporary directory
+     */
+    public NioDownloader(@NonNull File tempDir) {
+        super(tempDir);
+    }
+
+    /**
+     * Check whether a proxy is configured for the JVM, which this downloader
+     * would not go through.
+     *
+     * @return true if a proxy is configured
+     */
+    public static boolean isProxyConfigured() {
+        return !Strings.isNullOrEmpty(System.getProperty("http.proxyHost"))
+                || !Strings.isNullOrEmpty(System.getProperty("https.proxyHost"))
+                || !Strings.isNullOrEmpty(System.getProperty("socksProxyHost"))
+                || Boolean.getBoolean("java.net.useSystemProxies");
+    }
+
+    @Override
+    protected NioDownloadJob createJob(File destFile, List<URL> urls, long size, String hash, String name,
+                                       DownloadPriority priority) {
+        return new NioDownloadJob(destFile, urls, size, hash, name, priority);
+    }
+
+    @Override
+    public void execute() throws InterruptedException, IOException {
+        List<NioDownloadJob> jobs = takeQueue();
+
+        long start = System.currentTimeMillis();
+        log.info("Downloading " + jobs.size() + " file(s) (" + getTotalSize() + " bytes) " +
+                "with non-blocking I/O and the " + getSchedulingPolicy() + " policy");
+
+        pending.addAll(jobs);
+        selector = Selector.open();
+        // One thread, so that the writes of each download stay in order
+        fileExecutor = Executors.newSingleThreadExecutor();
+        bandwidthExecutor = Executors.newSingleThreadExecutor();
+
+        try {
+            long nextTimeoutCheck = 0;
+
+            while (true) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+
+                Runnable callback;
+                while ((callback = callbacks.poll()) != null) {
+                    callback.run();
+                }
+
+                long now = System.currentTimeMillis();
+                while (!timers.isEmpty() && timers.peek().time <= now) {
+                    pending.addFirst(timers.poll().job);
+                }
+                startThrottled();
+                while (active < maxConnections && !pending.isEmpty()) {
+                    start(pending.removeFirst());
+                }
+
+                if (active == 0 && pending.isEmpty() && timers.isEmpty()) {
+                    break;
+                }
+
+                updateReading();
+
+                long wait = TIMEOUT_CHECK_INTERVAL;
+                if (!timers.isEmpty()) {
+                    wait = Math.max(1, Math.min(wait, timers.peek().time - now));
+                }
+                selector.select(wait);
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    handle(key);
+                }
+
+                // Connections can't time out while they aren't allowed to read
+                now = System.currentTimeMillis();
+                if (now >= nextTimeoutCheck && !readsPaused) {
+                    checkTimeouts(now);
+                    nextTimeoutCheck = now + TIMEOUT_CHECK_INTERVAL;
+                }
+            }
+        } finally {
+            for (NioConnection connection : connections) {
+                connection.close();
+            }
+            connections.clear();
+            for (NioDownloadJob job : new ArrayList<NioDownloadJob>(getRunningJobs())) {
+                if (job.permit != null) {
+                    job.permit.abandon();
+                }
+                job.discardBody();
+                abandoned(job);
+            }
+            fileExecutor.shutdown();
+            bandwidthExecutor.shutdownNow();
+            closeQuietly(selector);
+        }
+
+        log.info(String.format("Downloads finished in %d ms: %d requests on %d connections (%d reused)",
+                System.currentTimeMillis() - start, requestCount, connectionCount, reusedCount));
+        concurrencyController.logStatistics();
+        mirrorStats.logStatistics();
+
+        checkFailures();
+    }
+
+    private void start(NioDownloadJob job) {
+        active++;
+        if (!job.started) {
+            job.started = true;
+            log.log(Level.INFO, "Downloading " + job.destFile + " from " + job.urls);
+            started(job);
+        }
+        next(job);
+    }
+
+    /**
+     * Try the next mirror of a job, or wait before the next round of
+     * attempts, or give up, in the same way as {@link HttpDownloader}.
+     *
+     * @param job the job
+     */
+    private void next(NioDownloadJob job) {
+        RetryPolicy retryPolicy = getRetryPolicy();
+
+        while (true) {
+            if (job.round == null) {
+                if (job.attempt >= retryPolicy.getMaxAttempts() || job.candidates.isEmpty()) {
+                    finish(job, false);
+                    return;
+                }
+                job.round = new LinkedList<URL>(mirrorStats.rank(job.candidates, job.size));
+                job.tried = false;
+            }
+
+            while (!job.round.isEmpty()) {
+                URL url = job.round.removeFirst();
+                if (job.candidates.contains(url) && circuitBreaker.allowRequest(url)) {
+                    job.tried = true;
+                    job.mirror = url;
+                    job.target = url;
+                    job.redirects = 0;
+                    job.retriedStale = false;
+                    acquire(job);
+                    return;
+                }
+            }
+
+            job.round = null;
+            long delay;
+            if (job.tried) {
+                job.attempt++;
+                delay = retryPolicy.getDelay(job.attempt);
+            } else {
+                // Every mirror has been left out, so wait until one of them may be tried again,
+                // unless they have been left out so often that they are likely down
+                delay = Long.MAX_VALUE;
+                boolean down = true;
+                for (URL url : job.candidates) {
+                    delay = Math.min(delay, circuitBreaker.getWaitTime(url));
+                    down &= circuitBreaker.isDown(url);
+                }
+                if (down) {
+                    finish(job, false);
+                    return;
+                }
+            }
+
+            if (delay > 0 && job.attempt < retryPolicy.getMaxAttempts() && !job.candidates.isEmpty()) {
+                active--;
+                timers.add(new Timer(System.currentTimeMillis() + delay, job));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Send the request of a job if its mirror's host allows another
+     * download, or wait until it does.
+     *
+     * @param job the job
+     */
+    private void acquire(NioDownloadJob job) {
+        job.permit = concurrencyController.tryAcquire(job.mirror);
+        if (job.permit != null) {
+            request(job);
+        } else {
+            throttled.add(job);
+        }
+    }
+
+    /**
+     * Send the requests of the jobs that were waiting for their host, if
+     * a download has finished or a limit has changed since they last tried.
+     */
+    private void startThrottled() {
+        long changeCount = concurrencyController.getChangeCount();
+        if (throttled.isEmpty() || changeCount == lastChangeCount) {
+            return;
+        }
+        lastChangeCount = changeCount;
+
+        Iterator<NioDownloadJob> it = throttled.iterator();
+        while (it.hasNext()) {
+            NioDownloadJob job = it.next();
+            job.permit = concurrencyController.tryAcquire(job.mirror);
+            if (job.permit != null) {
+                it.remove();
+                request(job);
+            }
+        }
+    }
+
+    private void releasePermit(NioDownloadJob job, long bytes, boolean success) {
+        if (job.permit != null) {
+            job.permit.release(bytes, success);
+            job.permit = null;
+        }
+    }
+
+    /**
+     * Send the request of a job on an idle connection to its host, or on
+     * a new connection, or wait for a connection to become available.
+     *
+     * @param job the job
+     */
+    private void request(NioDownloadJob job) {
+        Host host = getHost(NioConnection.getHostKey(job.target));
+
+        if (!host.idle.isEmpty()) {
+            reusedCount++;
+            send(job, host.idle.removeLast());
+            return;
+        }
+
+        if (connections.size() >= maxConnections && !closeIdleConnection()) {
+            host.waiting.add(job);
+            return;
+        }
+
+        NioConnection connection = new NioConnection(job.target);
+        connection.setAttachment(job);
+        job.connection = connection;
+        job.parser = new HttpResponseParser();
+        job.reused = false;
+        connections.add(connection);
+        connectionCount++;
+
+        try {
+            connection.connect(selector);
+            connection.setPaused(readsPaused);
+            if (connection.isConnected()) {
+                send(job, connection);
+            }
+        } catch (IOException e) {
+            failed(connection, e);
+        }
+    }
+
+    private void send(NioDownloadJob job, NioConnection connection) {
+        connection.setAttachment(job);
+        job.connection = connection;
+        job.parser = new HttpResponseParser();
+        job.reused = connection.getRequestCount() > 0;
+        job.requestStart = System.nanoTime();
+        requestCount++;
+
+        URL url = job.target;
+        String path = Strings.isNullOrEmpty(url.getFile()) ? "/" : url.getFile();
+        String request = "GET " + path + " HTTP/1.1\r\n" +
+                "Host: " + url.getHost() + (url.getPort() != -1 ? ":" + url.getPort() : "") + "\r\n" +
+                "User-Agent: Mozilla/5.0 (Java) SKMCLauncher\r\n" +
+                "Accept-Encoding: identity\r\n" +
+                "Connection: keep-alive\r\n" +
+                "\r\n";
+
+        try {
+            connection.send(ByteBuffer.wrap(request.getBytes(Charsets.US_ASCII)));
+        } catch (IOException e) {
+            failed(connection, e);
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        NioConnection connection = (NioConnection) key.attachment();
+        try {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key.isConnectable()) {
+                connection.finishConnect();
+                if (connection.isConnected()) {
+                    send((NioDownloadJob) connection.getAttachment(), connection);
+                }
+                return;
+            }
+            if (key.isWritable()) {
+                connection.write();
+            }
+            // Reading may have to stop part way through the selected keys
+            if (key.isValid() && key.isReadable() && canRead()) {
+                read(connection);
+            }
+        } catch (IOException e) {
+            failed(connection, e);
+        }
+    }
+
+    /**
+     * Check whether more bytes may be read, which is not the case while the
+     * bandwidth limit has been used up or the file thread has fallen behind.
+     *
+     * @return true if reading is allowed
+     */
+    private boolean canRead() {
+        return buffered.get() < MAX_BUFFERED && (!limited || allowance > 0);
+    }
+
+    /**
+     * Ask for more bandwidth if it has been used up, and stop or resume
+     * reading from every connection as needed.
+     */
+    private void updateReading() {
+        limited = BandwidthLimiter.isLimited(getBudget());
+        if (limited) {
+            long amount = granted.getAndSet(0);
+            if (amount > 0) {
+                allowance += amount;
+                grantRequested = false;
+            }
+            if (allowance <= 0 && !grantRequested) {
+                grantRequested = true;
+                final BandwidthLimiter.Budget budget = getBudget();
+                bandwidthExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        BandwidthLimiter.acquire(budget, BANDWIDTH_CHUNK);
+                        granted.addAndGet(BANDWIDTH_CHUNK);
+                        selector.wakeup();
+                    }
+                });
+            }
+        }
+
+        boolean paused = !canRead();
+        if (paused != readsPaused) {
+            readsPaused = paused;
+            for (NioConnection connection : connections) {
+                connection.setPaused(paused);
+            }
+        }
+    }
+
+    private void read(NioConnection connection) throws IOException {
+        boolean open = connection.read();
+        NioDownloadJob job = (NioDownloadJob) connection.getAttachment();
+
+        if (job == null) {
+            // An idle connection was closed by the server, or sent something it shouldn't have
+            close(connection);
+            return;
+        }
+
+        do {
+            if (consume(job, connection)) {
+                return;
+            }
+        } while (connection.readBuffered());
+
+        if (!open) {
+            job.parser.finish();
+            complete(job, connection, false);
+        }
+    }
+
+    /**
+     * Parse the received bytes of a response.
+     *
+     * @param job the job
+     * @param connection the connection
+     * @return true if the response is complete
+     * @throws IOException thrown on I/O error
+     */
+    private boolean consume(NioDownloadJob job, NioConnection connection) throws IOException {
+        HttpResponseParser parser = job.parser;
+        ByteBuffer input = connection.getInput();
+        boolean leftover;
+
+        input.flip();
+        try {
+            while (input.hasRemaining() && !parser.isDone()) {
+                boolean hadHeaders = parser.hasHeaders();
+                parser.parse(input, job);
+                if (!hadHeaders && parser.hasHeaders()) {
+                    receiveHeaders(job);
+                }
+            }
+            leftover = input.hasRemaining();
+        } finally {
+            input.compact();
+        }
+
+        if (parser.isDone()) {
+            complete(job, connection, parser.isKeepAlive() && !leftover);
+            return true;
+        }
+        return false;
+    }
+
+    private void receiveHeaders(NioDownloadJob job) throws IOException {
+        HttpResponseParser parser = job.parser;
+        int code = parser.getResponseCode();
+        job.permit.responded();
+        mirrorStats.recordLatency(job.mirror, System.nanoTime() - job.requestStart);
+
+        String location = parser.getHeader("Location");
+        if (location != null && (code == 301 || code == 302 || code == 303 || code == 307 || code == 308)) {
+            try {
+                job.redirect = new URL(job.target, location);
+            } catch (MalformedURLException e) {
+                throw new IOException("Invalid redirect from " + job.target + " to " + location, e);
+            }
+            return;
+        }
+
+        if (code != 200) {
+            throw new HttpStatusException("Did not get expected response code, got " + code + " for " + job.target,
+                    job.target, code);
+        }
+
+        job.beginBody();
+    }
+
+    /**
+     * Handle a complete response.
+     *
+     * @param job the job
+     * @param connection the connection, which is released
+     * @param keepAlive true if the connection may be used again
+     */
+    private void complete(NioDownloadJob job, NioConnection connection, boolean keepAlive) {
+        release(connection, keepAlive);
+
+        if (job.redirect != null) {
+            URL redirect = job.redirect;
+            job.redirect = null;
+            if (++job.redirects > MAX_REDIRECTS) {
+                attemptFailed(job, new IOException("Too many redirects for " + job.mirror));
+            } else {
+                job.target = redirect;
+                request(job);
+            }
+            return;
+        }
+
+        job.transferTime = System.nanoTime() - job.transferStart;
+        job.endBody();
+    }
+
+    /**
+     * Handle a download whose body has been written, hashed and moved
+     * into place by the file thread.
+     *
+     * @param job the job
+     * @param e the error, or null if the file was saved
+     */
+    private void saved(NioDownloadJob job, IOException e) {
+        if (e == null) {
+            mirrorStats.recordTransfer(job.mirror, job.received, job.transferTime);
+            circuitBreaker.recordSuccess(job.mirror);
+            releasePermit(job, job.received, true);
+            finish(job, true);
+        } else if (e instanceof HashMismatchException) {
+            // The host delivered the data fine, so this says nothing about its availability
+            circuitBreaker.recordSuccess(job.mirror);
+            releasePermit(job, job.received, true);
+            job.lastException = e;
+            log.log(Level.WARNING, e.getMessage());
+            next(job);
+        } else {
+            attemptFailed(job, e);
+        }
+    }
+
+    /**
+     * Handle a failed connection.
+     *
+     * @param connection the connection, which is closed
+     * @param e the error
+     */
+    private void failed(NioConnection connection, IOException e) {
+        NioDownloadJob job = (NioDownloadJob) connection.getAttachment();
+        close(connection);
+
+        if (job == null) {
+            return;
+        }
+
+        job.discardBody();
+        job.redirect = null;
+
+        // A kept-alive connection may have been closed by the server just as it was used again
+        if (job.reused && !job.parser.hasHeaders() && !job.retriedStale) {
+            job.retriedStale = true;
+            request(job);
+            return;
+        }
+
+        attemptFailed(job, e);
+    }
+
+    private void attemptFailed(NioDownloadJob job, IOException e) {
+        RetryPolicy retryPolicy = getRetryPolicy();
+        job.lastException = e;
+        job.discardBody();
+
+        // Missing files and the like are not the fault of the host
+        releasePermit(job, 0, !retryPolicy.isMirrorFailure(e));
+        if (retryPolicy.isMirrorFailure(e)) {
+            mirrorStats.recordFailure(job.mirror);
+            circuitBreaker.recordFailure(job.mirror);
+        } else {
+            circuitBreaker.recordSuccess(job.mirror);
+        }
+
+        if (retryPolicy.isRetryable(e)) {
+            log.log(Level.WARNING, "Failed to download " + job.target + ": " + e.getMessage());
+        } else {
+            log.log(Level.WARNING, "Failed to download " + job.target + " and won't retry: " + e.getMessage());
+            job.candidates.remove(job.mirror);
+        }
+
+        next(job);
+    }
+
+    private void finish(NioDownloadJob job, boolean successful) {
+        active--;
+        if (job.permit != null) {
+            job.permit.abandon();
+            job.permit = null;
+        }
+        if (!successful) {
+            log.log(Level.WARNING, "Failed to download " + job.destFile + " from " + job.urls, job.lastException);
+        }
+        finished(job, successful);
+    }
+
+    private Host getHost(String key) {
+        Host host = hosts.get(key);
+        if (host == null) {
+            host = new Host();
+            hosts.put(key, host);
+        }
+        return host;
+    }
+
+    /**
+     * Give a connection whose response is complete to the next job waiting
+     * for its host, or keep it for later.
+     *
+     * @param connection the connection
+     * @param keepAlive true if the connection may be used again
+     */
+    private void release(NioConnection connection, boolean keepAlive) {
+        NioDownloadJob job = (NioDownloadJob) connection.getAttachment();
+        connection.setAttachment(null);
+        if (job != null) {
+            job.connection = null;
+        }
+
+        if (!keepAlive) {
+            close(connection);
+            return;
+        }
+
+        Host host = getHost(connection.getHostKey());
+        NioDownloadJob next = host.waiting.poll();
+        if (next != null) {
+            reusedCount++;
+            send(next, connection);
+        } else {
+            host.idle.add(connection);
+        }
+    }
+
+    /**
+     * Close a connection and let a job that is waiting for a connection
+     * have its place.
+     *
+     * @param connection the connection
+     */
+    private void close(NioConnection connection) {
+        connection.close();
+        connection.setAttachment(null);
+        if (!connections.remove(connection)) {
+            return;
+        }
+
+        Host host = getHost(connection.getHostKey());
+        host.idle.remove(connection);
+
+        NioDownloadJob next = host.waiting.poll();
+        if (next == null) {
+            for (Host other : hosts.values()) {
+                next = other.waiting.poll();
+                if (next != null) {
+                    break;
+                }
+            }
+        }
+        if (next != null) {
+            request(next);
+        }
+    }
+
+    private boolean closeIdleConnection() {
+        for (Host host : hosts.values()) {
+            if (!host.idle.isEmpty()) {
+                close(host.idle.getFirst());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void checkTimeouts(long now) {
+        for (NioConnection connection : new ArrayList<NioConnection>(connections)) {
+            if (connection.getAttachment() != null) {
+                long timeout = connection.isConnected() ? readTimeout : connectTimeout;
+                if (connection.isTimedOut(now, timeout)) {
+                    failed(connection, new SocketTimeoutException("No response from " + connection + " for " + timeout + " ms"));
+                }
+            }
+        }
+    }
+
+    /**
+     * Run a task on the selector thread.
+     *
+     * @param task the task
+     */
+    private void post(Runnable task) {
+        callbacks.add(task);
+        selector.wakeup();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static class Host {
+        private final LinkedList<NioConnection> idle = new LinkedList<NioConnection>();
+        private final Queue<NioDownloadJob> waiting = new LinkedList<NioDownloadJob>();
+    }
+
+    private static class Timer implements Comparable<Timer> {
+        private final long time;
+        private final NioDownloadJob job;
+
+        private Timer(long time, NioDownloadJob job) {
+            this.time = time;
+            this.job = job;
+        }
+
+        @Override
+        public int compareTo(Timer o) {
+            return time < o.time ? -1 : (time > o.time ? 1 : 0);
+        }
+    }
+
+    class NioDownloadJob extends Job implements HttpResponseParser.BodySink {
+        private final File tempFile;
+        private final List<URL> candidates;
+
+        // Only used by the selector thread
+        private boolean started;
+        private LinkedList<URL> round;
+        private boolean tried;
+        private int attempt;
+        private IOException lastException;
+        private URL mirror;
+        private URL target;
+        private URL redirect;
+        private int redirects;
+        private boolean reused;
+        private boolean retriedStale;
+        private ConcurrencyController.Permit permit;
+        private NioConnection connection;
+        private HttpResponseParser parser;
+        private long requestStart;
+        private long transferStart;
+        private long transferTime;
+        private volatile boolean writing;
+        private volatile long received;
+
+        // Only used by the file thread
+        private FileChannel out;
+        private Hasher hasher;
+        private IOException writeError;
+
+        private NioDownloadJob(File destFile, List<URL> urls, long size, String hash, String name,
+                               DownloadPriority priority) {
+            super(destFile, urls, size, hash, name, priority);
+            this.tempFile = new File(destFile.getParentFile(), destFile.getName() + ".tmp");
+            this.candidates = new ArrayList<URL>(urls);
+        }
+
+        /**
+         * Start saving the body of a response.
+         */
+        private void beginBody() {
+            writing = true;
+            received = 0;
+            transferStart = System.nanoTime();
+
+            fileExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    closeFile();
+                    writeError = null;
+                    hasher = hf.newHasher();
+                    try {
+                        tempFile.getParentFile().mkdirs();
+                        out = new FileOutputStream(tempFile).getChannel();
+                    } catch (IOException e) {
+                        writeError = e;
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void write(ByteBuffer data) throws IOException {
+            if (!writing) {
+                // The body of a redirect
+                return;
+            }
+
+            final int length = data.remaining();
+            final byte[] bytes = new byte[length];
+            data.get(bytes);
+            received += length;
+            allowance -= length;
+            buffered.addAndGet(length);
+
+            fileExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (out != null && writeError == null) {
+                            hasher.putBytes(bytes);
+                            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                            while (buffer.hasRemaining()) {
+                                out.write(buffer);
+                            }
+                        }
+                    } catch (IOException e) {
+                        writeError = e;
+                    } finally {
+                        if (buffered.addAndGet(-length) < MAX_BUFFERED && readsPaused) {
+                            selector.wakeup();
+                        }
+                    }
+                }
+            });
+        }
+
+        /**
+         * Finish saving the body of a complete response, which checks its
+         * hash and moves it into place, and then hand the outcome to
+         * {@link #saved(NioDownloadJob, IOException)}.
+         */
+        private void endBody() {
+            writing = false;
+            final URL url = target;
+
+            fileExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    IOException error = writeError;
+                    try {
+                        if (out != null) {
+                            out.close();
+                        }
+                    } catch (IOException e) {
+                        if (error == null) {
+                            error = e;
+                        }
+                    }
+                    out = null;
+
+                    try {
+                        if (error == null) {
+                            verify(url, hasher.hash().toString());
+                            commit(NioDownloadJob.this, tempFile);
+                        }
+                    } catch (IOException e) {
+                        error = e;
+                    }
+                    if (error != null) {
+                        tempFile.delete();
+                    }
+
+                    final IOException result = error;
+                    post(new Runnable() {
+                        @Override
+                        public void run() {
+                            saved(NioDownloadJob.this, result);
+                        }
+                    });
+                }
+            });
+        }
+
+        /**
+         * Throw away what was saved of the current response.
+         */
+        private void discardBody() {
+            writing = false;
+            fileExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    closeFile();
+                    tempFile.delete();
+                }
+            });
+        }
+
+        private void closeFile() {
+            closeQuietly(out);
+            out = null;
+        }
+
+        @Override
+        public double getProgress() {
+            if (!writing || size <= 0) {
+                return -1;
+            }
+            return received / (double) size;
+        }
+    }
+
+}
@@ -0,0 +1,233 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.skcraft.launcher.LauncherUtils;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.java.Log;
+import org.apache.commons.io.FilenameUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.regex.Pattern;
+
+/**
+ * A launcher-wide store of modpack objects keyed by their SHA-1 hash, so
+ * that a file shipped by several modpacks is only downloaded and stored once.
+ * </p>
+ * Files are materialized into instances as copies, except for large files
+ * of the types that are never written to once installed, such as mod JARs,
+ * which are hard linked where the file system supports it. A file that the
+ * game or a mod edits in place must never be linked, as the edit would
+ * corrupt the stored object for every other instance too.
+ */
+@Log
+public class ObjectStore {
+
+    private static final Pattern HASH_PATTERN = Pattern.compile("^[0-9a-fA-F]{40}$");
+    private static final long LINK_THRESHOLD = 64 * 1024;
+    private static final Set<String> LINKABLE_EXTENSIONS = ImmutableSet.of("jar", "zip", "litemod");
+    private static final Method toPath;
+    private static final Method createLink;
+
+    static {
+        Method pathMethod = null;
+        Method linkMethod = null;
+        try {
+            Class<?> pathClass = Class.forName("java.nio.file.Path");
+            Class<?> filesClass = Class.forName("java.nio.file.Files");
+            pathMethod = File.class.getMethod("toPath");
+            linkMethod = filesClass.getMethod("createLink", pathClass, pathClass);
+        } catch (ClassNotFoundException e) {
+        } catch (NoSuchMethodException e) {
+        }
+        toPath = pathMethod;
+        createLink = linkMethod;
+    }
+
+    private final HashFunction hf = Hashing.sha1();
+    @Getter private final File dir;
+
+    /**
+     * Create a new object store.
+     *
+     * @param dir the directory to store objects in
+     */
+    public ObjectStore(@NonNull File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Get the path to the object with the given hash.
+     *
+     * @param hash the SHA-1 hash
+     * @return the file, which may not exist
+     */
+    public File getPath(@NonNull String hash) {
+        if (!isValidHash(hash)) {
+            throw new IllegalArgumentException("Invalid object hash: " + hash);
+        }
+        String lower = hash.toLowerCase();
+        return new File(dir, lower.substring(0, 2) + "/" + lower);
+    }
+
+    /**
+     * Check whether the store contains the object with the given hash.
+     *
+     * @param hash the SHA-1 hash
+     * @return true if the object is stored
+     */
+    public boolean has(String hash) {
+        return isValidHash(hash) && getPath(hash).isFile();
+    }
+
+    /**
+     * Move a file into the store. If the store already contains the object,
+     * the file is deleted instead.
+     *
+     * @param hash the expected SHA-1 hash of the file
+     * @param file the file
+     * @throws IOException thrown if the file does not match the hash or can't be moved
+     */
+    public void add(@NonNull String hash, @NonNull File file) throws IOException {
+        add(hash, file, false);
+    }
+
+    /**
+     * Move a file into the store. If the store already contains the object,
+     * the file is deleted instead.
+     *
+     * @param hash the expected SHA-1 hash of the file
+     * @param file the file
+     * @param verified true if the file was already checked against the hash
+     * @throws IOException thrown if the file does not match the hash or can't be moved
+     */
+    public synchronized void add(@NonNull String hash, @NonNull File file, boolean verified) throws IOException {
+        File dest = getPath(hash);
+
+        if (dest.equals(file)) {
+            return;
+        }
+
+        if (dest.isFile()) {
+            file.delete();
+            return;
+        }
+
+        if (!verified) {
+            String actual = Files.hash(file, hf).toString();
+            if (!actual.equalsIgnoreCase(hash)) {
+                file.delete();
+                throw new IOException("Object " + file + " has hash " + actual + " but " + hash + " was expected");
+            }
+        }
+
+        dest.getParentFile().mkdirs();
+        if (!file.renameTo(dest)) {
+            File tempFile = new File(dest.getParentFile(), dest.getName() + ".tmp");
+            LauncherUtils.copyFile(file, tempFile);
+            if (!tempFile.renameTo(dest)) {
+                tempFile.delete();
+                throw new IOException("Failed to add " + file + " to the object store at " + dest);
+            }
+            file.delete();
+        }
+    }
+
+    /**
+     * Place a copy of a stored object at the given path, replacing any file there.
+     *
+     * @param hash the SHA-1 hash of the object
+     * @param target the path to materialize the object at
+     * @throws IOException thrown on I/O error
+     */
+    public void materialize(@NonNull String hash, @NonNull File target) throws IOException {
+        materialize(hash, target, false);
+    }
+
+    /**
+     * Place a stored object at the given path, replacing any file there.
+     *
+     * @param hash the SHA-1 hash of the object
+     * @param target the path to materialize the object at
+     * @param linkable true if the file is never written to once installed,
+     *                 so that it may be hard linked to the stored object
+     * @throws IOException thrown on I/O error
+     * @see #isLinkable(String)
+     */
+    public void materialize(@NonNull String hash, @NonNull File target, boolean linkable) throws IOException {
+        File source = getPath(hash);
+        if (!source.isFile()) {
+            throw new IOException("Object " + hash + " is not in the object store");
+        }
+
+        target.getParentFile().mkdirs();
+        target.delete();
+
+        if (linkable && source.length() >= LINK_THRESHOLD && link(target, source)) {
+            return;
+        }
+
+        LauncherUtils.copyFile(source, target);
+    }
+
+    /**
+     * Create a hard link, if the running Java version and the file system
+     * support it.
+     *
+     * @param link the link to create
+     * @param existing the existing file
+     * @return true if the link was created
+     */
+    private static boolean link(File link, File existing) {
+        if (createLink == null) {
+            return false;
+        }
+
+        try {
+            createLink.invoke(null, toPath.invoke(link), toPath.invoke(existing));
+            return true;
+        } catch (InvocationTargetException e) {
+            log.log(Level.FINE, "Could not link " + link + " to " + existing, e.getCause());
+            return false;
+        } catch (IllegalAccessException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Check whether a file at the given path may be hard linked to the
+     * stored object, which is only the case for the types of files that
+     * the game and mods treat as read-only.
+     *
+     * @param path the path of the installed file
+     * @return true if the file may be linked
+     */
+    public static boolean isLinkable(@NonNull String path) {
+        return LINKABLE_EXTENSIONS.contains(FilenameUtils.getExtension(path).toLowerCase());
+    }
+
+    /**
+     * Check whether the given string is a valid SHA-1 hash.
+     *
+     * @param hash the hash
+     * @return true if valid
+     */
+    public static boolean isValidHash(String hash) {
+        return hash != null && HASH_PATTERN.matcher(hash).matches();
+    }
+
+}
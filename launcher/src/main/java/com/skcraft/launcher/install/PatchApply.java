@@ -0,0 +1,158 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.skcraft.launcher.util.BinaryDelta;
+import com.skcraft.launcher.util.HttpRequest;
+import lombok.NonNull;
+import lombok.extern.java.Log;
+import org.apache.commons.io.output.TeeOutputStream;
+
+import java.io.*;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+
+import static com.skcraft.launcher.util.SharedLocale.tr;
+
+/**
+ * Applies a downloaded binary patch to an older version of a file and adds
+ * the result to the object store.
+ * </p>
+ * If the patch could not be downloaded, or it does not produce the expected
+ * file, the whole file is downloaded instead.
+ */
+@Log
+public class PatchApply implements FileTask {
+
+    private final File source;
+    private final File patch;
+    private final ObjectStore objectStore;
+    private final String hash;
+    private final List<URL> objectUrls;
+    private final File tempDir;
+
+    /**
+     * Create a new task.
+     *
+     * @param source the old version of the file
+     * @param patch the downloaded patch, which is deleted afterwards
+     * @param objectStore the object store to add the new version to
+     * @param hash the SHA-1 hash of the new version
+     * @param objectUrls the URLs to download the whole new version from if patching fails
+     * @param tempDir the directory to write the new version to before it is stored
+     */
+    public PatchApply(@NonNull File source, @NonNull File patch, @NonNull ObjectStore objectStore,
+                      @NonNull String hash, @NonNull List<URL> objectUrls, @NonNull File tempDir) {
+        this.source = source;
+        this.patch = patch;
+        this.objectStore = objectStore;
+        this.hash = hash;
+        this.objectUrls = objectUrls;
+        this.tempDir = tempDir;
+    }
+
+    @Override
+    public void execute() throws IOException, InterruptedException {
+        tempDir.mkdirs();
+        File tempFile = File.createTempFile("patched", null, tempDir);
+
+        try {
+            if (!patch.exists()) {
+                log.warning("The patch for " + hash + " could not be downloaded, so the whole file will be");
+                downloadObject(tempFile);
+            } else {
+                try {
+                    applyPatch(tempFile);
+                } catch (IOException e) {
+                    log.log(Level.WARNING, "Failed to patch " + source + ", so the whole file will be downloaded", e);
+                    downloadObject(tempFile);
+                }
+            }
+
+            objectStore.add(hash, tempFile, true);
+        } finally {
+            tempFile.delete();
+            patch.delete();
+        }
+    }
+
+    private void applyPatch(File tempFile) throws IOException {
+        log.info("Patching " + source + " to " + hash + "...");
+
+        Hasher hasher = Hashing.sha1().newHasher();
+        InputStream in = new FileInputStream(patch);
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile));
+        try {
+            BinaryDelta.patch(source, in, new TeeOutputStream(out, Funnels.asOutputStream(hasher)));
+        } finally {
+            out.close();
+            in.close();
+        }
+
+        String actual = hasher.hash().toString();
+        if (!actual.equalsIgnoreCase(hash)) {
+            throw new IOException("Patching " + source + " produced " + actual + " but " + hash + " was expected");
+        }
+    }
+
+    /**
+     * Download the whole new version, trying each URL in turn.
+     *
+     * @param tempFile the file to save it to
+     * @throws IOException thrown if it could not be downloaded from any URL
+     * @throws InterruptedException thrown on interruption
+     */
+    private void downloadObject(File tempFile) throws IOException, InterruptedException {
+        IOException lastException = null;
+        for (URL url : objectUrls) {
+            HttpRequest request = HttpRequest.get(url);
+            try {
+                request.execute().expectResponseCode(200).saveContent(tempFile);
+                String actual = Files.hash(tempFile, Hashing.sha1()).toString();
+                if (!actual.equalsIgnoreCase(hash)) {
+                    throw new IOException("Download from " + url + " has hash " + actual + " but " + hash + " was expected");
+                }
+                return;
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Failed to download " + url, e);
+                lastException = e;
+            } finally {
+                request.close();
+            }
+        }
+        throw new IOException("Failed to download " + hash + " from " + objectUrls, lastException);
+    }
+
+    @Override
+    public Collection<File> getInputs() {
+        return Arrays.asList(source, patch);
+    }
+
+    @Override
+    public Collection<File> getOutputs() {
+        return Collections.singleton(objectStore.getPath(hash));
+    }
+
+    @Override
+    public double getProgress() {
+        return -1;
+    }
+
+    @Override
+    public String getStatus() {
+        return tr("installer.applyingPatch", source.getName());
+    }
+
+}
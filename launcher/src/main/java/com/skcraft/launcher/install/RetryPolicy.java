@@ -0,0 +1,48 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import java.io.IOException;
+
+/**
+ * Decides how failed downloads are retried.
+ */
+public interface RetryPolicy {
+
+    /**
+     * Get the number of rounds in which every mirror of a file is tried.
+     *
+     * @return the number of rounds
+     */
+    int getMaxAttempts();
+
+    /**
+     * Get the time to wait before the given round.
+     *
+     * @param attempt the round, starting at 1 for the first retry
+     * @return the delay in milliseconds
+     */
+    long getDelay(int attempt);
+
+    /**
+     * Check whether the same URL may succeed if it is tried again.
+     *
+     * @param e the error
+     * @return true if the URL should be tried again
+     */
+    boolean isRetryable(IOException e);
+
+    /**
+     * Check whether the error means that the mirror itself is unhealthy,
+     * rather than just missing the one file.
+     *
+     * @param e the error
+     * @return true if the error counts against the mirror
+     */
+    boolean isMirrorFailure(IOException e);
+
+}
@@ -0,0 +1,59 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+/**
+ * The order in which queued downloads are started.
+ */
+public enum SchedulingPolicy {
+
+    /**
+     * Start downloads in the order that they were queued.
+     */
+    FIFO {
+        @Override
+        public int compare(DownloadPriority priority1, long size1, DownloadPriority priority2, long size2) {
+            return 0;
+        }
+    },
+
+    /**
+     * Start the largest downloads first, so that a large file queued last
+     * does not keep going long after everything else has finished.
+     */
+    LARGEST_FIRST {
+        @Override
+        public int compare(DownloadPriority priority1, long size1, DownloadPriority priority2, long size2) {
+            return size1 > size2 ? -1 : (size1 < size2 ? 1 : 0);
+        }
+    },
+
+    /**
+     * Start downloads in order of priority, and the largest first among
+     * downloads of the same priority.
+     */
+    CRITICAL_FIRST {
+        @Override
+        public int compare(DownloadPriority priority1, long size1, DownloadPriority priority2, long size2) {
+            int result = priority1.compareTo(priority2);
+            return result != 0 ? result : LARGEST_FIRST.compare(priority1, size1, priority2, size2);
+        }
+    };
+
+    /**
+     * Compare two downloads. A negative result means that the first download
+     * should be started before the second one.
+     *
+     * @param priority1 the priority of the first download
+     * @param size1 the size of the first download
+     * @param priority2 the priority of the second download
+     * @param size2 the size of the second download
+     * @return the comparison result
+     */
+    public abstract int compare(DownloadPriority priority1, long size1, DownloadPriority priority2, long size2);
+
+}
@@ -6,24 +6,306 @@
 
 package com.skcraft.launcher.install;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.skcraft.launcher.persistence.Persistence;
 import lombok.Data;
 import lombok.NonNull;
+import lombok.extern.java.Log;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.*;
+import java.util.logging.Level;
 
-@Data
+/**
+ * Remembers the version of each file that was installed into an instance
+ * and the hash that each file had when it was last checked, as well as the
+ * hashes that sources publish for downloaded files.
+ * </p>
+ * Each is kept in an entry per file, with hashes kept as bytes. The cache
+ * is saved in a compact binary format, and a cache in the JSON format that
+ * was used before can still be read.
+ */
+@Log
+@JsonIgnoreProperties(ignoreUnknown = true)
 public class UpdateCache {
 
-    private Map<String, String> cache = new HashMap<String, String>();
+    private static final int MAGIC = 0x534b5543; // SKUC
+    private static final int VERSION = 1;
+
+    private static final int HAS_VERSION = 1;
+    private static final int HAS_RECORD = 2;
+    private static final int TEXT_HASH = 4;
+    private static final int HASH_VERSION = 8;
+
+    // Keys of published hashes, which can't be mistaken for the paths of files
+    private static final String PUBLISHED_PREFIX = "published:";
+
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
 
     public synchronized boolean mark(@NonNull String key, @NonNull String version) {
-        String current = cache.get(key);
-        if (current != null && version.equals(current)) {
+        Entry entry = getEntry(key);
+        if (entry.version != null && version.equals(entry.version)) {
             return false;
         } else {
-            cache.put(key, version);
+            entry.version = version;
             return true;
         }
     }
+
+    /**
+     * Get the hash that was recorded for a file when it was last verified,
+     * if the file has not changed in size or modification time since.
+     *
+     * @param key the key of the file
+     * @param file the file
+     * @return the hash, or null if not known
+     */
+    public synchronized String getVerifiedHash(@NonNull String key, @NonNull File file) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.hasRecord() && entry.size == file.length() && entry.modified == file.lastModified()) {
+            return entry.getHash();
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Record the hash of a file that has been verified, so that it does not
+     * have to be hashed again on the next update if it is unchanged.
+     *
+     * @param key the key of the file
+     * @param file the file
+     * @param hash the SHA-1 hash of the file
+     */
+    public synchronized void markVerified(@NonNull String key, @NonNull File file, @NonNull String hash) {
+        getEntry(key).setRecord(hash, file.length(), file.lastModified());
+    }
+
+    /**
+     * Get the hash that a source was found to publish alongside a file,
+     * such as the <code>.sha1</code> file of a Maven artifact.
+     *
+     * @param url the URL of the file
+     * @return the hash, or null if not known
+     */
+    public synchronized String getPublishedHash(@NonNull URL url) {
+        Entry entry = entries.get(PUBLISHED_PREFIX + url.toExternalForm());
+        return entry != null ? entry.version : null;
+    }
+
+    /**
+     * Record the hash that a source publishes alongside a file, so that it
+     * does not have to be fetched again.
+     *
+     * @param url the URL of the file
+     * @param hash the SHA-1 hash of the file
+     */
+    public synchronized void setPublishedHash(@NonNull URL url, @NonNull String hash) {
+        getEntry(PUBLISHED_PREFIX + url.toExternalForm()).version = hash;
+    }
+
+    /**
+     * Set the versions of the files, such as from a cache in the old format.
+     *
+     * @param cache a map of keys to versions
+     */
+    @JsonProperty("cache")
+    public synchronized void setCache(@NonNull Map<String, String> cache) {
+        for (Map.Entry<String, String> entry : cache.entrySet()) {
+            if (entry.getValue() != null) {
+                getEntry(entry.getKey()).version = entry.getValue();
+            }
+        }
+    }
+
+    /**
+     * Set the records of the files that were verified, such as from a cache
+     * in the old format.
+     *
+     * @param verified a map of keys to records
+     */
+    @JsonProperty("verified")
+    public synchronized void setVerified(@NonNull Map<String, FileRecord> verified) {
+        for (Map.Entry<String, FileRecord> entry : verified.entrySet()) {
+            FileRecord record = entry.getValue();
+            if (record != null && record.getHash() != null) {
+                getEntry(entry.getKey()).setRecord(record.getHash(), record.getSize(), record.getModified());
+            }
+        }
+    }
+
+    private Entry getEntry(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Write the cache to the given file in the binary format.
+     *
+     * @param file the file
+     * @throws IOException thrown on I/O error
+     */
+    public synchronized void write(@NonNull File file) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = CompactFormat.openForWriting(tempFile, MAGIC, VERSION);
+        try {
+            List<String> keys = new ArrayList<String>(entries.keySet());
+            Collections.sort(keys);
+
+            CompactFormat.writeVarInt(out, keys.size());
+            String previous = "";
+            for (String key : keys) {
+                Entry entry = entries.get(key);
+                CompactFormat.writeSharedString(out, previous, key);
+                previous = key;
+
+                // Versions are usually the hash of the file, which can be stored as bytes
+                byte[] versionHash = null;
+                int flags = 0;
+                if (entry.version != null) {
+                    flags |= HAS_VERSION;
+                    if (entry.version.equals(entry.version.toLowerCase())) {
+                        versionHash = CompactFormat.toBytes(entry.version);
+                    }
+                    if (versionHash != null) {
+                        flags |= HASH_VERSION;
+                    }
+                }
+                if (entry.hasRecord()) {
+                    flags |= HAS_RECORD;
+                    if (entry.textHash != null) {
+                        flags |= TEXT_HASH;
+                    }
+                }
+                out.writeByte(flags);
+
+                if (versionHash != null) {
+                    out.write(versionHash);
+                } else if (entry.version != null) {
+                    CompactFormat.writeString(out, entry.version);
+                }
+                if (entry.hasRecord()) {
+                    if (entry.textHash != null) {
+                        CompactFormat.writeString(out, entry.textHash);
+                    } else {
+                        out.write(entry.hash);
+                    }
+                    out.writeLong(entry.size);
+                    out.writeLong(entry.modified);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        CompactFormat.replace(tempFile, file);
+    }
+
+    /**
+     * Read a cache in the binary format.
+     *
+     * @param file the file
+     * @return the cache
+     * @throws IOException thrown if the cache could not be read
+     */
+    public static UpdateCache read(@NonNull File file) throws IOException {
+        UpdateCache cache = new UpdateCache();
+        DataInputStream in = CompactFormat.openForReading(file, MAGIC, VERSION);
+        try {
+            int count = CompactFormat.readVarInt(in);
+            String previous = "";
+            for (int i = 0; i < count; i++) {
+                String key = CompactFormat.readSharedString(in, previous);
+                previous = key;
+
+                Entry entry = new Entry();
+                int flags = in.readUnsignedByte();
+                if ((flags & HASH_VERSION) != 0) {
+                    byte[] versionHash = new byte[20];
+                    in.readFully(versionHash);
+                    entry.version = CompactFormat.toHex(versionHash);
+                } else if ((flags & HAS_VERSION) != 0) {
+                    entry.version = CompactFormat.readString(in);
+                }
+                if ((flags & HAS_RECORD) != 0) {
+                    if ((flags & TEXT_HASH) != 0) {
+                        entry.textHash = CompactFormat.readString(in);
+                    } else {
+                        entry.hash = new byte[20];
+                        in.readFully(entry.hash);
+                    }
+                    entry.size = in.readLong();
+                    entry.modified = in.readLong();
+                }
+                cache.entries.put(key, entry);
+            }
+        } finally {
+            in.close();
+        }
+        return cache;
+    }
+
+    /**
+     * Read the cache from the given file, or from a cache in the old JSON
+     * format if there is no cache in the binary format yet.
+     *
+     * @param file the cache in the binary format
+     * @param legacyFile the cache in the JSON format
+     * @return the cache, which is empty if neither file could be read
+     */
+    public static UpdateCache read(@NonNull File file, @NonNull File legacyFile) {
+        if (file.exists()) {
+            try {
+                return read(file);
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Failed to read " + file, e);
+                return new UpdateCache();
+            }
+        } else if (legacyFile.exists()) {
+            return Persistence.read(legacyFile, UpdateCache.class);
+        } else {
+            return new UpdateCache();
+        }
+    }
+
+    private static class Entry {
+        private String version;
+        private byte[] hash;
+        private String textHash;
+        private long size;
+        private long modified;
+
+        private boolean hasRecord() {
+            return hash != null || textHash != null;
+        }
+
+        private String getHash() {
+            return hash != null ? CompactFormat.toHex(hash) : textHash;
+        }
+
+        private void setRecord(String hash, long size, long modified) {
+            this.hash = CompactFormat.toBytes(hash);
+            this.textHash = this.hash == null ? hash : null;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+
+    /**
+     * A record of a verified file in the old JSON format.
+     */
+    @Data
+    public static class FileRecord {
+        private String hash;
+        private long size;
+        private long modified;
+    }
 }
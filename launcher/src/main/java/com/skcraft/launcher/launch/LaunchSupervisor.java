@@ -21,14 +21,10 @@ import com.skcraft.launcher.update.Updater;
 import com.skcraft.launcher.util.SharedLocale;
 import com.skcraft.launcher.util.SwingExecutor;
 import lombok.extern.java.Log;
-import org.apache.commons.io.FileUtils;
 
 import javax.swing.*;
 import java.awt.*;
-import java.io.File;
-import java.io.IOException;
 import java.util.Date;
-import java.util.logging.Level;
 
 import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
 import static com.skcraft.launcher.util.SharedLocale.tr;
@@ -106,10 +102,8 @@ public class LaunchSupervisor {
     }
 
     private void launch(Window window, Instance instance, Session session, final LaunchListener listener) {
-        final File extractDir = launcher.createExtractDir();
-
         // Get the process
-        Runner task = new Runner(launcher, instance, session, extractDir);
+        Runner task = new Runner(launcher, instance, session);
         ObservableFuture<Process> processFuture = new ObservableFuture<Process>(
                 launcher.getExecutor().submit(task), task);
 
@@ -143,12 +137,7 @@ public class LaunchSupervisor {
         future.addListener(new Runnable() {
             @Override
             public void run() {
-                try {
-                    log.info("Process ended; cleaning up " + extractDir.getAbsolutePath());
-                    FileUtils.deleteDirectory(extractDir);
-                } catch (IOException e) {
-                    log.log(Level.WARNING, "Failed to clean up " + extractDir.getAbsolutePath(), e);
-                }
+                log.info("Process ended");
 
                 SwingUtilities.invokeLater(new Runnable() {
                     @Override
@@ -0,0 +1,184 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.launch;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.skcraft.launcher.install.ZipExtract;
+import com.skcraft.launcher.model.minecraft.Library;
+import com.skcraft.launcher.model.minecraft.VersionManifest;
+import com.skcraft.launcher.util.Environment;
+import lombok.Data;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.java.Log;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.logging.Level;
+
+/**
+ * Keeps the native libraries of each version extracted in a directory that
+ * is named after the libraries that it was extracted from, so that they only
+ * have to be extracted once rather than on every launch, and instances that
+ * use the same libraries share the directory.
+ * </p>
+ * A directory is only ever filled in before it is given its name, so a
+ * directory with a name is always complete. The cache is cleaned up by
+ * removing the directories that no instance needs any more.
+ */
+@Log
+public class NativesCache {
+
+    private static final String TEMP_PREFIX = "tmp-";
+    private static final long UNUSED_GRACE_PERIOD = 1000 * 60 * 60 * 24;
+
+    @Getter private final File dir;
+
+    /**
+     * Create a new cache.
+     *
+     * @param dir the directory to keep the extracted libraries in
+     */
+    public NativesCache(@NonNull File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Get the directory that contains the given native libraries, extracting
+     * them first if they aren't in the cache yet.
+     *
+     * @param natives the native libraries
+     * @return the directory
+     * @throws IOException thrown if the libraries could not be extracted
+     */
+    public File get(@NonNull List<Native> natives) throws IOException {
+        File target = new File(dir, getKey(natives));
+
+        if (target.isDirectory()) {
+            // Remember that it was used, so it's not cleaned up from under a running game
+            target.setLastModified(System.currentTimeMillis());
+            return target;
+        }
+
+        long start = System.currentTimeMillis();
+        File tempDir = new File(dir, TEMP_PREFIX + UUID.randomUUID());
+        try {
+            tempDir.mkdirs();
+            for (Native n : natives) {
+                ZipExtract zipExtract = new ZipExtract(Files.asByteSource(n.getFile()), tempDir);
+                zipExtract.setExclude(n.getExclude());
+                zipExtract.run();
+            }
+        } catch (RuntimeException e) {
+            FileUtils.deleteDirectory(tempDir);
+            throw new IOException("Failed to extract the native libraries", e.getCause() != null ? e.getCause() : e);
+        }
+
+        if (!tempDir.renameTo(target)) {
+            // Another launch may have extracted the same libraries in the meantime
+            FileUtils.deleteDirectory(tempDir);
+            if (!target.isDirectory()) {
+                throw new IOException("Failed to move the extracted native libraries to " + target);
+            }
+        }
+
+        log.info("Extracted " + natives.size() + " native libraries to " + target.getAbsolutePath() +
+                " in " + (System.currentTimeMillis() - start) + " ms");
+        return target;
+    }
+
+    /**
+     * Get the name of the directory for the given native libraries, which
+     * changes whenever a library file or what is excluded from it changes.
+     *
+     * @param natives the native libraries
+     * @return the name
+     */
+    public String getKey(@NonNull List<Native> natives) {
+        Hasher hasher = Hashing.sha1().newHasher();
+        for (Native n : natives) {
+            File file = n.getFile().getAbsoluteFile();
+            hasher.putString(file.getPath(), Charsets.UTF_8).putByte((byte) 0);
+            hasher.putLong(file.length());
+            hasher.putLong(file.lastModified());
+            List<String> exclude = n.getExclude() != null
+                    ? new ArrayList<String>(n.getExclude()) : new ArrayList<String>();
+            Collections.sort(exclude);
+            for (String pattern : exclude) {
+                hasher.putString(pattern, Charsets.UTF_8).putByte((byte) 0);
+            }
+            hasher.putByte((byte) 1);
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Delete the directories that are not for any of the given sets of
+     * native libraries, unless they were used recently, as well as anything
+     * left over from extractions that didn't finish.
+     *
+     * @param used the native libraries that are still needed
+     */
+    public void collectGarbage(@NonNull Collection<List<Native>> used) {
+        Set<String> keys = new HashSet<String>();
+        for (List<Native> natives : used) {
+            keys.add(getKey(natives));
+        }
+
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        for (File file : files) {
+            if (keys.contains(file.getName()) || now - file.lastModified() < UNUSED_GRACE_PERIOD) {
+                continue;
+            }
+
+            log.info("Removing unused native libraries in " + file.getAbsolutePath() + "...");
+            try {
+                FileUtils.deleteDirectory(file);
+            } catch (IOException e) {
+                // On Windows, the libraries of a game that is still running can't be deleted
+                log.log(Level.WARNING, "Failed to delete " + file.getAbsolutePath(), e);
+            }
+        }
+    }
+
+    /**
+     * Get the native libraries that the given version needs.
+     *
+     * @param versionManifest the version manifest
+     * @param librariesDir the libraries directory
+     * @param environment the environment
+     * @return the native libraries
+     */
+    public static List<Native> getNatives(@NonNull VersionManifest versionManifest,
+                                          @NonNull File librariesDir, @NonNull Environment environment) {
+        List<Native> natives = new ArrayList<Native>();
+        for (Library library : versionManifest.getLibraries()) {
+            if (library.matches(environment) && library.getExtract() != null) {
+                File file = new File(librariesDir, library.getPath(environment));
+                natives.add(new Native(file, library.getExtract().getExclude()));
+            }
+        }
+        return natives;
+    }
+
+    @Data
+    public static class Native {
+        private final File file;
+        private final List<String> exclude;
+    }
+
+}
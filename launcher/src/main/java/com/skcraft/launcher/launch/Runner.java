@@ -9,12 +9,11 @@ package com.skcraft.launcher.launch;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Strings;
-import com.google.common.io.Files;
 import com.skcraft.concurrency.DefaultProgress;
 import com.skcraft.concurrency.ProgressObservable;
 import com.skcraft.launcher.*;
 import com.skcraft.launcher.auth.Session;
-import com.skcraft.launcher.install.ZipExtract;
+import com.skcraft.launcher.install.InstallTransaction;
 import com.skcraft.launcher.model.minecraft.AssetsIndex;
 import com.skcraft.launcher.model.minecraft.Library;
 import com.skcraft.launcher.model.minecraft.VersionManifest;
@@ -31,6 +30,7 @@ import org.apache.commons.lang.text.StrSubstitutor;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -51,7 +51,6 @@ public class Runner implements Callable<Process>, ProgressObservable {
     private final Launcher launcher;
     private final Instance instance;
     private final Session session;
-    private final File extractDir;
     @Getter @Setter private Environment environment = Environment.getInstance();
 
     private VersionManifest versionManifest;
@@ -67,14 +66,11 @@ public class Runner implements Callable<Process>, ProgressObservable {
      * @param launcher the launcher
      * @param instance the instance
      * @param session the session
-     * @param extractDir the directory to extract to
      */
-    public Runner(@NonNull Launcher launcher, @NonNull Instance instance,
-                  @NonNull Session session, @NonNull File extractDir) {
+    public Runner(@NonNull Launcher launcher, @NonNull Instance instance, @NonNull Session session) {
         this.launcher = launcher;
         this.instance = instance;
         this.session = session;
-        this.extractDir = extractDir;
     }
 
     /**
@@ -96,6 +92,12 @@ public class Runner implements Callable<Process>, ProgressObservable {
             throw new LauncherException("Update required", SharedLocale.tr("runner.updateRequired"));
         }
 
+        // An update that stopped part way through replacing files would leave a mix of old and new files
+        if (!InstallTransaction.recover(instance.getStagingDir())) {
+            throw new LauncherException("Unfinished update could not be rolled back",
+                    tr("runner.unfinishedUpdate", instance.getTitle(), instance.getStagingDir().getAbsolutePath()));
+        }
+
         config = launcher.getConfig();
         builder = new JavaProcessBuilder();
         assetsRoot = launcher.getAssets();
@@ -185,6 +187,7 @@ public class Runner implements Callable<Process>, ProgressObservable {
      */
     private void addLibraries() throws LauncherException {
         // Add libraries to classpath or extract the libraries as necessary
+        List<NativesCache.Native> natives = new ArrayList<NativesCache.Native>();
         for (Library library : versionManifest.getLibraries()) {
             if (!library.matches(environment)) {
                 continue;
@@ -195,9 +198,7 @@ public class Runner implements Callable<Process>, ProgressObservable {
             if (path.exists()) {
                 Library.Extract extract = library.getExtract();
                 if (extract != null) {
-                    ZipExtract zipExtract = new ZipExtract(Files.asByteSource(path), extractDir);
-                    zipExtract.setExclude(extract.getExclude());
-                    zipExtract.run();
+                    natives.add(new NativesCache.Native(path, extract.getExclude()));
                 } else {
                     builder.classPath(path);
                 }
@@ -209,7 +210,15 @@ public class Runner implements Callable<Process>, ProgressObservable {
             }
         }
 
-        builder.getFlags().add("-Djava.library.path=" + extractDir.getAbsoluteFile());
+        // The natives are only extracted the first time that this set of libraries is launched
+        File nativesDir;
+        try {
+            nativesDir = launcher.getNativesCache().get(natives);
+        } catch (IOException e) {
+            throw new LauncherException(e, tr("runner.extractNativesFailed", instance.getTitle()));
+        }
+
+        builder.getFlags().add("-Djava.library.path=" + nativesDir.getAbsoluteFile());
     }
 
     /**
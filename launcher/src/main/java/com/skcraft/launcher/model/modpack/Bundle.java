@@ -0,0 +1,32 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.model.modpack;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An archive of many small objects that can be downloaded in one request
+ * instead of one request per file.
+ * </p>
+ * A bundle is a gzip compressed zip file in which every entry is named after
+ * the SHA-1 hash of its contents. Files that are in a bundle name it in
+ * {@link FileInstall#getBundle()} but are still available on their own, so
+ * the bundle is only downloaded if enough of its objects are needed, as
+ * decided by the {@link BundlePlanner}.
+ */
+@Data
+public class Bundle {
+
+    private String hash;
+    private String location;
+    private long size;
+    private List<String> objects = new ArrayList<String>();
+
+}
@@ -0,0 +1,115 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.model.modpack;
+
+import com.skcraft.launcher.install.BundleExtract;
+import com.skcraft.launcher.install.Installer;
+import com.skcraft.launcher.install.ObjectStore;
+import com.skcraft.launcher.install.UpdateCache;
+import lombok.NonNull;
+import lombok.extern.java.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.*;
+
+import static com.skcraft.launcher.LauncherUtils.concat;
+
+/**
+ * Decides, for one update, which {@link Bundle}s of a manifest are worth
+ * downloading instead of the objects in them, and queues their download
+ * and extraction.
+ */
+@Log
+public class BundlePlanner {
+
+    /**
+     * The rough cost of a request in bytes, used to weigh downloading the
+     * whole bundle against downloading the needed objects one by one.
+     */
+    private static final long REQUEST_COST = 32 * 1024;
+
+    private final Installer installer;
+    private final UpdateCache cache;
+    private final File contentDir;
+
+    /**
+     * Create a new planner.
+     *
+     * @param installer the installer
+     * @param cache the update cache
+     * @param contentDir the content directory
+     */
+    public BundlePlanner(@NonNull Installer installer, @NonNull UpdateCache cache, @NonNull File contentDir) {
+        this.installer = installer;
+        this.cache = cache;
+        this.contentDir = contentDir;
+    }
+
+    /**
+     * Queue the bundles of the given manifest that are worth downloading.
+     * The objects that they provide are noted with the installer, so that
+     * the files of the manifest are installed from them.
+     *
+     * @param manifest the manifest, with its features already selected
+     * @throws IOException thrown on I/O error
+     */
+    public void plan(@NonNull Manifest manifest) throws IOException {
+        ObjectStore objectStore = installer.getObjectStore();
+        if (objectStore == null) {
+            return;
+        }
+
+        // Files are grouped by bundle first, so that the manifest is only walked once
+        Map<String, List<FileInstall>> bundled = new HashMap<String, List<FileInstall>>();
+        for (ManifestEntry entry : manifest.getTasks()) {
+            if (entry instanceof FileInstall) {
+                FileInstall file = (FileInstall) entry;
+                if (file.getBundle() != null && ObjectStore.isValidHash(file.getHash())) {
+                    List<FileInstall> files = bundled.get(file.getBundle());
+                    if (files == null) {
+                        files = new ArrayList<FileInstall>();
+                        bundled.put(file.getBundle(), files);
+                    }
+                    files.add(file);
+                }
+            }
+        }
+
+        for (Bundle bundle : manifest.getBundles()) {
+            List<FileInstall> files = bundled.get(bundle.getHash());
+            if (files != null && ObjectStore.isValidHash(bundle.getHash())) {
+                plan(manifest, bundle, files, objectStore);
+            }
+        }
+    }
+
+    private void plan(Manifest manifest, Bundle bundle, List<FileInstall> files, ObjectStore objectStore)
+            throws IOException {
+        Set<String> needed = new LinkedHashSet<String>();
+        long neededSize = 0;
+        for (FileInstall file : files) {
+            if (!needed.contains(file.getHash()) && file.isNeeded(objectStore, cache, contentDir)) {
+                needed.add(file.getHash());
+                neededSize += file.getSize();
+            }
+        }
+
+        int count = needed.size();
+        if (count > 1 && bundle.getSize() + REQUEST_COST < neededSize + count * REQUEST_COST) {
+            log.info("Using bundle " + bundle.getHash() + " for " + count + " files " +
+                    "(" + bundle.getSize() + " bytes instead of " + neededSize + ")");
+            URL url = concat(manifest.getObjectsUrl(), bundle.getLocation());
+            File file = installer.getDownloader().download(url, bundle.getHash(), bundle.getSize(),
+                    bundle.getHash(), bundle.getLocation());
+            installer.queue(new BundleExtract(file, objectStore, needed, installer.getTempDir()));
+            installer.addPlannedObjects(needed);
+        }
+    }
+
+}
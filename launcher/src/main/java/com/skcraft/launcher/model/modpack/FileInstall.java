@@ -13,6 +13,8 @@ import com.google.common.io.Files;
 import com.skcraft.launcher.install.InstallLog;
 import com.skcraft.launcher.install.InstallLogFileMover;
 import com.skcraft.launcher.install.Installer;
+import com.skcraft.launcher.install.ObjectStore;
+import com.skcraft.launcher.install.PatchApply;
 import com.skcraft.launcher.install.UpdateCache;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
@@ -22,6 +24,8 @@ import org.apache.commons.io.FilenameUtils;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.skcraft.launcher.LauncherUtils.concat;
@@ -37,6 +41,8 @@ public class FileInstall extends ManifestEntry {
     private String to;
     private long size;
     private boolean userFile;
+    private String bundle;
+    private List<Patch> patches = new ArrayList<Patch>();
 
     @JsonIgnore
     public String getImpliedVersion() {
@@ -66,13 +72,131 @@ public class FileInstall extends ManifestEntry {
                 size = 10 * 1024;
             }
 
-            File tempFile = installer.getDownloader().download(url, fileVersion, size, to);
-            installer.queue(new InstallLogFileMover(log, tempFile, targetFile));
+            ObjectStore objectStore = installer.getObjectStore();
+
+            if (objectStore != null && ObjectStore.isValidHash(hash)) {
+                // Shared objects are only fetched if no other instance has them already
+                File source;
+                if (objectStore.has(hash)
+                        || installer.isPlannedObject(hash)
+                        || preparePatch(installer, cache, targetFile, url)) {
+                    source = objectStore.getPath(hash);
+                } else {
+                    source = installer.getDownloader().download(
+                            installer.getObjectUrls(url, hash), fileVersion, size, hash, to);
+                }
+                InstallLogFileMover mover = new InstallLogFileMover(log, source, targetFile, objectStore, hash);
+                // The downloader has already checked the hash while downloading
+                mover.setVerified(true);
+                // Files that may be edited in place must not share the stored object
+                mover.setLinkable(!isUserFile() && ObjectStore.isLinkable(targetPath));
+                mover.trackIn(cache, FilenameUtils.normalize(targetPath));
+                mover.setTransaction(installer.getTransaction());
+                installer.queue(mover);
+            } else {
+                // Other launchers can only be trusted with files that can be checked
+                File tempFile;
+                if (ObjectStore.isValidHash(hash)) {
+                    tempFile = installer.getDownloader().download(
+                            installer.getObjectUrls(url, hash), fileVersion, size, hash, to);
+                } else {
+                    tempFile = installer.getDownloader().download(url, fileVersion, size, null, to);
+                }
+                InstallLogFileMover mover = new InstallLogFileMover(log, tempFile, targetFile);
+                mover.setTransaction(installer.getTransaction());
+                installer.queue(mover);
+            }
         } else {
             log.add(to, to);
         }
     }
 
+    /**
+     * Queue the download of the smallest patch that applies to a version of
+     * this file that is available locally, if it is smaller than the file.
+     * The file is downloaded from the given URL instead if patching fails.
+     */
+    private boolean preparePatch(Installer installer, UpdateCache cache, File targetFile, URL objectUrl)
+            throws IOException {
+        ObjectStore objectStore = installer.getObjectStore();
+        Patch best = null;
+        File base = null;
+
+        for (Patch patch : patches) {
+            if (size > 0 && patch.getSize() >= size) {
+                continue;
+            }
+            if (best != null && patch.getSize() >= best.getSize()) {
+                continue;
+            }
+            File file = getPatchBase(objectStore, cache, targetFile, patch.getFrom());
+            if (file != null) {
+                best = patch;
+                base = file;
+            }
+        }
+
+        if (best == null) {
+            return false;
+        }
+
+        URL patchUrl = concat(getManifest().getObjectsUrl(), best.getLocation());
+        File patchFile = installer.getDownloader().download(patchUrl, best.getFrom() + "-" + hash, best.getSize(), to);
+        // The patch is only a shortcut, as the whole file can be downloaded instead
+        installer.getDownloader().setOptional(patchFile);
+        installer.queue(new PatchApply(base, patchFile, objectStore, hash,
+                installer.getObjectUrls(objectUrl, hash), installer.getTempDir()));
+        return true;
+    }
+
+    private File getPatchBase(ObjectStore objectStore, UpdateCache cache, File targetFile, String from) {
+        if (objectStore.has(from)) {
+            return objectStore.getPath(from);
+        }
+
+        // The installed file was hashed when checking whether it is up to date
+        if (targetFile.exists() && !isUserFile()) {
+            String existingHash = cache.getVerifiedHash(FilenameUtils.normalize(getTargetPath()), targetFile);
+            if (existingHash != null && existingHash.equalsIgnoreCase(from)) {
+                return targetFile;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Guess whether this file will have to be fetched, without hashing
+     * anything or changing the update cache. Files that exist but were never
+     * verified are assumed to be up to date.
+     *
+     * @param objectStore the object store
+     * @param cache the update cache
+     * @param contentDir the content directory
+     * @return true if the file is likely to be fetched
+     */
+    boolean isNeeded(ObjectStore objectStore, UpdateCache cache, File contentDir) {
+        if (getWhen() != null && !getWhen().matches()) {
+            return false;
+        }
+
+        if (objectStore.has(hash)) {
+            return false;
+        }
+
+        File targetFile = new File(contentDir, getTargetPath());
+        if (!targetFile.exists()) {
+            return true;
+        }
+
+        if (isUserFile()) {
+            return false;
+        }
+
+        String existingHash = cache.getVerifiedHash(FilenameUtils.normalize(getTargetPath()), targetFile);
+        return existingHash != null && !existingHash.equalsIgnoreCase(hash);
+    }
+
     private boolean shouldUpdate(UpdateCache cache, File targetFile) throws IOException {
         if (targetFile.exists() && isUserFile()) {
             return false;
@@ -83,7 +207,13 @@ public class FileInstall extends ManifestEntry {
         }
 
         if (hash != null) {
-            String existingHash = Files.hash(targetFile, hf).toString();
+            // Only hash the file if it changed since it was last verified
+            String key = FilenameUtils.normalize(getTargetPath());
+            String existingHash = cache.getVerifiedHash(key, targetFile);
+            if (existingHash == null) {
+                existingHash = Files.hash(targetFile, hf).toString();
+                cache.markVerified(key, targetFile, existingHash);
+            }
             if (existingHash.equalsIgnoreCase(hash)) {
                 return false;
             }
@@ -17,6 +17,7 @@ import com.skcraft.launcher.install.Installer;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
+import lombok.NonNull;
 import lombok.Setter;
 
 import java.net.MalformedURLException;
@@ -29,6 +30,8 @@ import java.util.List;
 public class Manifest extends BaseManifest {
 
     public static final int MIN_PROTOCOL_VERSION = 2;
+    public static final int BUNDLE_PROTOCOL_VERSION = 3;
+    public static final int PATCH_PROTOCOL_VERSION = 3;
 
     private int minimumVersion;
     private URL baseUrl;
@@ -40,6 +43,7 @@ public class Manifest extends BaseManifest {
     private List<Feature> features = new ArrayList<Feature>();
     @JsonManagedReference("manifest")
     private List<ManifestEntry> tasks = new ArrayList<ManifestEntry>();
+    private List<Bundle> bundles = new ArrayList<Bundle>();
     @Getter @Setter @JsonIgnore
     private Installer installer;
     private VersionManifest versionManifest;
@@ -70,6 +74,17 @@ public class Manifest extends BaseManifest {
         }
     }
 
+    @JsonIgnore
+    public Bundle getBundle(@NonNull String hash) {
+        for (Bundle bundle : bundles) {
+            if (hash.equals(bundle.getHash())) {
+                return bundle;
+            }
+        }
+
+        return null;
+    }
+
     public void updateName(String name) {
         if (name != null) {
             setName(name);
@@ -0,0 +1,24 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.model.modpack;
+
+import lombok.Data;
+
+/**
+ * A binary patch that turns an older version of a file into the version
+ * described by the {@link FileInstall} that lists it.
+ *
+ * @see com.skcraft.launcher.util.BinaryDelta
+ */
+@Data
+public class Patch {
+
+    private String from;
+    private String location;
+    private long size;
+
+}
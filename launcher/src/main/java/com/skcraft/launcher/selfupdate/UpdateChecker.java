@@ -8,6 +8,7 @@ package com.skcraft.launcher.selfupdate;
 
 import com.skcraft.launcher.Launcher;
 import com.skcraft.launcher.LauncherException;
+import com.skcraft.launcher.util.BandwidthLimiter;
 import com.skcraft.launcher.util.HttpRequest;
 import com.skcraft.launcher.util.SharedLocale;
 import lombok.NonNull;
@@ -37,9 +38,9 @@ public class UpdateChecker implements Callable<URL> {
             URL url = HttpRequest.url(launcher.getProperties().getProperty("selfUpdateUrl"));
 
             LatestVersionInfo versionInfo = HttpRequest.get(url)
+                    .budget(BandwidthLimiter.Budget.BACKGROUND)
                     .execute()
                     .expectResponseCode(200)
-                    .returnContent()
                     .asJson(LatestVersionInfo.class);
 
             ComparableVersion current = new ComparableVersion(launcher.getVersion());
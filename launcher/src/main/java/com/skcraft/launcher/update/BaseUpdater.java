@@ -7,6 +7,7 @@
 package com.skcraft.launcher.update;
 
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.skcraft.launcher.AssetsRoot;
 import com.skcraft.launcher.Instance;
 import com.skcraft.launcher.Launcher;
@@ -18,6 +19,7 @@ import com.skcraft.launcher.model.minecraft.Asset;
 import com.skcraft.launcher.model.minecraft.AssetsIndex;
 import com.skcraft.launcher.model.minecraft.Library;
 import com.skcraft.launcher.model.minecraft.VersionManifest;
+import com.skcraft.launcher.model.modpack.BundlePlanner;
 import com.skcraft.launcher.model.modpack.Feature;
 import com.skcraft.launcher.model.modpack.Manifest;
 import com.skcraft.launcher.model.modpack.ManifestEntry;
@@ -34,6 +36,7 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.logging.Level;
 
 import static com.skcraft.launcher.LauncherUtils.checkInterrupted;
@@ -54,6 +57,7 @@ public abstract class BaseUpdater {
 
     private static final long JAR_SIZE_ESTIMATE = 5 * 1024 * 1024;
     private static final long LIBRARY_SIZE_ESTIMATE = 3 * 1024 * 1024;
+    private static final int HASH_THREADS = 8;
 
     private final Launcher launcher;
     private final Environment environment = Environment.getInstance();
@@ -71,23 +75,39 @@ public abstract class BaseUpdater {
 
     protected Manifest installPackage(@NonNull Installer installer, @NonNull Instance instance) throws Exception {
         final File contentDir = instance.getContentDir();
-        final File logPath = new File(instance.getDir(), "install_log.json");
-        final File cachePath = new File(instance.getDir(), "update_cache.json");
+        final File logPath = new File(instance.getDir(), "install_log.dat");
+        final File legacyLogPath = new File(instance.getDir(), "install_log.json");
+        final File cachePath = new File(instance.getDir(), "update_cache.dat");
+        final File legacyCachePath = new File(instance.getDir(), "update_cache.json");
         final File featuresPath = new File(instance.getDir(), "features.json");
 
-        final InstallLog previousLog = Persistence.read(logPath, InstallLog.class);
+        final InstallLog previousLog = InstallLog.read(logPath, legacyLogPath);
         final InstallLog currentLog = new InstallLog();
         currentLog.setBaseDir(contentDir);
-        final UpdateCache updateCache = Persistence.read(cachePath, UpdateCache.class);
+        final UpdateCache updateCache = UpdateCache.read(cachePath, legacyCachePath);
         final FeatureCache featuresCache = Persistence.read(featuresPath, FeatureCache.class);
 
-        Manifest manifest = HttpRequest
-                .get(instance.getManifestURL())
-                .execute()
-                .expectResponseCode(200)
-                .returnContent()
-                .saveContent(instance.getManifestPath())
-                .asJson(Manifest.class);
+        // An update that was cut short is finished with the manifest that it was planned with
+        DownloadJournal journal = installer.getJournal();
+        Manifest manifest = null;
+        if (journal != null && journal.hasManifest(instance.getManifestURL(), instance.getManifestPath())) {
+            manifest = Persistence.read(instance.getManifestPath(), Manifest.class, true);
+            if (manifest != null) {
+                log.info("Resuming the interrupted update of " + instance.getName());
+            }
+        }
+
+        if (manifest == null) {
+            manifest = HttpRequest
+                    .get(instance.getManifestURL())
+                    .cache(launcher.getHttpCache())
+                    .execute()
+                    .expectResponseCode(200)
+                    .asJson(Manifest.class, instance.getManifestPath());
+            if (journal != null) {
+                journal.setManifest(instance.getManifestURL(), instance.getManifestPath());
+            }
+        }
 
         if (manifest.getMinimumVersion() > Launcher.PROTOCOL_VERSION) {
             throw new LauncherException("Update required", SharedLocale.tr("errors.updateRequiredError"));
@@ -100,7 +120,10 @@ public abstract class BaseUpdater {
         final List<Feature> features = manifest.getFeatures();
         if (!features.isEmpty()) {
             for (Feature feature : features) {
-                Boolean last = featuresCache.getSelected().get(feature.getName());
+                Boolean last = journal != null ? journal.getFeature(Strings.nullToEmpty(feature.getName())) : null;
+                if (last == null) {
+                    last = featuresCache.getSelected().get(feature.getName());
+                }
                 if (last != null) {
                     feature.setSelected(last);
                 }
@@ -117,27 +140,51 @@ public abstract class BaseUpdater {
 
             for (Feature feature : features) {
                 featuresCache.getSelected().put(Strings.nullToEmpty(feature.getName()), feature.isSelected());
+                if (journal != null) {
+                    journal.setFeature(Strings.nullToEmpty(feature.getName()), feature.isSelected());
+                }
             }
         }
 
+        new BundlePlanner(installer, updateCache, contentDir).plan(manifest);
+
         for (ManifestEntry entry : manifest.getTasks()) {
             entry.install(installer, currentLog, updateCache, contentDir);
         }
 
+        // With a transaction, these changes are applied together with the new files
+        final InstallTransaction transaction = installer.getTransaction();
         executeOnCompletion.add(new Runnable() {
             @Override
             public void run() {
                 for (Map.Entry<String, Set<String>> entry : previousLog.getEntrySet()) {
                     for (String path : entry.getValue()) {
                         if (!currentLog.has(path)) {
-                            new File(contentDir, path).delete();
+                            File file = new File(contentDir, path);
+                            if (transaction != null) {
+                                transaction.delete(file);
+                            } else {
+                                file.delete();
+                            }
                         }
                     }
                 }
 
-                writeDataFile(logPath, currentLog);
-                writeDataFile(cachePath, updateCache);
-                writeDataFile(featuresPath, featuresCache);
+                try {
+                    currentLog.write(transaction != null ? transaction.stage(logPath) : logPath);
+                    deleteDataFile(transaction, legacyLogPath);
+                } catch (IOException e) {
+                    log.log(Level.WARNING, "Failed to write to " + logPath.getAbsolutePath(), e);
+                }
+
+                try {
+                    updateCache.write(transaction != null ? transaction.stage(cachePath) : cachePath);
+                    deleteDataFile(transaction, legacyCachePath);
+                } catch (IOException e) {
+                    log.log(Level.WARNING, "Failed to write to " + cachePath.getAbsolutePath(), e);
+                }
+
+                writeDataFile(transaction, featuresPath, featuresCache);
             }
         });
 
@@ -151,7 +198,8 @@ public abstract class BaseUpdater {
         if (!jarFile.exists()) {
             List<File> targets = new ArrayList<File>();
 
-            File tempFile = installer.getDownloader().download(url, "", JAR_SIZE_ESTIMATE, jarFile.getName());
+            File tempFile = installer.getDownloader().download(url, "", JAR_SIZE_ESTIMATE, null,
+                    jarFile.getName(), DownloadPriority.CRITICAL);
             installer.queue(new FileMover(tempFile, jarFile));
             log.info("Installing " + jarFile.getName() + " from " + url);
         }
@@ -165,11 +213,10 @@ public abstract class BaseUpdater {
 
         AssetsIndex index = HttpRequest
                 .get(indexUrl)
+                .cache(launcher.getHttpCache())
                 .execute()
                 .expectResponseCode(200)
-                .returnContent()
-                .saveContent(assetsRoot.getIndexPath(versionManifest))
-                .asJson(AssetsIndex.class);
+                .asJson(AssetsIndex.class, assetsRoot.getIndexPath(versionManifest));
 
         // Keep track of duplicates
         Set<String> downloading = new HashSet<String>();
@@ -191,8 +238,10 @@ public abstract class BaseUpdater {
                     }
                 }
 
+                urls = installer.getMirrorUrls(MirrorServer.ASSETS_PATH + path, urls.toArray(new URL[urls.size()]));
+
                 File tempFile = installer.getDownloader().download(
-                        urls, "", entry.getValue().getSize(), entry.getKey());
+                        urls, "", entry.getValue().getSize(), hash, entry.getKey(), DownloadPriority.OPTIONAL);
                 installer.queue(new FileMover(tempFile, targetFile));
                 log.info("Fetching " + path + " from " + urls);
                 downloading.add(path);
@@ -204,6 +253,7 @@ public abstract class BaseUpdater {
                                     @NonNull VersionManifest versionManifest,
                                     @NonNull File librariesDir,
                                     @NonNull List<URL> sources) throws InterruptedException {
+        List<MissingLibrary> missing = new ArrayList<MissingLibrary>();
 
         for (Library library : versionManifest.getLibraries()) {
             if (library.matches(environment)) {
@@ -222,22 +272,157 @@ public abstract class BaseUpdater {
                         }
                     }
 
-                    File tempFile = installer.getDownloader().download(urls, "", LIBRARY_SIZE_ESTIMATE,
-                            library.getName() + ".jar");
-                    installer.queue(new FileMover( tempFile, targetFile));
-                    log.info("Fetching " + path + " from " + urls);
+                    missing.add(new MissingLibrary(library, path, targetFile, urls));
                 }
             }
         }
+
+        // Local mirrors can only be used if the library can be checked
+        if (!installer.getLocalMirrors().isEmpty() && !missing.isEmpty()) {
+            findPublishedHashes(new File(librariesDir, "published_hashes.dat"), missing);
+        }
+
+        for (MissingLibrary entry : missing) {
+            List<URL> urls = entry.urls;
+            if (entry.hash != null) {
+                urls = installer.getMirrorUrls(MirrorServer.LIBRARIES_PATH + entry.path,
+                        urls.toArray(new URL[urls.size()]));
+            }
+
+            File tempFile = installer.getDownloader().download(urls, "", LIBRARY_SIZE_ESTIMATE, entry.hash,
+                    entry.library.getName() + ".jar", DownloadPriority.CRITICAL);
+            installer.queue(new FileMover(tempFile, entry.targetFile));
+            log.info("Fetching " + entry.path + " from " + urls);
+        }
     }
 
-    private static void writeDataFile(File path, Object object) {
+    /**
+     * Find the hashes that the sources of the given libraries publish, from
+     * the given cache or else by fetching them on several threads at once.
+     * </p>
+     * The cache is shared by every instance, like the libraries, and is
+     * saved straight away because published hashes don't change.
+     *
+     * @param cachePath the path to the cache
+     * @param libraries the libraries
+     * @throws InterruptedException thrown on interruption
+     */
+    private static void findPublishedHashes(File cachePath, List<MissingLibrary> libraries) throws InterruptedException {
+        UpdateCache loaded = new UpdateCache();
+        if (cachePath.exists()) {
+            try {
+                loaded = UpdateCache.read(cachePath);
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Failed to read " + cachePath.getAbsolutePath(), e);
+            }
+        }
+
+        final UpdateCache cache = loaded;
+        List<Future<String>> futures = new ArrayList<Future<String>>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(HASH_THREADS, new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("Library Hash %d")
+                .build());
         try {
-            Persistence.write(path, object);
+            for (final MissingLibrary library : libraries) {
+                futures.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return getPublishedHash(cache, library.urls);
+                    }
+                }));
+            }
+
+            for (int i = 0; i < libraries.size(); i++) {
+                try {
+                    libraries.get(i).hash = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    log.log(Level.WARNING, "Failed to get the hash of " + libraries.get(i).path, e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        try {
+            cache.write(cachePath);
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to write to " + cachePath.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Get the SHA-1 hash that the first source to have one publishes
+     * alongside a file, as Maven repositories do.
+     *
+     * @param cache the cache of hashes that were found before
+     * @param urls the URLs of the file
+     * @return the hash, or null if no source publishes one
+     * @throws InterruptedException thrown on interruption
+     */
+    private static String getPublishedHash(UpdateCache cache, List<URL> urls) throws InterruptedException {
+        for (URL url : urls) {
+            String hash = cache.getPublishedHash(url);
+            if (hash != null) {
+                return hash;
+            }
+        }
+
+        for (URL url : urls) {
+            try {
+                String hash = HttpRequest
+                        .get(new URL(url.toExternalForm() + ".sha1"))
+                        .execute()
+                        .expectResponseCode(200)
+                        .returnContent()
+                        .asString("UTF-8")
+                        .trim()
+                        .split("\\s+")[0];
+                if (ObjectStore.isValidHash(hash)) {
+                    hash = hash.toLowerCase();
+                    cache.setPublishedHash(url, hash);
+                    return hash;
+                }
+            } catch (IOException e) {
+                log.log(Level.FINE, "No hash published for " + url, e);
+            }
+        }
+        return null;
+    }
+
+    private static void writeDataFile(InstallTransaction transaction, File path, Object object) {
+        try {
+            Persistence.write(transaction != null ? transaction.stage(path) : path, object);
         } catch (IOException e) {
             log.log(Level.WARNING, "Failed to write to " + path.getAbsolutePath() +
                     " for object " + object.getClass().getCanonicalName(), e);
         }
     }
 
+    private static void deleteDataFile(InstallTransaction transaction, File path) {
+        if (path.exists()) {
+            if (transaction != null) {
+                transaction.delete(path);
+            } else {
+                path.delete();
+            }
+        }
+    }
+
+    private static class MissingLibrary {
+        private final Library library;
+        private final String path;
+        private final File targetFile;
+        private final List<URL> urls;
+        private String hash;
+
+        private MissingLibrary(Library library, String path, File targetFile, List<URL> urls) {
+            this.library = library;
+            this.path = path;
+            this.targetFile = targetFile;
+            this.urls = urls;
+        }
+    }
+
 }
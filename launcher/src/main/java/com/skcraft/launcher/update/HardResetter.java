@@ -8,6 +8,7 @@ package com.skcraft.launcher.update;
 
 import com.skcraft.concurrency.ProgressObservable;
 import com.skcraft.launcher.Instance;
+import com.skcraft.launcher.Launcher;
 import com.skcraft.launcher.LauncherUtils;
 import com.skcraft.launcher.persistence.Persistence;
 import lombok.NonNull;
@@ -21,10 +22,12 @@ import static com.skcraft.launcher.util.SharedLocale.tr;
 
 public class HardResetter implements Callable<Instance>, ProgressObservable {
 
+    private final Launcher launcher;
     private final Instance instance;
     private File currentDir;
 
-    public HardResetter(@NonNull Instance instance) {
+    public HardResetter(@NonNull Launcher launcher, @NonNull Instance instance) {
+        this.launcher = launcher;
         this.instance = instance;
     }
 
@@ -44,7 +47,9 @@ public class HardResetter implements Callable<Instance>, ProgressObservable {
         instance.setUpdatePending(true);
         Persistence.commitAndForget(instance);
 
+        new File(instance.getDir(), "update_cache.dat").delete();
         new File(instance.getDir(), "update_cache.json").delete();
+        launcher.getJournalPath(instance).delete();
 
         removeDir(new File(instance.getContentDir(), "config"));
         removeDir(new File(instance.getContentDir(), "mods"));
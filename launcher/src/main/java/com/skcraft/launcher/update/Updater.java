@@ -13,6 +13,8 @@ import com.skcraft.concurrency.ProgressObservable;
 import com.skcraft.launcher.Instance;
 import com.skcraft.launcher.Launcher;
 import com.skcraft.launcher.LauncherException;
+import com.skcraft.launcher.install.DownloadJournal;
+import com.skcraft.launcher.install.InstallTransaction;
 import com.skcraft.launcher.install.Installer;
 import com.skcraft.launcher.model.minecraft.VersionManifest;
 import com.skcraft.launcher.model.modpack.Manifest;
@@ -54,7 +56,17 @@ public class Updater extends BaseUpdater implements Callable<Instance>, Progress
     public Updater(@NonNull Launcher launcher, @NonNull Instance instance) {
         super(launcher);
 
-        this.installer = new Installer(launcher.getInstallerDir());
+        this.installer = new Installer(launcher.getInstallerDir(), launcher.getConfig().getDownloadEngine());
+        this.installer.setObjectStore(launcher.getObjectStore());
+        this.installer.setDownloadConcurrency(
+                launcher.getConfig().getMinDownloadConcurrency(),
+                launcher.getConfig().getMaxDownloadConcurrency());
+        this.installer.setSchedulingPolicy(launcher.getConfig().getDownloadSchedulingPolicy());
+        // Otherwise the installer picks a number from the processors
+        if (launcher.getConfig().getInstallThreads() > 0) {
+            this.installer.setInstallThreads(launcher.getConfig().getInstallThreads());
+        }
+        this.installer.setLocalMirrors(launcher.getLocalMirrors());
         this.launcher = launcher;
         this.instance = instance;
 
@@ -114,11 +126,10 @@ public class Updater extends BaseUpdater implements Callable<Instance>, Progress
 
             return HttpRequest
                     .get(url)
+                    .cache(launcher.getHttpCache())
                     .execute()
                     .expectResponseCode(200)
-                    .returnContent()
-                    .saveContent(instance.getVersionPath())
-                    .asJson(VersionManifest.class);
+                    .asJson(VersionManifest.class, instance.getVersionPath());
         }
     }
 
@@ -135,54 +146,92 @@ public class Updater extends BaseUpdater implements Callable<Instance>, Progress
         instance.setLocal(true);
         Persistence.commitAndForget(instance);
 
-        // Read manifest
-        log.info("Reading package manifest...");
-        progress = new DefaultProgress(-1, SharedLocale.tr("instanceUpdater.readingManifest"));
-        Manifest manifest = installPackage(installer, instance);
+        // Keep track of the update so that it can be resumed if it's interrupted
+        DownloadJournal journal = new DownloadJournal(launcher.getJournalPath(instance));
+        installer.setJournal(journal);
 
-        // Update instance from manifest
-        manifest.update(instance);
+        // Files are staged and only replace the instance's files once everything is installed
+        InstallTransaction transaction = new InstallTransaction(instance.getStagingDir());
+        installer.setTransaction(transaction);
 
-        // Read version manifest
-        log.info("Reading version manifest...");
-        progress = new DefaultProgress(-1, SharedLocale.tr("instanceUpdater.readingVersion"));
-        VersionManifest version = readVersionManifest(manifest);
+        Manifest manifest;
+        try {
+            // Read manifest
+            log.info("Reading package manifest...");
+            progress = new DefaultProgress(-1, SharedLocale.tr("instanceUpdater.readingManifest"));
+            manifest = installPackage(installer, instance);
 
-        progress = new DefaultProgress(-1, SharedLocale.tr("instanceUpdater.buildingDownloadList"));
+            // Update instance from manifest
+            manifest.update(instance);
 
-        // Install the .jar
-        File jarPath = launcher.getJarPath(version);
-        URL jarSource = launcher.propUrl("jarUrl", version.getId());
-        log.info("JAR at " + jarPath.getAbsolutePath() + ", fetched from " + jarSource);
-        installJar(installer, jarPath, jarSource);
+            // Read version manifest
+            log.info("Reading version manifest...");
+            progress = new DefaultProgress(-1, SharedLocale.tr("instanceUpdater.readingVersion"));
+            VersionManifest version = readVersionManifest(manifest);
 
-        // Download libraries
-        log.info("Enumerating libraries to download...");
+            progress = new DefaultProgress(-1, SharedLocale.tr("instanceUpdater.buildingDownloadList"));
 
-        URL url = manifest.getLibrariesUrl();
-        if (url != null) {
-            log.info("Added library source: " + url);
-            librarySources.add(url);
-        }
+            // Install the .jar
+            File jarPath = launcher.getJarPath(version);
+            URL jarSource = launcher.propUrl("jarUrl", version.getId());
+            log.info("JAR at " + jarPath.getAbsolutePath() + ", fetched from " + jarSource);
+            installJar(installer, jarPath, jarSource);
 
-        progress = new DefaultProgress(-1, SharedLocale.tr("instanceUpdater.collectingLibraries"));
-        installLibraries(installer, version, launcher.getLibrariesDir(), librarySources);
+            // Download libraries
+            log.info("Enumerating libraries to download...");
 
-        // Download assets
-        log.info("Enumerating assets to download...");
-        progress = new DefaultProgress(-1, SharedLocale.tr("instanceUpdater.collectingAssets"));
-        installAssets(installer, version, launcher.propUrl("assetsIndexUrl", version.getAssetsIndex()), assetsSources);
+            URL url = manifest.getLibrariesUrl();
+            if (url != null) {
+                log.info("Added library source: " + url);
+                librarySources.add(url);
+            }
 
-        log.info("Executing download phase...");
-        progress = ProgressFilter.between(installer.getDownloader(), 0, 0.98);
-        installer.download();
+            progress = new DefaultProgress(-1, SharedLocale.tr("instanceUpdater.collectingLibraries"));
+            installLibraries(installer, version, launcher.getLibrariesDir(), librarySources);
+
+            // Download assets
+            log.info("Enumerating assets to download...");
+            progress = new DefaultProgress(-1, SharedLocale.tr("instanceUpdater.collectingAssets"));
+            installAssets(installer, version, launcher.propUrl("assetsIndexUrl", version.getAssetsIndex()), assetsSources);
+
+            if (launcher.getConfig().isPipelinedInstall()) {
+                log.info("Executing download and install phases together...");
+                final ProgressObservable downloading = ProgressFilter.between(installer.getDownloader(), 0, 0.98);
+                final ProgressObservable installing = ProgressFilter.between(installer, 0.98, 1);
+                progress = new ProgressObservable() {
+                    @Override
+                    public double getProgress() {
+                        return (installer.isDownloaded() ? installing : downloading).getProgress();
+                    }
+
+                    @Override
+                    public String getStatus() {
+                        return (installer.isDownloaded() ? installing : downloading).getStatus();
+                    }
+                };
+                installer.downloadAndExecute();
+            } else {
+                log.info("Executing download phase...");
+                progress = ProgressFilter.between(installer.getDownloader(), 0, 0.98);
+                installer.download();
 
-        log.info("Executing install phase...");
-        progress = ProgressFilter.between(installer, 0.98, 1);
-        installer.execute();
+                log.info("Executing install phase...");
+                progress = ProgressFilter.between(installer, 0.98, 1);
+                installer.execute();
+            }
 
-        log.info("Completing...");
-        complete();
+            log.info("Completing...");
+            complete();
+            transaction.commit();
+            journal.delete();
+        } finally {
+            // Only an update that was cut short by a crash resumes with the same manifest
+            if (!transaction.isCommitted()) {
+                journal.forgetPlan();
+            }
+            transaction.rollback();
+            journal.close();
+        }
 
         // Update the instance's information
         log.info("Writing instance information...");
@@ -194,6 +243,7 @@ public class Updater extends BaseUpdater implements Callable<Instance>, Progress
 
         log.log(Level.INFO, instance.getName() +
                 " has been updated to version " + manifest.getVersion() + ".");
+        launcher.getHttpCache().logStatistics();
     }
 
     @Override
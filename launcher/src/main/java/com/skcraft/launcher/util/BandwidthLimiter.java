@@ -0,0 +1,99 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.util;
+
+import com.google.common.util.concurrent.RateLimiter;
+import lombok.NonNull;
+import lombok.extern.java.Log;
+
+/**
+ * Limits the bandwidth used by all {@link HttpRequest}s, so that the launcher
+ * does not take the whole connection while the user is playing or streaming.
+ * </p>
+ * Each limit is a token bucket that holds up to a second's worth of bytes.
+ * Every request draws from the overall limit and from the limit of its
+ * {@link Budget}, so that background activity can be kept to a smaller
+ * share than updates that the user is waiting for.
+ */
+@Log
+public final class BandwidthLimiter {
+
+    /**
+     * The budget that a request's bandwidth is counted against.
+     */
+    public enum Budget {
+        /**
+         * Downloads that the user is waiting for, such as updating an instance.
+         */
+        FOREGROUND,
+        /**
+         * Downloads that happen without the user waiting, such as self-updates.
+         */
+        BACKGROUND
+    }
+
+    private static volatile RateLimiter total;
+    private static volatile RateLimiter foreground;
+    private static volatile RateLimiter background;
+
+    private BandwidthLimiter() {
+    }
+
+    /**
+     * Set the limits, in kilobytes per second. A limit of 0 or less means
+     * that there is no limit.
+     *
+     * @param totalLimit the limit for all requests
+     * @param foregroundLimit the limit for foreground requests
+     * @param backgroundLimit the limit for background requests
+     */
+    public static synchronized void setLimits(int totalLimit, int foregroundLimit, int backgroundLimit) {
+        total = create(totalLimit);
+        foreground = create(foregroundLimit);
+        background = create(backgroundLimit);
+
+        log.info("Bandwidth limits (KB/s, 0 = unlimited): " + Math.max(0, totalLimit) + " total, " +
+                Math.max(0, foregroundLimit) + " foreground, " + Math.max(0, backgroundLimit) + " background");
+    }
+
+    private static RateLimiter create(int limit) {
+        return limit > 0 ? RateLimiter.create(limit * 1024.0) : null;
+    }
+
+    /**
+     * Check whether transfers counted against the given budget are limited.
+     *
+     * @param budget the budget
+     * @return true if there is a limit
+     */
+    public static boolean isLimited(@NonNull Budget budget) {
+        return (budget == Budget.BACKGROUND ? background : foreground) != null || total != null;
+    }
+
+    /**
+     * Wait until the given number of bytes may be transferred.
+     *
+     * @param budget the budget to count the bytes against
+     * @param bytes the number of bytes
+     */
+    public static void acquire(@NonNull Budget budget, int bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+
+        RateLimiter limiter = budget == Budget.BACKGROUND ? background : foreground;
+        if (limiter != null) {
+            limiter.acquire(bytes);
+        }
+
+        limiter = total;
+        if (limiter != null) {
+            limiter.acquire(bytes);
+        }
+    }
+
+}
@@ -0,0 +1,223 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.util;
+
+import lombok.NonNull;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Creates and applies binary patches that turn one version of a file into
+ * another.
+ * </p>
+ * A patch is a gzip compressed list of instructions that either copy a range
+ * of the old file or insert new bytes. Patches are created by indexing the old
+ * file in fixed size blocks and looking up a rolling hash of every position
+ * of the new file, so that unchanged regions are found even if they have
+ * moved, which is what happens inside a jar when one class changes size.
+ */
+public final class BinaryDelta {
+
+    private static final int MAGIC = 0x534b4450;
+    private static final int END = 0;
+    private static final int COPY = 1;
+    private static final int INSERT = 2;
+
+    private static final int BLOCK_SIZE = 512;
+    private static final int PRIME = 31;
+    private static final int MAX_CANDIDATES = 16;
+
+    private BinaryDelta() {
+    }
+
+    /**
+     * Create a patch.
+     *
+     * @param source the old version
+     * @param target the new version
+     * @param out the stream to write the patch to
+     * @throws IOException thrown on I/O error
+     */
+    public static void diff(@NonNull byte[] source, @NonNull byte[] target, @NonNull OutputStream out) throws IOException {
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(gzip));
+
+        dos.writeInt(MAGIC);
+        dos.writeLong(source.length);
+        dos.writeLong(target.length);
+
+        int blockCount = source.length / BLOCK_SIZE;
+        int mask = Integer.highestOneBit(Math.max(1, blockCount) * 2) - 1;
+        int[] heads = new int[mask + 1];
+        int[] next = new int[blockCount];
+        Arrays.fill(heads, -1);
+        for (int i = 0; i < blockCount; i++) {
+            int bucket = hash(source, i * BLOCK_SIZE) & mask;
+            next[i] = heads[bucket];
+            heads[bucket] = i;
+        }
+
+        int power = 1;
+        for (int i = 1; i < BLOCK_SIZE; i++) {
+            power *= PRIME;
+        }
+
+        int literalStart = 0;
+        int pos = 0;
+        int h = blockCount > 0 && target.length >= BLOCK_SIZE ? hash(target, 0) : 0;
+
+        while (blockCount > 0 && pos + BLOCK_SIZE <= target.length) {
+            int match = -1;
+            int candidates = 0;
+            for (int b = heads[h & mask]; b >= 0 && candidates < MAX_CANDIDATES; b = next[b], candidates++) {
+                if (regionEquals(source, b * BLOCK_SIZE, target, pos, BLOCK_SIZE)) {
+                    match = b * BLOCK_SIZE;
+                    break;
+                }
+            }
+
+            if (match >= 0) {
+                // Grow the match in both directions
+                int start = pos;
+                int sourceStart = match;
+                while (start > literalStart && sourceStart > 0 && source[sourceStart - 1] == target[start - 1]) {
+                    start--;
+                    sourceStart--;
+                }
+                int end = pos + BLOCK_SIZE;
+                int sourceEnd = match + BLOCK_SIZE;
+                while (end < target.length && sourceEnd < source.length && source[sourceEnd] == target[end]) {
+                    end++;
+                    sourceEnd++;
+                }
+
+                writeInsert(dos, target, literalStart, start - literalStart);
+                dos.writeByte(COPY);
+                dos.writeLong(sourceStart);
+                dos.writeInt(end - start);
+
+                pos = end;
+                literalStart = end;
+                if (pos + BLOCK_SIZE <= target.length) {
+                    h = hash(target, pos);
+                }
+            } else if (pos + BLOCK_SIZE < target.length) {
+                h = (h - (target[pos] & 0xff) * power) * PRIME + (target[pos + BLOCK_SIZE] & 0xff);
+                pos++;
+            } else {
+                break;
+            }
+        }
+
+        writeInsert(dos, target, literalStart, target.length - literalStart);
+        dos.writeByte(END);
+        dos.flush();
+        gzip.finish();
+    }
+
+    /**
+     * Apply a patch.
+     *
+     * @param source the old version
+     * @param patch the patch
+     * @param out the stream to write the new version to
+     * @throws IOException thrown on I/O error or if the patch does not apply to the file
+     */
+    public static void patch(@NonNull File source, @NonNull InputStream patch, @NonNull OutputStream out) throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new GZIPInputStream(patch)));
+        RandomAccessFile raf = new RandomAccessFile(source, "r");
+
+        try {
+            if (dis.readInt() != MAGIC) {
+                throw new IOException("Not a patch file");
+            }
+
+            long sourceSize = dis.readLong();
+            long targetSize = dis.readLong();
+            if (raf.length() != sourceSize) {
+                throw new IOException("The patch is for a file of " + sourceSize + " bytes but " +
+                        source + " has " + raf.length() + " bytes");
+            }
+
+            byte[] buffer = new byte[8192];
+            long written = 0;
+            int op;
+
+            while ((op = dis.readUnsignedByte()) != END) {
+                if (op == COPY) {
+                    long offset = dis.readLong();
+                    int length = dis.readInt();
+                    if (offset < 0 || length < 0 || offset + length > sourceSize) {
+                        throw new IOException("Invalid copy of " + length + " bytes at " + offset);
+                    }
+                    raf.seek(offset);
+                    while (length > 0) {
+                        int len = Math.min(length, buffer.length);
+                        raf.readFully(buffer, 0, len);
+                        out.write(buffer, 0, len);
+                        length -= len;
+                        written += len;
+                    }
+                } else if (op == INSERT) {
+                    int length = dis.readInt();
+                    if (length < 0) {
+                        throw new IOException("Invalid insert of " + length + " bytes");
+                    }
+                    while (length > 0) {
+                        int len = Math.min(length, buffer.length);
+                        dis.readFully(buffer, 0, len);
+                        out.write(buffer, 0, len);
+                        length -= len;
+                        written += len;
+                    }
+                } else {
+                    throw new IOException("Unknown patch instruction " + op);
+                }
+            }
+
+            if (written != targetSize) {
+                throw new IOException("The patch produced " + written + " bytes but " + targetSize + " were expected");
+            }
+
+            // Reading to the end makes the gzip stream check its checksum
+            if (dis.read() != -1) {
+                throw new IOException("Unexpected data after the end of the patch");
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void writeInsert(DataOutputStream dos, byte[] data, int offset, int length) throws IOException {
+        if (length > 0) {
+            dos.writeByte(INSERT);
+            dos.writeInt(length);
+            dos.write(data, offset, length);
+        }
+    }
+
+    private static int hash(byte[] data, int offset) {
+        int h = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            h = h * PRIME + (data[offset + i] & 0xff);
+        }
+        return h;
+    }
+
+    private static boolean regionEquals(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[aOffset + i] != b[bOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,250 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.util;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.java.Log;
+
+import java.io.*;
+import java.net.URL;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import static org.apache.commons.io.IOUtils.closeQuietly;
+
+/**
+ * A disk cache of HTTP responses that are revalidated with conditional
+ * requests, so that files such as manifests are only downloaded again when
+ * they have changed on the server.
+ * </p>
+ * For each URL, the body of the last complete response is kept along with
+ * its ETag and Last-Modified headers, which are sent back as
+ * <code>If-None-Match</code> and <code>If-Modified-Since</code>. When the
+ * server answers with 304 Not Modified, {@link HttpRequest} serves the body
+ * from disk as if it were a normal 200 response.
+ */
+@Log
+public class HttpCache {
+
+    @Getter private final File dir;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+    /**
+     * Create a new cache.
+     *
+     * @param dir the directory to store cached responses in
+     */
+    public HttpCache(@NonNull File dir) {
+        this.dir = dir;
+    }
+
+    private String getKey(URL url) {
+        return Hashing.sha1().hashString(url.toString(), Charsets.UTF_8).toString();
+    }
+
+    private File getBodyFile(URL url) {
+        return new File(dir, getKey(url));
+    }
+
+    private File getMetaFile(URL url) {
+        return new File(dir, getKey(url) + ".properties");
+    }
+
+    /**
+     * Get the cached entry for the given URL.
+     *
+     * @param url the URL
+     * @return the entry, or null if there is none
+     */
+    synchronized Entry get(URL url) {
+        File bodyFile = getBodyFile(url);
+        File metaFile = getMetaFile(url);
+
+        if (!bodyFile.isFile() || !metaFile.isFile()) {
+            return null;
+        }
+
+        Properties meta = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(metaFile);
+            meta.load(in);
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to read cache entry for " + url, e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+
+        // Guard against hash collisions and entries from other URLs
+        if (!url.toString().equals(meta.getProperty("url"))) {
+            return null;
+        }
+
+        return new Entry(bodyFile, meta.getProperty("etag"), meta.getProperty("lastModified"));
+    }
+
+    /**
+     * Start storing a response for the given URL.
+     *
+     * @param url the URL
+     * @param etag the ETag header, or null
+     * @param lastModified the Last-Modified header, or null
+     * @return a writer for the body
+     * @throws IOException thrown on I/O error
+     */
+    Writer store(URL url, String etag, String lastModified) throws IOException {
+        dir.mkdirs();
+        return new Writer(url, etag, lastModified);
+    }
+
+    void recordHit(long bytes) {
+        hits.incrementAndGet();
+        bytesSaved.addAndGet(bytes);
+    }
+
+    void recordMiss() {
+        misses.incrementAndGet();
+    }
+
+    /**
+     * Get the number of requests that were answered from the cache.
+     *
+     * @return the number of hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of cacheable requests that had to be downloaded in full.
+     *
+     * @return the number of misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of bytes that did not have to be downloaded because
+     * they were served from the cache.
+     *
+     * @return the number of bytes
+     */
+    public long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+    /**
+     * Log the cache statistics.
+     */
+    public void logStatistics() {
+        log.info(String.format("HTTP cache: %d hits, %d misses, %d bytes saved",
+                getHitCount(), getMissCount(), getBytesSaved()));
+    }
+
+    /**
+     * A cached response.
+     */
+    static class Entry {
+        @Getter private final File file;
+        @Getter private final String etag;
+        @Getter private final String lastModified;
+
+        private Entry(File file, String etag, String lastModified) {
+            this.file = file;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Writes a response into the cache. The entry only replaces the
+     * previous one once {@link #commit()} is called.
+     */
+    class Writer extends FilterOutputStream {
+        private final URL url;
+        private final String etag;
+        private final String lastModified;
+        private final File tempFile;
+        private boolean done;
+
+        private Writer(URL url, String etag, String lastModified) throws IOException {
+            super(null);
+            this.url = url;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            // Two requests for the same URL may be stored at the same time
+            this.tempFile = File.createTempFile(getKey(url) + "-", ".tmp", dir);
+            this.out = new BufferedOutputStream(new FileOutputStream(tempFile));
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        /**
+         * Replace the cached entry with the written response.
+         *
+         * @throws IOException thrown on I/O error
+         */
+        void commit() throws IOException {
+            if (done) {
+                return;
+            }
+            done = true;
+            out.close();
+
+            Properties meta = new Properties();
+            meta.setProperty("url", url.toString());
+            if (etag != null) {
+                meta.setProperty("etag", etag);
+            }
+            if (lastModified != null) {
+                meta.setProperty("lastModified", lastModified);
+            }
+
+            // The body and its headers are replaced together
+            synchronized (HttpCache.this) {
+                File bodyFile = getBodyFile(url);
+                File metaFile = getMetaFile(url);
+                metaFile.delete();
+                bodyFile.delete();
+                if (!tempFile.renameTo(bodyFile)) {
+                    tempFile.delete();
+                    throw new IOException("Failed to store the cached response for " + url);
+                }
+
+                OutputStream metaOut = new FileOutputStream(metaFile);
+                try {
+                    meta.store(metaOut, null);
+                } finally {
+                    metaOut.close();
+                }
+            }
+        }
+
+        /**
+         * Discard the written response.
+         */
+        void abort() {
+            if (!done) {
+                done = true;
+                closeQuietly(out);
+                tempFile.delete();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.util;
+
+import lombok.extern.java.Log;
+
+import java.security.Security;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Configures and keeps statistics on the persistent connections that
+ * {@link HttpRequest} uses.
+ * </p>
+ * Java's HTTP client already keeps a per-host cache of idle keep-alive
+ * connections, but a connection only goes back into that cache once its
+ * response has been fully read and the stream closed without calling
+ * <code>disconnect()</code>. {@link HttpRequest} takes care of that, and
+ * this class sizes the cache and counts how many connections were returned
+ * to it.
+ */
+@Log
+public final class HttpConnections {
+
+    /**
+     * The maximum number of idle connections kept per host.
+     */
+    public static final int MAX_IDLE_PER_HOST = 16;
+
+    /**
+     * The number of seconds that successful DNS lookups are cached for.
+     */
+    public static final int DNS_CACHE_TTL = 300;
+
+    private static final AtomicLong requests = new AtomicLong();
+    private static final AtomicLong released = new AtomicLong();
+    private static final AtomicLong disconnected = new AtomicLong();
+    private static boolean initialized = false;
+
+    private HttpConnections() {
+    }
+
+    /**
+     * Configure connection reuse and DNS caching. This should be called before
+     * the first connection is made because Java reads these settings once.
+     * Values that the user has explicitly set are left alone.
+     */
+    public static synchronized void init() {
+        if (initialized) {
+            return;
+        }
+
+        initialized = true;
+
+        if (System.getProperty("http.keepAlive") == null) {
+            System.setProperty("http.keepAlive", "true");
+        }
+
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(MAX_IDLE_PER_HOST));
+        }
+
+        if (Security.getProperty("networkaddress.cache.ttl") == null) {
+            Security.setProperty("networkaddress.cache.ttl", String.valueOf(DNS_CACHE_TTL));
+        }
+    }
+
+    static void requestStarted() {
+        requests.incrementAndGet();
+    }
+
+    static void connectionReleased() {
+        released.incrementAndGet();
+    }
+
+    static void connectionDisconnected() {
+        disconnected.incrementAndGet();
+    }
+
+    /**
+     * Get the number of requests made.
+     *
+     * @return the number of requests
+     */
+    public static long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * Get the number of connections that were returned to the keep-alive
+     * cache for reuse after their response was read.
+     *
+     * @return the number of released connections
+     */
+    public static long getReleasedCount() {
+        return released.get();
+    }
+
+    /**
+     * Get the number of connections that had to be closed, such as when
+     * a response was abandoned part way.
+     *
+     * @return the number of closed connections
+     */
+    public static long getDisconnectedCount() {
+        return disconnected.get();
+    }
+
+    /**
+     * Get the fraction of finished requests whose connection was handed
+     * back to the keep-alive cache. This is not how often connections were
+     * actually reused, as Java may still close an idle connection in the
+     * cache before another request takes it.
+     *
+     * @return the ratio, or -1 if no requests have finished
+     */
+    public static double getKeepAliveRatio() {
+        long released = HttpConnections.released.get();
+        long total = released + disconnected.get();
+        return total > 0 ? released / (double) total : -1;
+    }
+
+    /**
+     * Log the connection statistics.
+     */
+    public static void logStatistics() {
+        log.info(String.format("HTTP connections: %d requests, %d kept alive, %d closed (keep-alive ratio %.2f)",
+                getRequestCount(), getReleasedCount(), getDisconnectedCount(), getKeepAliveRatio()));
+    }
+
+}
@@ -9,14 +9,22 @@ package com.skcraft.launcher.util;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.skcraft.concurrency.ProgressObservable;
 import lombok.Getter;
+import lombok.NonNull;
 import lombok.extern.java.Log;
+import org.apache.commons.io.output.TeeOutputStream;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.logging.Level;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import static com.skcraft.launcher.LauncherUtils.checkInterrupted;
 import static org.apache.commons.io.IOUtils.closeQuietly;
@@ -30,6 +38,13 @@ public class HttpRequest implements Closeable, ProgressObservable {
 
     private static final int READ_TIMEOUT = 1000 * 60 * 10;
     private static final int READ_BUFFER_SIZE = 1024 * 8;
+    private static final int TRANSFER_BUFFER_SIZE = 1024 * 64;
+    private static final long TRANSFER_CHUNK_SIZE = 1024 * 1024;
+    private static final int DRAIN_LIMIT = 1024 * 64;
+
+    static {
+        HttpConnections.init();
+    }
 
     private final ObjectMapper mapper = new ObjectMapper();
     private final Map<String, String> headers = new HashMap<String, String>();
@@ -40,9 +55,17 @@ public class HttpRequest implements Closeable, ProgressObservable {
     private byte[] body;
     private HttpURLConnection conn;
     private InputStream inputStream;
-
-    private long contentLength = -1;
-    private long readBytes = 0;
+    private boolean closed;
+    private BandwidthLimiter.Budget budget = BandwidthLimiter.Budget.FOREGROUND;
+    private HttpCache cache;
+    private HttpCache.Entry cacheEntry;
+    private HttpCache.Writer cacheWriter;
+    private boolean fromCache;
+    private boolean compressed = true;
+
+    private volatile long contentLength = -1;
+    private volatile long readBytes = 0;
+    private IOException deferredError;
 
     /**
      * Create a new HTTP request.
@@ -92,6 +115,43 @@ public class HttpRequest implements Closeable, ProgressObservable {
         return this;
     }
 
+    /**
+     * Set the bandwidth budget that the response is counted against.
+     *
+     * @param budget the budget
+     * @return this object
+     */
+    public HttpRequest budget(@NonNull BandwidthLimiter.Budget budget) {
+        this.budget = budget;
+        return this;
+    }
+
+    /**
+     * Set whether the server may send the response compressed. This is on by
+     * default, but is never used for range requests because ranges would
+     * then refer to the compressed data.
+     *
+     * @param compressed true to accept a compressed response
+     * @return this object
+     */
+    public HttpRequest compressed(boolean compressed) {
+        this.compressed = compressed;
+        return this;
+    }
+
+    /**
+     * Use the given cache for this request. If the cache has a copy of the
+     * response, the server is asked to only send the response if it has
+     * changed, and the cached copy is used otherwise.
+     *
+     * @param cache the cache
+     * @return this object
+     */
+    public HttpRequest cache(@NonNull HttpCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
     /**
      * Execute the request.
      * <p/>
@@ -109,6 +169,7 @@ public class HttpRequest implements Closeable, ProgressObservable {
             }
 
             conn = (HttpURLConnection) reformat(url).openConnection();
+            HttpConnections.requestStarted();
             conn.setRequestProperty("User-Agent", "Mozilla/5.0 (Java) SKMCLauncher");
 
             if (body != null) {
@@ -121,6 +182,22 @@ public class HttpRequest implements Closeable, ProgressObservable {
                 conn.setRequestProperty(entry.getKey(), entry.getValue());
             }
 
+            if (compressed && !headers.containsKey("Range") && !headers.containsKey("Accept-Encoding")) {
+                conn.setRequestProperty("Accept-Encoding", "gzip, deflate");
+            }
+
+            if (isCacheable()) {
+                cacheEntry = cache.get(url);
+                if (cacheEntry != null) {
+                    if (cacheEntry.getEtag() != null) {
+                        conn.setRequestProperty("If-None-Match", cacheEntry.getEtag());
+                    }
+                    if (cacheEntry.getLastModified() != null) {
+                        conn.setRequestProperty("If-Modified-Since", cacheEntry.getLastModified());
+                    }
+                }
+            }
+
             conn.setRequestMethod(method);
             conn.setUseCaches(false);
             conn.setDoOutput(true);
@@ -135,8 +212,18 @@ public class HttpRequest implements Closeable, ProgressObservable {
                 out.close();
             }
 
-            inputStream = conn.getResponseCode() == HttpURLConnection.HTTP_OK ?
-                    conn.getInputStream() : conn.getErrorStream();
+            int responseCode = conn.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cacheEntry != null) {
+                fromCache = true;
+                inputStream = new FileInputStream(cacheEntry.getFile());
+                cache.recordHit(cacheEntry.getFile().length());
+            } else {
+                inputStream = responseCode == HttpURLConnection.HTTP_OK || responseCode == HttpURLConnection.HTTP_PARTIAL ?
+                        conn.getInputStream() : conn.getErrorStream();
+                if (responseCode == HttpURLConnection.HTTP_OK && isCacheable()) {
+                    cache.recordMiss();
+                }
+            }
 
             successful = true;
         } finally {
@@ -153,7 +240,8 @@ public class HttpRequest implements Closeable, ProgressObservable {
      *
      * @param codes a list of codes
      * @return this object
-     * @throws java.io.IOException if there is an I/O error or the response code is not expected
+     * @throws java.io.IOException if there is an I/O error
+     * @throws HttpStatusException if the response code is not expected
      */
     public HttpRequest expectResponseCode(int... codes) throws IOException {
         int responseCode = getResponseCode();
@@ -165,7 +253,8 @@ public class HttpRequest implements Closeable, ProgressObservable {
         }
 
         close();
-        throw new IOException("Did not get expected response code, got " + responseCode + " for " + url);
+        throw new HttpStatusException("Did not get expected response code, got " + responseCode + " for " + url,
+                url, responseCode);
     }
 
     /**
@@ -179,7 +268,57 @@ public class HttpRequest implements Closeable, ProgressObservable {
             throw new IllegalArgumentException("No connection has been made");
         }
 
-        return conn.getResponseCode();
+        // A cached response stands in for the full response
+        return fromCache ? HttpURLConnection.HTTP_OK : conn.getResponseCode();
+    }
+
+    /**
+     * Get whether the response is being served from the cache.
+     *
+     * @return true if from the cache
+     */
+    public boolean isFromCache() {
+        return fromCache;
+    }
+
+    private boolean isCacheable() {
+        return cache != null && method.equals("GET") && !headers.containsKey("Range");
+    }
+
+    /**
+     * Get the value of a response header.
+     *
+     * @param name the header name
+     * @return the value, or null if not set
+     */
+    public String getHeaderField(String name) {
+        if (conn == null) {
+            throw new IllegalArgumentException("No connection has been made");
+        }
+
+        return conn.getHeaderField(name);
+    }
+
+    /**
+     * Get the offset of the first byte of a partial response, as given by
+     * the Content-Range header.
+     *
+     * @return the offset, or -1 if the response does not have a valid range
+     */
+    public long getContentRangeStart() {
+        long[] range = parseContentRange(getHeaderField("Content-Range"));
+        return range != null ? range[0] : -1;
+    }
+
+    /**
+     * Get the total size of the resource of a partial response, as given by
+     * the Content-Range header.
+     *
+     * @return the total size, or -1 if unknown
+     */
+    public long getContentRangeTotal() {
+        long[] range = parseContentRange(getHeaderField("Content-Range"));
+        return range != null ? range[2] : -1;
     }
 
     /**
@@ -203,19 +342,102 @@ public class HttpRequest implements Closeable, ProgressObservable {
             throw new IllegalArgumentException("No input stream available");
         }
 
+        ContentStream in = openContent(null);
+        long length = in.getExpectedLength();
+        // The length of a compressed body says little about its decoded size
+        ExposedByteArrayOutputStream bos = new ExposedByteArrayOutputStream(
+                !in.isEncoded() && length >= 0 && length <= Integer.MAX_VALUE ? (int) length : READ_BUFFER_SIZE);
+        copyContent(in, bos);
+        return new BufferedResponse(bos.getData());
+    }
+
+    /**
+     * Read the response as JSON, deserializing it as it arrives rather than
+     * buffering it first.
+     *
+     * @param cls the class to deserialize to
+     * @return the object
+     * @throws java.io.IOException  on I/O error
+     * @throws InterruptedException on interruption
+     */
+    public <T> T asJson(Class<T> cls) throws IOException, InterruptedException {
+        if (inputStream == null) {
+            throw new IllegalArgumentException("No input stream available");
+        }
+
         try {
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            int b = 0;
-            while ((b = inputStream.read()) != -1) {
-                checkInterrupted();
-                bos.write(b);
+            ContentStream in = openContent(null);
+            T object = mapper.readValue(in, cls);
+            drain(in);
+            return object;
+        } catch (InterruptedIOException e) {
+            throw new InterruptedException();
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Read the response as JSON, deserializing it as it arrives while also
+     * saving it to the given file. The file is only replaced once the
+     * response has been read and parsed successfully.
+     *
+     * @param cls the class to deserialize to
+     * @param file the file to save the response to
+     * @return the object
+     * @throws java.io.IOException  on I/O error
+     * @throws InterruptedException on interruption
+     */
+    public <T> T asJson(Class<T> cls, File file) throws IOException, InterruptedException {
+        if (inputStream == null) {
+            throw new IllegalArgumentException("No input stream available");
+        }
+
+        file.getParentFile().mkdirs();
+        File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        OutputStream out = null;
+        boolean successful = false;
+
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(tempFile));
+            ContentStream in = openContent(out);
+            T object = mapper.readValue(in, cls);
+            drain(in);
+            out.close();
+            out = null;
+
+            file.delete();
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Failed to rename " + tempFile + " to " + file);
             }
-            return new BufferedResponse(bos.toByteArray());
+
+            successful = true;
+            return object;
+        } catch (InterruptedIOException e) {
+            throw new InterruptedException();
         } finally {
+            closeQuietly(out);
+            if (!successful) {
+                tempFile.delete();
+            }
             close();
         }
     }
 
+    /**
+     * Read what is left of the body after the parser has stopped, which is
+     * at least the trailing whitespace, so that the length of the body is
+     * checked and the response can be cached.
+     *
+     * @param in the stream
+     * @throws IOException on I/O error
+     */
+    private static void drain(ContentStream in) throws IOException {
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        while (in.read(buffer) != -1) {
+        }
+    }
+
     /**
      * Save the result to a file.
      *
@@ -225,22 +447,87 @@ public class HttpRequest implements Closeable, ProgressObservable {
      * @throws InterruptedException on interruption
      */
     public HttpRequest saveContent(File file) throws IOException, InterruptedException {
+        return saveContent(file, false);
+    }
+
+    /**
+     * Save the result to a file, optionally appending to the existing
+     * contents of the file (such as when resuming with a partial response).
+     *
+     * @param file the file
+     * @param append true to append to the file
+     * @return this object
+     * @throws java.io.IOException  on I/O error
+     * @throws InterruptedException on interruption
+     */
+    public HttpRequest saveContent(File file, boolean append) throws IOException, InterruptedException {
         FileOutputStream fos = null;
-        BufferedOutputStream bos = null;
 
         try {
-            fos = new FileOutputStream(file);
-            bos = new BufferedOutputStream(fos);
-
-            saveContent(bos);
+            fos = new FileOutputStream(file, append);
+            saveContent(fos.getChannel(), null);
         } finally {
-            closeQuietly(bos);
             closeQuietly(fos);
         }
 
         return this;
     }
 
+    /**
+     * Save the result to a file channel, starting at the channel's current
+     * position.
+     * </p>
+     * The body is read in large blocks that are written to the channel
+     * without any further buffering, and a body that is served from the
+     * HTTP cache is transferred from file to file by the operating system.
+     *
+     * @param channel the channel
+     * @param copy a stream to also write the body to, such as to hash it, or null
+     * @return this object
+     * @throws java.io.IOException  on I/O error
+     * @throws InterruptedException on interruption
+     */
+    public HttpRequest saveContent(FileChannel channel, OutputStream copy) throws IOException, InterruptedException {
+        try {
+            if (fromCache && copy == null) {
+                transferCached(channel);
+            } else {
+                ContentStream in = openContent(copy);
+                byte[] data = new byte[TRANSFER_BUFFER_SIZE];
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                int len;
+                while ((len = fill(in, data)) > 0) {
+                    buffer.clear();
+                    buffer.limit(len);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    checkInterrupted();
+                }
+            }
+        } finally {
+            close();
+        }
+
+        return this;
+    }
+
+    private void transferCached(FileChannel channel) throws IOException, InterruptedException {
+        FileChannel source = ((FileInputStream) inputStream).getChannel();
+        long size = source.size();
+        contentLength = size;
+        long position = 0;
+        while (position < size) {
+            long transferred = source.transferTo(position, Math.min(TRANSFER_CHUNK_SIZE, size - position), channel);
+            if (transferred <= 0) {
+                throw new IOException("Failed to copy the cached response for " + url);
+            }
+            position += transferred;
+            readBytes = position;
+            checkInterrupted();
+        }
+    }
+
     /**
      * Save the result to an output stream.
      *
@@ -250,7 +537,84 @@ public class HttpRequest implements Closeable, ProgressObservable {
      * @throws InterruptedException on interruption
      */
     public HttpRequest saveContent(OutputStream out) throws IOException, InterruptedException {
-        BufferedInputStream bis;
+        copyContent(openContent(null), out);
+        return this;
+    }
+
+    /**
+     * Copy the response body to the given stream and close the request.
+     *
+     * @param in the response body
+     * @param out the output stream
+     * @throws java.io.IOException  on I/O error
+     * @throws InterruptedException on interruption
+     */
+    private void copyContent(ContentStream in, OutputStream out) throws IOException, InterruptedException {
+        try {
+            byte[] data = new byte[TRANSFER_BUFFER_SIZE];
+            int len;
+            while ((len = fill(in, data)) > 0) {
+                out.write(data, 0, len);
+                checkInterrupted();
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Read from the stream until the buffer is full or the stream has
+     * ended, so that the data is written in large blocks even though reads
+     * from a socket return whatever has arrived so far.
+     *
+     * @param in the stream
+     * @param buffer the buffer
+     * @return the number of bytes read, which is 0 only at the end of the stream
+     * @throws IOException on I/O error, which is thrown on the next call if some bytes were read
+     */
+    private int fill(InputStream in, byte[] buffer) throws IOException {
+        if (deferredError != null) {
+            IOException e = deferredError;
+            deferredError = null;
+            throw e;
+        }
+
+        int filled = 0;
+        try {
+            int len;
+            while (filled < buffer.length && (len = in.read(buffer, filled, buffer.length - filled)) >= 0) {
+                filled += len;
+            }
+        } catch (IOException e) {
+            if (filled == 0) {
+                throw e;
+            }
+            // Hand over what was received first, so that a partial file can be resumed from it
+            deferredError = e;
+        }
+        return filled;
+    }
+
+    /**
+     * Start reading the response body.
+     *
+     * @param copy a stream to also write the body to, or null
+     * @return a stream of the body
+     */
+    private ContentStream openContent(OutputStream copy) throws IOException {
+        if (fromCache) {
+            contentLength = cacheEntry.getFile().length();
+            return new ContentStream(contentLength, null, copy);
+        }
+
+        if (isCacheable() && conn.getResponseCode() == HttpURLConnection.HTTP_OK) {
+            String etag = conn.getHeaderField("ETag");
+            String lastModified = conn.getHeaderField("Last-Modified");
+            if (etag != null || lastModified != null) {
+                cacheWriter = cache.store(url, etag, lastModified);
+                copy = copy != null ? new TeeOutputStream(copy, cacheWriter) : cacheWriter;
+            }
+        }
 
         try {
             String field = conn.getHeaderField("Content-Length");
@@ -263,21 +627,18 @@ public class HttpRequest implements Closeable, ProgressObservable {
         } catch (NumberFormatException e) {
         }
 
-        try {
-            bis = new BufferedInputStream(inputStream);
+        long expectedLength = contentLength;
 
-            byte[] data = new byte[READ_BUFFER_SIZE];
-            int len = 0;
-            while ((len = bis.read(data, 0, READ_BUFFER_SIZE)) >= 0) {
-                out.write(data, 0, len);
-                readBytes += len;
-                checkInterrupted();
+        // For partial responses, count progress against the whole resource
+        if (conn.getResponseCode() == HttpURLConnection.HTTP_PARTIAL) {
+            long[] range = parseContentRange(conn.getHeaderField("Content-Range"));
+            if (range != null) {
+                readBytes = range[0];
+                contentLength = range[2] >= 0 ? range[2] : range[1] + 1;
             }
-        } finally {
-            close();
         }
 
-        return this;
+        return new ContentStream(expectedLength, conn.getContentEncoding(), copy);
     }
 
     @Override
@@ -294,9 +655,67 @@ public class HttpRequest implements Closeable, ProgressObservable {
         return null;
     }
 
+    /**
+     * Finish with the connection.
+     * <p/>
+     * If the rest of the response is small enough to be read quickly, it is
+     * drained so that the underlying connection can be kept alive and reused
+     * by a later request to the same host. Otherwise the connection is closed.
+     *
+     * @throws IOException on I/O error
+     */
     @Override
     public void close() throws IOException {
-        if (conn != null) conn.disconnect();
+        if (conn == null || closed) {
+            return;
+        }
+
+        closed = true;
+
+        if (cacheWriter != null) {
+            cacheWriter.abort();
+        }
+
+        if (fromCache) {
+            // Release the connection that the 304 response came on
+            closeQuietly(inputStream);
+            try {
+                inputStream = conn.getInputStream();
+            } catch (IOException e) {
+                inputStream = null;
+            }
+        }
+
+        if (inputStream != null && drain(inputStream)) {
+            inputStream.close();
+            HttpConnections.connectionReleased();
+        } else {
+            conn.disconnect();
+            HttpConnections.connectionDisconnected();
+        }
+    }
+
+    /**
+     * Read the remaining data of a stream, up to a limit.
+     *
+     * @param inputStream the stream
+     * @return true if the end of the stream was reached
+     */
+    private static boolean drain(InputStream inputStream) {
+        try {
+            byte[] buffer = new byte[1024 * 4];
+            long drained = 0;
+            int len;
+            while ((len = inputStream.read(buffer)) != -1) {
+                drained += len;
+                if (drained > DRAIN_LIMIT) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
     }
 
     /**
@@ -346,6 +765,34 @@ public class HttpRequest implements Closeable, ProgressObservable {
         }
     }
 
+    /**
+     * Parse a Content-Range header of the form "bytes start-end/total".
+     *
+     * @param value the header value, which may be null
+     * @return an array of start, end and total (-1 if unknown), or null if invalid
+     */
+    private static long[] parseContentRange(String value) {
+        if (value == null || !value.startsWith("bytes ")) {
+            return null;
+        }
+
+        try {
+            String spec = value.substring(6).trim();
+            int dash = spec.indexOf('-');
+            int slash = spec.indexOf('/');
+            if (dash <= 0 || slash < dash) {
+                return null;
+            }
+            long start = Long.parseLong(spec.substring(0, dash).trim());
+            long end = Long.parseLong(spec.substring(dash + 1, slash).trim());
+            String totalSpec = spec.substring(slash + 1).trim();
+            long total = totalSpec.equals("*") ? -1 : Long.parseLong(totalSpec);
+            return new long[] { start, end, total };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     /**
      * URL may contain spaces and other nasties that will cause a failure.
      *
@@ -418,6 +865,129 @@ public class HttpRequest implements Closeable, ProgressObservable {
         }
     }
 
+    /**
+     * Reads the response body in bulk, decoding it if it was sent compressed,
+     * and fails if the connection is closed before the expected length has
+     * been received.
+     */
+    private class ContentStream extends InputStream {
+        @Getter private final long expectedLength;
+        @Getter private final boolean encoded;
+        private final RawStream raw;
+        private final InputStream decoded;
+        private final OutputStream copy;
+
+        private ContentStream(long expectedLength, String encoding, OutputStream copy) throws IOException {
+            this.expectedLength = expectedLength;
+            this.copy = copy;
+            this.raw = new RawStream(inputStream);
+            if ("gzip".equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding)) {
+                decoded = new GZIPInputStream(raw, READ_BUFFER_SIZE);
+                encoded = true;
+            } else if ("deflate".equalsIgnoreCase(encoding)) {
+                decoded = new InflaterInputStream(raw, new Inflater(), READ_BUFFER_SIZE);
+                encoded = true;
+            } else {
+                decoded = raw;
+                encoded = false;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int len = read(b, 0, 1);
+            return len == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException();
+            }
+
+            int read = decoded.read(b, off, len);
+            if (read == -1) {
+                if (encoded) {
+                    // Consume anything after the compressed data so the length check holds
+                    byte[] buffer = new byte[READ_BUFFER_SIZE];
+                    while (raw.read(buffer, 0, buffer.length) != -1) {
+                    }
+                }
+                if (expectedLength >= 0 && raw.received < expectedLength) {
+                    throw new IOException("Connection closed after " + raw.received + " of " + expectedLength + " bytes");
+                }
+                if (cacheWriter != null) {
+                    try {
+                        cacheWriter.commit();
+                    } catch (IOException e) {
+                        log.log(Level.WARNING, "Failed to cache the response for " + url, e);
+                    }
+                }
+                return -1;
+            }
+
+            if (copy != null) {
+                copy.write(b, off, read);
+            }
+            return read;
+        }
+
+        @Override
+        public void close() {
+            // The request is closed by HttpRequest once the body has been handled
+        }
+    }
+
+    /**
+     * Reads the body as it comes over the wire, counting the bytes for
+     * progress and applying the bandwidth limit. Progress is counted before
+     * decoding because the Content-Length is that of the encoded body.
+     */
+    private class RawStream extends FilterInputStream {
+        private long received = 0;
+
+        private RawStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int len = read(b, 0, 1);
+            return len == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0) {
+                BandwidthLimiter.acquire(budget, read);
+                readBytes += read;
+                received += read;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * A {@link ByteArrayOutputStream} that can hand over its buffer without
+     * copying it when the buffer was sized exactly right.
+     */
+    private static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+        private ExposedByteArrayOutputStream(int size) {
+            super(size);
+        }
+
+        private byte[] getData() {
+            return count == buf.length ? buf : toByteArray();
+        }
+    }
+
     /**
      * Used to buffer the response in memory.
      */
@@ -456,7 +1026,7 @@ public class HttpRequest implements Closeable, ProgressObservable {
          * @throws java.io.IOException on I/O error
          */
         public <T> T asJson(Class<T> cls) throws IOException {
-            return mapper.readValue(asString("UTF-8"), cls);
+            return mapper.readValue(data, cls);
         }
 
         /**
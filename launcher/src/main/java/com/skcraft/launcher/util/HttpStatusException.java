@@ -0,0 +1,31 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.util;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Thrown when a server answers with a response code other than the ones
+ * that were expected.
+ */
+public class HttpStatusException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    @Getter private final URL url;
+    @Getter private final int responseCode;
+
+    public HttpStatusException(String message, URL url, int responseCode) {
+        super(message);
+        this.url = url;
+        this.responseCode = responseCode;
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+
+import static org.junit.Assert.*;
+
+public class CompactFormatTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testVarInt() throws IOException {
+        int[] values = { 0, 1, 127, 128, 255, 16383, 16384, 2097151, 2097152, Integer.MAX_VALUE, -1, Integer.MIN_VALUE };
+        int[] lengths = { 1, 1, 1, 2, 2, 2, 3, 3, 4, 5, 5, 5 };
+        for (int i = 0; i < values.length; i++) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            CompactFormat.writeVarInt(new DataOutputStream(bos), values[i]);
+            assertEquals("length of " + values[i], lengths[i], bos.size());
+            assertEquals(values[i], CompactFormat.readVarInt(input(bos.toByteArray())));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testMalformedVarInt() throws IOException {
+        CompactFormat.readVarInt(input(new byte[] { (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 1 }));
+    }
+
+    @Test(expected = EOFException.class)
+    public void testTruncatedVarInt() throws IOException {
+        CompactFormat.readVarInt(input(new byte[] { (byte) 0x80, (byte) 0x80 }));
+    }
+
+    @Test
+    public void testSharedStrings() throws IOException {
+        String[] values = {
+                "", "config/a.cfg", "config/a.cfg", "config/b.cfg", "config/mod/b.cfg", "mods/x.jar",
+                "mods/x.jar.disabled", "mods/x", "m\u00f6ds/\u00fcber", "m\u00f6ds/\u00fcbel",
+                "z/\ud83d\ude00", "z/\ud83d\ude01", ""
+        };
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        String previous = "";
+        for (String value : values) {
+            CompactFormat.writeSharedString(out, previous, value);
+            previous = value;
+        }
+
+        DataInputStream in = input(bos.toByteArray());
+        previous = "";
+        for (String value : values) {
+            previous = CompactFormat.readSharedString(in, previous);
+            assertEquals(value, previous);
+        }
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void testSharedStringsArePrefixCoded() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        CompactFormat.writeSharedString(out, "config/mod/first.cfg", "config/mod/second.cfg");
+        // One byte for the shared length, one for the length of the rest, then "second.cfg"
+        assertEquals(12, bos.size());
+    }
+
+    @Test(expected = IOException.class)
+    public void testSharedStringLongerThanPrevious() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        CompactFormat.writeSharedString(new DataOutputStream(bos), "abcdef", "abcdefgh");
+        CompactFormat.readSharedString(input(bos.toByteArray()), "abc");
+    }
+
+    @Test(expected = IOException.class)
+    public void testNegativeStringLength() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        CompactFormat.writeVarInt(new DataOutputStream(bos), -5);
+        CompactFormat.readString(input(bos.toByteArray()));
+    }
+
+    @Test(expected = IOException.class)
+    public void testHugeStringLength() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        CompactFormat.writeVarInt(new DataOutputStream(bos), Integer.MAX_VALUE);
+        CompactFormat.readString(input(bos.toByteArray()));
+    }
+
+    @Test
+    public void testHex() {
+        String hash = "0123456789abcdef0123456789abcdef01234567";
+        assertEquals(hash, CompactFormat.toHex(CompactFormat.toBytes(hash)));
+        assertEquals(hash, CompactFormat.toHex(CompactFormat.toBytes(hash.toUpperCase())));
+        assertNull(CompactFormat.toBytes("0123"));
+        assertNull(CompactFormat.toBytes("0123456789abcdef0123456789abcdef0123456g"));
+        assertEquals("00ff7f80", CompactFormat.toHex(new byte[] { 0, -1, 127, -128 }));
+    }
+
+    @Test
+    public void testHeader() throws IOException {
+        File file = new File(folder.getRoot(), "dir/file.bin");
+        DataOutputStream out = CompactFormat.openForWriting(file, 0x12345678, 3);
+        out.writeInt(42);
+        out.close();
+
+        DataInputStream in = CompactFormat.openForReading(file, 0x12345678, 3);
+        assertEquals(42, in.readInt());
+        in.close();
+
+        try {
+            CompactFormat.openForReading(file, 0x12345679, 3);
+            fail("the wrong magic number was accepted");
+        } catch (IOException expected) {
+        }
+
+        try {
+            CompactFormat.openForReading(file, 0x12345678, 4);
+            fail("the wrong version was accepted");
+        } catch (IOException expected) {
+        }
+    }
+
+    private static DataInputStream input(byte[] data) {
+        return new DataInputStream(new ByteArrayInputStream(data));
+    }
+
+}
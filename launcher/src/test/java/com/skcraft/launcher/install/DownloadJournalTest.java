@@ -0,0 +1,239 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DownloadJournalTest {
+
+    private static final String HASH = "0123456789abcdef0123456789abcdef01234567";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File journalFile;
+    private File manifestFile;
+    private URL manifestUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        journalFile = new File(folder.getRoot(), "journal.txt");
+        manifestFile = folder.newFile("manifest.json");
+        Files.write("{}", manifestFile, Charsets.UTF_8);
+        manifestUrl = new URL("http://example.com/manifest.json");
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        File done = download("done.jar", "done");
+        File pending = new File(folder.getRoot(), "pending.jar");
+
+        DownloadJournal journal = new DownloadJournal(journalFile);
+        journal.setManifest(manifestUrl, manifestFile);
+        journal.setFeature("Optional\tmod", true);
+        journal.setFeature("Other", false);
+        journal.planned(done, 4, HASH);
+        journal.planned(pending, 10, null);
+        journal.completed(done, HASH);
+        journal.close();
+
+        journal = new DownloadJournal(journalFile);
+        assertTrue(journal.hasManifest(manifestUrl, manifestFile));
+        assertFalse(journal.hasManifest(new URL("http://example.com/other.json"), manifestFile));
+        assertEquals(Boolean.TRUE, journal.getFeature("Optional mod"));
+        assertEquals(Boolean.FALSE, journal.getFeature("Other"));
+        assertNull(journal.getFeature("Missing"));
+        assertTrue(journal.isComplete(done, HASH));
+        assertTrue(journal.isComplete(done, HASH.toUpperCase()));
+        assertTrue(journal.isComplete(done, null));
+        assertFalse(journal.isComplete(pending, null));
+        journal.close();
+    }
+
+    @Test
+    public void testChangedFile() throws IOException {
+        File done = download("done.jar", "done");
+
+        DownloadJournal journal = new DownloadJournal(journalFile);
+        journal.completed(done, HASH);
+        assertFalse(journal.isComplete(done, "ffffffffffffffffffffffffffffffffffffffff"));
+
+        Files.write("gone", done, Charsets.UTF_8);
+        done.setLastModified(done.lastModified() - 10000);
+        assertFalse(journal.isComplete(done, HASH));
+        journal.close();
+    }
+
+    @Test
+    public void testUnverifiedFile() throws IOException {
+        File done = download("done.jar", "done");
+
+        DownloadJournal journal = new DownloadJournal(journalFile);
+        journal.completed(done, null);
+        assertTrue(journal.isComplete(done, null));
+        assertFalse(journal.isComplete(done, HASH));
+        journal.close();
+    }
+
+    @Test
+    public void testTornRecord() throws IOException {
+        File first = download("first.jar", "first");
+        File second = download("second.jar", "second");
+
+        DownloadJournal journal = new DownloadJournal(journalFile);
+        journal.completed(first, HASH);
+        journal.completed(second, HASH);
+        journal.close();
+
+        // Cut the last record short, as a crash in the middle of a write would
+        RandomAccessFile raf = new RandomAccessFile(journalFile, "rw");
+        raf.setLength(raf.length() - 10);
+        raf.close();
+
+        journal = new DownloadJournal(journalFile);
+        assertTrue(journal.isComplete(first, HASH));
+        assertFalse(journal.isComplete(second, HASH));
+        journal.close();
+
+        // The torn record should have been dropped when the journal was compacted
+        List<String> lines = Files.readLines(journalFile, Charsets.UTF_8);
+        assertEquals(2, lines.size());
+    }
+
+    @Test
+    public void testCorruptRecord() throws IOException {
+        File first = download("first.jar", "first");
+        File second = download("second.jar", "second");
+        File third = download("third.jar", "third");
+
+        DownloadJournal journal = new DownloadJournal(journalFile);
+        journal.completed(first, HASH);
+        journal.completed(second, HASH);
+        journal.completed(third, HASH);
+        journal.close();
+
+        // Damage the second record, which should discard everything after it too
+        List<String> lines = Files.readLines(journalFile, Charsets.UTF_8);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (i == 2) {
+                line = line.replace("second", "secnod");
+            }
+            builder.append(line).append('\n');
+        }
+        Files.write(builder.toString(), journalFile, Charsets.UTF_8);
+
+        journal = new DownloadJournal(journalFile);
+        assertTrue(journal.isComplete(first, HASH));
+        assertFalse(journal.isComplete(second, HASH));
+        assertFalse(journal.isComplete(third, HASH));
+        journal.close();
+    }
+
+    @Test
+    public void testUnknownHeader() throws IOException {
+        Files.write("SKCRAFT-JOURNAL 99\n", journalFile, Charsets.UTF_8);
+
+        DownloadJournal journal = new DownloadJournal(journalFile);
+        assertFalse(journal.hasManifest(manifestUrl, manifestFile));
+        journal.close();
+
+        assertEquals("SKCRAFT-JOURNAL 1", Files.readFirstLine(journalFile, Charsets.UTF_8));
+    }
+
+    @Test
+    public void testChangedManifest() throws IOException {
+        DownloadJournal journal = new DownloadJournal(journalFile);
+        journal.setManifest(manifestUrl, manifestFile);
+        journal.close();
+
+        Files.write("{\"name\":\"changed\"}", manifestFile, Charsets.UTF_8);
+        journal = new DownloadJournal(journalFile);
+        assertFalse(journal.hasManifest(manifestUrl, manifestFile));
+        journal.close();
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        File kept = download("kept.jar", "kept");
+        File removed = download("removed.jar", "removed");
+
+        DownloadJournal journal = new DownloadJournal(journalFile);
+        journal.setFeature("Feature", true);
+        journal.setFeature("Feature", false);
+        journal.planned(kept, 4, HASH);
+        journal.completed(kept, HASH);
+        journal.completed(removed, HASH);
+        journal.close();
+
+        assertTrue(removed.delete());
+        journal = new DownloadJournal(journalFile);
+        journal.close();
+
+        // Header, the last feature record and the record for the file that still exists
+        List<String> lines = Files.readLines(journalFile, Charsets.UTF_8);
+        assertEquals(3, lines.size());
+
+        journal = new DownloadJournal(journalFile);
+        assertEquals(Boolean.FALSE, journal.getFeature("Feature"));
+        assertTrue(journal.isComplete(kept, HASH));
+        journal.close();
+    }
+
+    @Test
+    public void testForgetPlan() throws IOException {
+        File done = download("done.jar", "done");
+
+        DownloadJournal journal = new DownloadJournal(journalFile);
+        journal.setManifest(manifestUrl, manifestFile);
+        journal.setFeature("Feature", true);
+        journal.completed(done, HASH);
+        journal.forgetPlan();
+        journal.close();
+
+        journal = new DownloadJournal(journalFile);
+        assertFalse(journal.hasManifest(manifestUrl, manifestFile));
+        assertNull(journal.getFeature("Feature"));
+        assertTrue(journal.isComplete(done, HASH));
+        journal.close();
+    }
+
+    @Test
+    public void testDelete() throws IOException {
+        File done = download("done.jar", "done");
+
+        DownloadJournal journal = new DownloadJournal(journalFile);
+        journal.setManifest(manifestUrl, manifestFile);
+        journal.completed(done, HASH);
+        journal.delete();
+
+        assertFalse(journalFile.exists());
+        assertFalse(journal.hasManifest(manifestUrl, manifestFile));
+        assertFalse(journal.isComplete(done, HASH));
+    }
+
+    private File download(String name, String content) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        Files.write(content, file, Charsets.UTF_8);
+        return file;
+    }
+
+}
@@ -0,0 +1,175 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class HttpDownloaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private RangeServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new RangeServer();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void testResumeSegments() throws Exception {
+        byte[] data = new byte[4000];
+        new Random(1).nextBytes(data);
+        server.data = data;
+        server.failAt = 2000;
+
+        HttpDownloader downloader = createDownloader();
+        File file = downloader.download(server.url(), "segmented", data.length, sha1(data), null);
+        downloader.execute();
+
+        assertArrayEquals(data, Files.toByteArray(file));
+        // Only the rest of the broken range and the range after it are fetched again
+        assertEquals(Arrays.asList("0-999", "1000-1999", "2000-2999", "2500-2999", "3000-3999"), server.ranges);
+        assertFalse(new File(file.getPath() + ".ranges").exists());
+    }
+
+    @Test
+    public void testResumeChangedFile() throws Exception {
+        byte[] data = new byte[4000];
+        new Random(2).nextBytes(data);
+        byte[] changed = new byte[4000];
+        new Random(3).nextBytes(changed);
+        server.data = data;
+        server.failAt = 2000;
+        server.replacement = changed;
+
+        HttpDownloader downloader = createDownloader();
+        File file = downloader.download(server.url(), "changed", data.length, sha1(changed), null);
+        downloader.execute();
+
+        // The first range of the retry no longer matches, so the whole file is fetched
+        assertArrayEquals(changed, Files.toByteArray(file));
+        assertEquals(Arrays.asList("0-999", "1000-1999", "2000-2999", "2500-2999"), server.ranges);
+    }
+
+    private HttpDownloader createDownloader() throws IOException {
+        HttpDownloader downloader = new HttpDownloader(folder.newFolder());
+        downloader.setSegmentThreshold(1000);
+        downloader.setMinSegmentSize(1000);
+        downloader.setHedgingEnabled(false);
+        // Segments are fetched one after another, so the order of requests is known
+        downloader.setConcurrency(1, 1);
+        BackoffRetryPolicy retryPolicy = new BackoffRetryPolicy();
+        retryPolicy.setMaxAttempts(2);
+        retryPolicy.setBaseDelay(10);
+        downloader.setRetryPolicy(retryPolicy);
+        return downloader;
+    }
+
+    private static String sha1(byte[] data) {
+        return Hashing.sha1().hashBytes(data).toString();
+    }
+
+    /**
+     * Serves one file with support for ranges, breaking off the first
+     * response for the range that starts at a given offset half way, after
+     * which the file can be replaced by another version.
+     */
+    private static class RangeServer implements HttpHandler {
+        private final HttpServer server;
+        private final ExecutorService executor = Executors.newCachedThreadPool();
+        private final List<String> ranges = Collections.synchronizedList(new ArrayList<String>());
+        private volatile byte[] data;
+        private volatile byte[] replacement;
+        private volatile long failAt = -1;
+
+        private RangeServer() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 100);
+            server.createContext("/", this);
+            server.setExecutor(executor);
+            server.start();
+        }
+
+        private URL url() throws IOException {
+            return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/file");
+        }
+
+        private void stop() {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                byte[] data = this.data;
+                String etag = "\"" + sha1(data) + "\"";
+                exchange.getResponseHeaders().set("ETag", etag);
+
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+                if (range != null) {
+                    ranges.add(range.substring("bytes=".length()));
+                }
+                if (range == null || (ifRange != null && !ifRange.equals(etag))) {
+                    exchange.sendResponseHeaders(200, data.length);
+                    exchange.getResponseBody().write(data);
+                    return;
+                }
+
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                int start = Integer.parseInt(bounds[0]);
+                int end = Integer.parseInt(bounds[1]);
+                int length = end - start + 1;
+
+                exchange.getResponseHeaders().set("Content-Range",
+                        "bytes " + start + "-" + end + "/" + data.length);
+                exchange.sendResponseHeaders(206, length);
+                OutputStream out = exchange.getResponseBody();
+                if (start == failAt) {
+                    failAt = -1;
+                    out.write(data, start, length / 2);
+                    out.flush();
+                    if (replacement != null) {
+                        this.data = replacement;
+                    }
+                    // Closing the exchange before the body is complete drops the connection
+                    return;
+                }
+                out.write(data, start, length);
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,232 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import com.google.common.base.Charsets;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class HttpResponseParserTest {
+
+    @Test
+    public void testContentLength() throws IOException {
+        String response = "HTTP/1.1 200 OK\r\nContent-Length: 11\r\nX-Test: a: b\r\n\r\nhello world";
+        for (int piece = 1; piece <= response.length(); piece++) {
+            Result result = parse(response, piece, false);
+            assertEquals(200, result.parser.getResponseCode());
+            assertEquals(11, result.parser.getContentLength());
+            assertEquals("a: b", result.parser.getHeader("x-test"));
+            assertEquals("hello world", result.body);
+            assertTrue(result.parser.isKeepAlive());
+        }
+    }
+
+    @Test
+    public void testChunked() throws IOException {
+        String response = "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n" +
+                "5;name=value\r\nhello\r\n" +
+                "1\r\n \r\n" +
+                "A\r\n0123456789\r\n" +
+                "0\r\nX-Trailer: yes\r\n\r\n";
+        for (int piece = 1; piece <= response.length(); piece++) {
+            Result result = parse(response, piece, false);
+            assertEquals("hello 0123456789", result.body);
+            assertEquals(-1, result.parser.getContentLength());
+            assertTrue(result.parser.isKeepAlive());
+        }
+    }
+
+    @Test
+    public void testChunkedIgnoresContentLength() throws IOException {
+        String response = "HTTP/1.1 200 OK\r\nContent-Length: 100\r\nTransfer-Encoding: chunked\r\n\r\n" +
+                "3\r\nabc\r\n0\r\n\r\n";
+        assertEquals("abc", parse(response, response.length(), false).body);
+    }
+
+    @Test
+    public void testBareLineFeeds() throws IOException {
+        String response = "HTTP/1.1 200 OK\nTransfer-Encoding: chunked\n\n3\nabc\n0\n\n";
+        assertEquals("abc", parse(response, 1, false).body);
+    }
+
+    @Test
+    public void testUntilClose() throws IOException {
+        String response = "HTTP/1.1 200 OK\r\n\r\nthe rest of the stream";
+        for (int piece = 1; piece <= response.length(); piece++) {
+            Result result = parse(response, piece, true);
+            assertEquals("the rest of the stream", result.body);
+            assertFalse(result.parser.isKeepAlive());
+        }
+    }
+
+    @Test
+    public void testInterimResponse() throws IOException {
+        String response = "HTTP/1.1 100 Continue\r\nX-Interim: 1\r\n\r\n" +
+                "HTTP/1.1 404 Not Found\r\nContent-Length: 4\r\n\r\nnope";
+        Result result = parse(response, 3, false);
+        assertEquals(404, result.parser.getResponseCode());
+        assertNull(result.parser.getHeader("X-Interim"));
+        assertEquals("nope", result.body);
+    }
+
+    @Test
+    public void testNoBody() throws IOException {
+        Result result = parse("HTTP/1.1 304 Not Modified\r\nContent-Length: 100\r\n\r\n", 7, false);
+        assertEquals(304, result.parser.getResponseCode());
+        assertEquals("", result.body);
+
+        result = parse("HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n", 7, false);
+        assertEquals("", result.body);
+        assertTrue(result.parser.isKeepAlive());
+    }
+
+    @Test
+    public void testKeepAlive() throws IOException {
+        assertFalse(parse("HTTP/1.0 200 OK\r\nContent-Length: 1\r\n\r\nx", 100, false).parser.isKeepAlive());
+        assertTrue(parse("HTTP/1.0 200 OK\r\nConnection: Keep-Alive\r\nContent-Length: 1\r\n\r\nx", 100, false)
+                .parser.isKeepAlive());
+        assertFalse(parse("HTTP/1.1 200 OK\r\nConnection: close\r\nContent-Length: 1\r\n\r\nx", 100, false)
+                .parser.isKeepAlive());
+    }
+
+    @Test
+    public void testStopsAtEndOfResponse() throws IOException {
+        HttpResponseParser parser = new HttpResponseParser();
+        Sink sink = new Sink();
+        ByteBuffer data = bytes("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nokHTTP/1.1 200 OK\r\n");
+        parser.parse(data, sink);
+        assertTrue(parser.hasHeaders());
+        assertFalse(parser.isDone());
+        parser.parse(data, sink);
+        assertTrue(parser.isDone());
+        assertEquals("ok", sink.toString());
+        assertEquals("HTTP/1.1 200 OK\r\n".length(), data.remaining());
+    }
+
+    @Test(expected = EOFException.class)
+    public void testTruncatedBody() throws IOException {
+        parse("HTTP/1.1 200 OK\r\nContent-Length: 100\r\n\r\nshort", 100, true);
+    }
+
+    @Test(expected = EOFException.class)
+    public void testTruncatedChunk() throws IOException {
+        parse("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n10\r\nshort", 100, true);
+    }
+
+    @Test(expected = EOFException.class)
+    public void testMissingLastChunk() throws IOException {
+        parse("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n5\r\nhello\r\n", 100, true);
+    }
+
+    @Test(expected = EOFException.class)
+    public void testTruncatedHeaders() throws IOException {
+        parse("HTTP/1.1 200 OK\r\nContent-Le", 100, true);
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidStatusLine() throws IOException {
+        parse("HTTP/1.1 OK\r\n\r\n", 100, false);
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotHttp() throws IOException {
+        parse("SSH-2.0-OpenSSH\r\n\r\n", 100, false);
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidHeader() throws IOException {
+        parse("HTTP/1.1 200 OK\r\nno colon here\r\n\r\n", 100, false);
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidContentLength() throws IOException {
+        parse("HTTP/1.1 200 OK\r\nContent-Length: lots\r\n\r\n", 100, false);
+    }
+
+    @Test(expected = IOException.class)
+    public void testNegativeContentLength() throws IOException {
+        parse("HTTP/1.1 200 OK\r\nContent-Length: -5\r\n\r\nabc", 100, false);
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidChunkSize() throws IOException {
+        parse("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\nzz\r\n", 100, false);
+    }
+
+    @Test(expected = IOException.class)
+    public void testNegativeChunkSize() throws IOException {
+        parse("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n-5\r\nabc", 100, false);
+    }
+
+    @Test(expected = IOException.class)
+    public void testChunkLongerThanSize() throws IOException {
+        parse("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n3\r\nabcdef\r\n0\r\n\r\n", 100, false);
+    }
+
+    @Test(expected = IOException.class)
+    public void testLineTooLong() throws IOException {
+        StringBuilder builder = new StringBuilder("HTTP/1.1 200 OK\r\nX-Long: ");
+        for (int i = 0; i < 70000; i++) {
+            builder.append('x');
+        }
+        parse(builder.toString(), 1000, false);
+    }
+
+    private static Result parse(String response, int pieceSize, boolean close) throws IOException {
+        HttpResponseParser parser = new HttpResponseParser();
+        Sink sink = new Sink();
+        byte[] data = response.getBytes(Charsets.ISO_8859_1);
+        for (int offset = 0; offset < data.length && !parser.isDone(); offset += pieceSize) {
+            ByteBuffer buffer = ByteBuffer.wrap(data, offset, Math.min(pieceSize, data.length - offset));
+            while (buffer.hasRemaining() && !parser.isDone()) {
+                parser.parse(buffer, sink);
+            }
+        }
+        if (close) {
+            parser.finish();
+        }
+        assertTrue("the response was not complete", parser.isDone());
+        return new Result(parser, sink.toString());
+    }
+
+    private static ByteBuffer bytes(String text) {
+        return ByteBuffer.wrap(text.getBytes(Charsets.ISO_8859_1));
+    }
+
+    private static class Result {
+        private final HttpResponseParser parser;
+        private final String body;
+
+        private Result(HttpResponseParser parser, String body) {
+            this.parser = parser;
+            this.body = body;
+        }
+    }
+
+    private static class Sink implements HttpResponseParser.BodySink {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        @Override
+        public void write(ByteBuffer data) throws IOException {
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            out.write(bytes);
+        }
+
+        @Override
+        public String toString() {
+            return new String(out.toByteArray(), Charsets.ISO_8859_1);
+        }
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class InstallLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private File legacyFile;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "install.dat");
+        legacyFile = new File(folder.getRoot(), "install.json");
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        InstallLog log = createLog();
+        log.write(file);
+
+        InstallLog read = InstallLog.read(file);
+        assertEquals(log.getEntries(), read.getEntries());
+        assertTrue(read.has("mods/a.jar"));
+        assertTrue(read.has("config/pack/settings.cfg"));
+        assertTrue(read.has("libraries/lib/sub/c.class"));
+        assertFalse(read.has("libraries/lib.zip"));
+        assertTrue(read.hasGroup("libraries/lib.zip"));
+        assertTrue(read.hasGroup("config/pack/settings.cfg"));
+        assertFalse(read.hasGroup("libraries/lib/a.class"));
+        assertFalse(read.has("mods/missing.jar"));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        new InstallLog().write(file);
+        assertTrue(InstallLog.read(file).getEntries().isEmpty());
+    }
+
+    @Test
+    public void testFileBecomesGroup() throws IOException {
+        InstallLog log = new InstallLog();
+        log.add("archive.zip", "archive.zip");
+        log.add("archive.zip", "extracted/a.txt");
+        log.write(file);
+
+        Map<String, Set<String>> entries = InstallLog.read(file).getEntries();
+        assertEquals(1, entries.size());
+        assertEquals(new HashSet<String>(Arrays.asList("archive.zip", "extracted/a.txt")), entries.get("archive.zip"));
+    }
+
+    @Test
+    public void testCopyGroup() {
+        InstallLog log = createLog();
+        InstallLog copy = new InstallLog();
+        assertTrue(copy.copyGroupFrom(log, "mods/a.jar"));
+        assertTrue(copy.copyGroupFrom(log, "libraries/lib.zip"));
+        assertFalse(copy.copyGroupFrom(log, "mods/missing.jar"));
+        assertEquals(log.getEntries().get("libraries/lib.zip"), copy.getEntries().get("libraries/lib.zip"));
+        assertTrue(copy.has("mods/a.jar"));
+    }
+
+    @Test
+    public void testLegacyFormat() throws IOException {
+        Files.write("{\"entries\":{\"mods/a.jar\":[\"mods/a.jar\"],\"lib.zip\":[\"x/1\",\"x/2\"]}}",
+                legacyFile, Charsets.UTF_8);
+
+        InstallLog log = InstallLog.read(file, legacyFile);
+        assertTrue(log.has("mods/a.jar"));
+        assertTrue(log.has("x/2"));
+        assertEquals(2, log.getEntries().get("lib.zip").size());
+
+        // Once saved, the binary log is preferred
+        log.add("mods/b.jar", "mods/b.jar");
+        log.write(file);
+        assertTrue(InstallLog.read(file, legacyFile).has("mods/b.jar"));
+    }
+
+    @Test
+    public void testMissingFiles() {
+        assertTrue(InstallLog.read(file, legacyFile).getEntries().isEmpty());
+    }
+
+    @Test
+    public void testTruncated() throws IOException {
+        createLog().write(file);
+        byte[] data = Files.toByteArray(file);
+
+        for (int length = 0; length < data.length; length++) {
+            Files.write(Arrays.copyOf(data, length), file);
+            try {
+                InstallLog.read(file);
+                fail("a log cut to " + length + " of " + data.length + " bytes was read");
+            } catch (IOException expected) {
+            }
+            assertTrue(InstallLog.read(file, legacyFile).getEntries().isEmpty());
+        }
+    }
+
+    @Test
+    public void testCorrupted() throws IOException {
+        createLog().write(file);
+        byte[] data = Files.toByteArray(file);
+
+        // Damage must not cause anything other than an I/O error
+        for (int i = 0; i < data.length; i++) {
+            for (int bit = 0; bit < 8; bit++) {
+                byte[] corrupted = data.clone();
+                corrupted[i] ^= 1 << bit;
+                Files.write(corrupted, file);
+                try {
+                    InstallLog.read(file);
+                } catch (IOException expected) {
+                }
+            }
+        }
+    }
+
+    private static InstallLog createLog() {
+        InstallLog log = new InstallLog();
+        log.add("mods/a.jar", "mods/a.jar");
+        log.add("mods/b.jar", "mods/b.jar");
+        log.add("config/pack/settings.cfg", "config/pack/settings.cfg");
+        log.add("config/pack/other.cfg", "config/pack/other.cfg");
+        log.add("libraries/lib.zip", "libraries/lib/a.class");
+        log.add("libraries/lib.zip", "libraries/lib/b.class");
+        log.add("libraries/lib.zip", "libraries/lib/sub/c.class");
+        log.add("caf\u00e9/\u00fcber.txt", "caf\u00e9/\u00fcber.txt");
+        return log;
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class InstallTransactionTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File instanceDir;
+    private File stagingDir;
+
+    @Before
+    public void setUp() throws IOException {
+        instanceDir = folder.newFolder("instance");
+        stagingDir = new File(instanceDir, "staging");
+    }
+
+    @Test
+    public void testCommit() throws IOException {
+        File replaced = write(new File(instanceDir, "replaced.jar"), "old");
+        File removed = write(new File(instanceDir, "removed.jar"), "removed");
+        File added = new File(instanceDir, "mods/added.jar");
+
+        InstallTransaction transaction = new InstallTransaction(stagingDir);
+        write(transaction.stage(replaced), "new");
+        write(transaction.stage(added), "added");
+        transaction.delete(removed);
+        transaction.commit();
+
+        assertTrue(transaction.isCommitted());
+        assertEquals("new", read(replaced));
+        assertEquals("added", read(added));
+        assertFalse(removed.exists());
+        assertEmpty(stagingDir);
+    }
+
+    @Test
+    public void testRollback() throws IOException {
+        File replaced = write(new File(instanceDir, "replaced.jar"), "old");
+
+        InstallTransaction transaction = new InstallTransaction(stagingDir);
+        write(transaction.stage(replaced), "new");
+        transaction.rollback();
+
+        assertFalse(transaction.isCommitted());
+        assertEquals("old", read(replaced));
+        assertEmpty(stagingDir);
+    }
+
+    @Test
+    public void testStagedInstall() throws Exception {
+        File download = write(new File(folder.getRoot(), "download"), "added");
+        File target = new File(instanceDir, "mods/new/added.jar");
+
+        InstallTransaction transaction = new InstallTransaction(stagingDir);
+        Installer installer = new Installer(folder.newFolder("temp"));
+        installer.setTransaction(transaction);
+        InstallLog log = new InstallLog();
+        log.setBaseDir(instanceDir);
+        InstallLogFileMover mover = new InstallLogFileMover(log, download, target);
+        mover.setTransaction(transaction);
+        installer.queue(mover);
+        installer.execute();
+
+        // Nothing appears in the instance until the commit, not even the directory
+        assertFalse(target.getParentFile().exists());
+        transaction.commit();
+        assertEquals("added", read(target));
+    }
+
+    @Test
+    public void testRecoverWithoutRecord() throws IOException {
+        write(new File(stagingDir, "0"), "left over");
+
+        assertTrue(InstallTransaction.recover(stagingDir));
+        assertEmpty(stagingDir);
+        assertTrue(InstallTransaction.recover(new File(instanceDir, "missing")));
+    }
+
+    @Test
+    public void testRecoverInterruptedCommit() throws IOException {
+        // A commit that stopped after moving the first two files into place
+        File replaced = write(new File(instanceDir, "replaced.jar"), "new");
+        File added = write(new File(instanceDir, "added.jar"), "added");
+        File notReached = write(new File(instanceDir, "notreached.jar"), "untouched");
+
+        InstallTransaction.Record record = new InstallTransaction.Record();
+        record.getChanges().add(change(replaced, new File(stagingDir, "0"), write(new File(stagingDir, "0.old"), "old")));
+        record.getChanges().add(change(added, new File(stagingDir, "1"), new File(stagingDir, "1.old")));
+        record.getChanges().add(change(notReached, write(new File(stagingDir, "2"), "staged"),
+                new File(stagingDir, "2.old")));
+        writeRecord(record);
+
+        assertTrue(InstallTransaction.recover(stagingDir));
+        assertEquals("old", read(replaced));
+        assertFalse(added.exists());
+        assertEquals("untouched", read(notReached));
+        assertEmpty(stagingDir);
+    }
+
+    @Test
+    public void testRecoverFailure() throws IOException {
+        // The file can't be put back because its parent is now a file
+        File parent = write(new File(instanceDir, "config"), "not a directory");
+        File target = new File(parent, "settings.cfg");
+        File backup = write(new File(stagingDir, "0.old"), "old");
+
+        InstallTransaction.Record record = new InstallTransaction.Record();
+        record.getChanges().add(change(target, new File(stagingDir, "0"), backup));
+        writeRecord(record);
+
+        assertFalse(InstallTransaction.recover(stagingDir));
+        assertTrue(backup.exists());
+        assertTrue(new File(stagingDir, "commit.json").exists());
+
+        // Once the problem is fixed, the rollback can finish
+        assertTrue(parent.delete());
+        assertTrue(InstallTransaction.recover(stagingDir));
+        assertEquals("old", read(target));
+        assertEmpty(stagingDir);
+    }
+
+    @Test
+    public void testUnreadableRecord() throws IOException {
+        File backup = write(new File(stagingDir, "0.old"), "old");
+        write(new File(stagingDir, "commit.json"), "{\"changes\": [");
+
+        assertFalse(InstallTransaction.recover(stagingDir));
+        assertTrue(backup.exists());
+
+        // Opening a transaction keeps the files too
+        new InstallTransaction(stagingDir);
+        assertTrue(backup.exists());
+    }
+
+    private void writeRecord(InstallTransaction.Record record) throws IOException {
+        new ObjectMapper().writeValue(new File(stagingDir, "commit.json"), record);
+    }
+
+    private static InstallTransaction.Change change(File target, File staged, File backup) {
+        InstallTransaction.Change change = new InstallTransaction.Change();
+        change.setTarget(target.getAbsolutePath());
+        change.setStaged(staged.getAbsolutePath());
+        change.setBackup(backup.getAbsolutePath());
+        return change;
+    }
+
+    private static File write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        Files.write(content, file, Charsets.UTF_8);
+        return file;
+    }
+
+    private static String read(File file) throws IOException {
+        return Files.toString(file, Charsets.UTF_8);
+    }
+
+    private static void assertEmpty(File dir) {
+        String[] names = dir.list();
+        assertTrue(names == null || names.length == 0);
+    }
+
+}
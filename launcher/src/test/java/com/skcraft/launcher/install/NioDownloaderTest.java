@@ -0,0 +1,399 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.skcraft.launcher.util.BandwidthLimiter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.security.KeyStore;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class NioDownloaderTest {
+
+    private static final char[] PASSWORD = "password".toCharArray();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TestServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new TestServer();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        BandwidthLimiter.setLimits(0, 0, 0);
+    }
+
+    @Test
+    public void testManyFiles() throws Exception {
+        NioDownloader downloader = createDownloader();
+        Map<File, byte[]> expected = new HashMap<File, byte[]>();
+        Random random = new Random(1);
+        for (int i = 0; i < 300; i++) {
+            byte[] data = new byte[random.nextInt(20000)];
+            random.nextBytes(data);
+            server.put("file" + i, data);
+            File file = downloader.download(server.url("/files/file" + i), "file" + i, data.length,
+                    sha1(data), null);
+            expected.put(file, data);
+        }
+
+        downloader.execute();
+
+        for (Map.Entry<File, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getValue(), Files.toByteArray(entry.getKey()));
+        }
+        assertEquals(300, server.requests.get());
+        // Kept-alive connections are reused, and never more than the per-host limit are open
+        assertTrue(server.ports.size() <= 16);
+        assertTrue(server.maxInFlight.get() <= 16);
+    }
+
+    @Test
+    public void testConcurrency() throws Exception {
+        server.latency = 20;
+        NioDownloader downloader = createDownloader();
+        downloader.setConcurrency(2, 2);
+        for (int i = 0; i < 20; i++) {
+            server.put("file" + i, new byte[100]);
+            downloader.download(server.url("/files/file" + i), "file" + i, 100, null);
+        }
+
+        downloader.execute();
+
+        assertEquals(20, server.requests.get());
+        assertEquals(2, server.maxInFlight.get());
+        assertTrue(server.ports.size() <= 2);
+    }
+
+    @Test
+    public void testRedirectAndChunked() throws Exception {
+        byte[] data = new byte[50000];
+        new Random(2).nextBytes(data);
+        server.put("chunked", data);
+
+        NioDownloader downloader = createDownloader();
+        File redirected = downloader.download(server.url("/redirect/chunked"), "redirected", data.length,
+                sha1(data), null);
+        File chunked = downloader.download(server.url("/chunked/chunked"), "chunked", data.length,
+                sha1(data), null);
+        downloader.execute();
+
+        assertArrayEquals(data, Files.toByteArray(redirected));
+        assertArrayEquals(data, Files.toByteArray(chunked));
+    }
+
+    @Test
+    public void testFallsBackToMirror() throws Exception {
+        byte[] data = "mirrored".getBytes("UTF-8");
+        server.put("mirrored", data);
+
+        NioDownloader downloader = createDownloader();
+        List<URL> urls = Arrays.asList(server.url("/missing/mirrored"), server.url("/files/mirrored"));
+        File file = downloader.download(urls, "mirrored", data.length, sha1(data), null);
+        downloader.execute();
+
+        assertArrayEquals(data, Files.toByteArray(file));
+        // A missing file isn't worth asking for again
+        assertEquals(1, server.count("/missing/mirrored"));
+    }
+
+    @Test
+    public void testHashMismatch() throws Exception {
+        byte[] data = "expected".getBytes("UTF-8");
+        server.put("corrupt", "corrupted".getBytes("UTF-8"));
+
+        NioDownloader downloader = createDownloader();
+        File file = downloader.download(server.url("/files/corrupt"), "corrupt", data.length, sha1(data), null);
+        try {
+            downloader.execute();
+            fail("the corrupt file was accepted");
+        } catch (IOException expected) {
+        }
+
+        assertFalse(file.exists());
+        assertEquals(2, server.count("/files/corrupt"));
+        assertEquals(1, downloader.getSnapshot().getFailedCount());
+    }
+
+    @Test
+    public void testBandwidthLimit() throws Exception {
+        byte[] data = new byte[384 * 1024];
+        new Random(3).nextBytes(data);
+        server.put("limited", data);
+        BandwidthLimiter.setLimits(0, 128, 0);
+
+        NioDownloader downloader = createDownloader();
+        File file = downloader.download(server.url("/files/limited"), "limited", data.length, sha1(data), null);
+        long start = System.currentTimeMillis();
+        downloader.execute();
+
+        assertTrue(System.currentTimeMillis() - start >= 2000);
+        assertArrayEquals(data, Files.toByteArray(file));
+    }
+
+    /**
+     * Compare the two engines on many small files from a server with some
+     * latency, printing the time taken and the number of threads used.
+     * Run with -Dlauncher.benchmark=true.
+     */
+    @Test
+    public void benchmark() throws Exception {
+        assumeTrue(Boolean.getBoolean("launcher.benchmark"));
+
+        byte[] data = new byte[16 * 1024];
+        new Random(4).nextBytes(data);
+        String hash = sha1(data);
+        server.put("asset", data);
+        server.latency = 50;
+
+        for (DownloadEngine engine : DownloadEngine.values()) {
+            for (int limit : new int[] { 16, 64, 256 }) {
+                Downloader downloader = engine.createDownloader(folder.newFolder());
+                downloader.setConcurrency(limit, limit);
+                for (int i = 0; i < 3000; i++) {
+                    downloader.download(server.url("/files/asset?" + i), "asset" + i, data.length, hash, null);
+                }
+
+                int threads = Thread.activeCount();
+                ThreadSampler sampler = new ThreadSampler();
+                sampler.start();
+                long start = System.currentTimeMillis();
+                downloader.execute();
+                long elapsed = System.currentTimeMillis() - start;
+                sampler.interrupt();
+                sampler.join();
+
+                System.out.println(String.format("%s, %d per host: %d ms, %d extra threads",
+                        engine, limit, elapsed, sampler.peak - threads));
+            }
+        }
+    }
+
+    @Test
+    public void testTls() throws Exception {
+        byte[] data = "secure".getBytes("UTF-8");
+        File file = downloadOverTls("localhost.jks", data);
+        assertArrayEquals(data, Files.toByteArray(file));
+    }
+
+    @Test
+    public void testTlsWrongHost() throws Exception {
+        try {
+            downloadOverTls("wrong-host.jks", "intercepted".getBytes("UTF-8"));
+            fail("a certificate for another host was accepted");
+        } catch (IOException expected) {
+        }
+    }
+
+    /**
+     * Download a file without a hash from a HTTPS server that has the
+     * certificate in the given key store, which is trusted.
+     */
+    private File downloadOverTls(String keyStoreName, byte[] data) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        InputStream in = getClass().getResourceAsStream(keyStoreName);
+        try {
+            keyStore.load(in, PASSWORD);
+        } finally {
+            in.close();
+        }
+
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, PASSWORD);
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(keyStore);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagers.getKeyManagers(), trustManagers.getTrustManagers(), null);
+
+        TestServer tlsServer = new TestServer(context);
+        SSLContext previous = SSLContext.getDefault();
+        SSLContext.setDefault(context);
+        try {
+            tlsServer.put("secure", data);
+            NioDownloader downloader = createDownloader();
+            File file = downloader.download(tlsServer.url("/files/secure"), "secure", data.length, null);
+            downloader.execute();
+            return file;
+        } finally {
+            SSLContext.setDefault(previous);
+            tlsServer.stop();
+        }
+    }
+
+    private NioDownloader createDownloader() throws IOException {
+        NioDownloader downloader = new NioDownloader(folder.newFolder());
+        BackoffRetryPolicy retryPolicy = new BackoffRetryPolicy();
+        retryPolicy.setMaxAttempts(2);
+        retryPolicy.setBaseDelay(10);
+        downloader.setRetryPolicy(retryPolicy);
+        return downloader;
+    }
+
+    private static String sha1(byte[] data) {
+        return Hashing.sha1().hashBytes(data).toString();
+    }
+
+    private static class ThreadSampler extends Thread {
+        private volatile int peak;
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                peak = Math.max(peak, Thread.activeCount());
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Serves files under several paths:
+     * <ul>
+     *     <li>/files/ with a Content-Length</li>
+     *     <li>/chunked/ with a chunked body</li>
+     *     <li>/redirect/ with a redirect to /files/</li>
+     *     <li>/missing/ with a 404</li>
+     * </ul>
+     */
+    private static class TestServer implements HttpHandler {
+        private final HttpServer server;
+        private final ExecutorService executor = Executors.newCachedThreadPool();
+        private final Map<String, byte[]> files = new ConcurrentHashMap<String, byte[]>();
+        private final Map<String, AtomicInteger> counts = new ConcurrentHashMap<String, AtomicInteger>();
+        private final Set<Integer> ports = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        private final AtomicInteger requests = new AtomicInteger();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+        private volatile long latency;
+
+        private TestServer() throws IOException {
+            this(null);
+        }
+
+        private TestServer(SSLContext context) throws IOException {
+            InetSocketAddress address = new InetSocketAddress("127.0.0.1", 0);
+            if (context != null) {
+                HttpsServer httpsServer = HttpsServer.create(address, 1000);
+                httpsServer.setHttpsConfigurator(new HttpsConfigurator(context));
+                server = httpsServer;
+            } else {
+                server = HttpServer.create(address, 1000);
+            }
+            server.createContext("/", this);
+            server.setExecutor(executor);
+            server.start();
+        }
+
+        private void put(String name, byte[] data) {
+            files.put(name, data);
+        }
+
+        private URL url(String path) throws IOException {
+            String scheme = server instanceof HttpsServer ? "https" : "http";
+            return new URL(scheme + "://127.0.0.1:" + server.getAddress().getPort() + path);
+        }
+
+        private int count(String path) {
+            AtomicInteger count = counts.get(path);
+            return count != null ? count.get() : 0;
+        }
+
+        private void stop() {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            int current = inFlight.incrementAndGet();
+            boolean counted = true;
+            try {
+                synchronized (maxInFlight) {
+                    maxInFlight.set(Math.max(maxInFlight.get(), current));
+                }
+                requests.incrementAndGet();
+                ports.add(exchange.getRemoteAddress().getPort());
+
+                String path = exchange.getRequestURI().getPath();
+                synchronized (counts) {
+                    if (!counts.containsKey(path)) {
+                        counts.put(path, new AtomicInteger());
+                    }
+                }
+                counts.get(path).incrementAndGet();
+
+                if (latency > 0) {
+                    try {
+                        Thread.sleep(latency);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+
+                String[] parts = path.split("/", 3);
+                byte[] data = parts.length == 3 ? files.get(parts[2]) : null;
+
+                // The client may send its next request as soon as it has read the response
+                inFlight.decrementAndGet();
+                counted = false;
+
+                if (data == null || parts[1].equals("missing")) {
+                    exchange.sendResponseHeaders(404, -1);
+                } else if (parts[1].equals("redirect")) {
+                    exchange.getResponseHeaders().set("Location", "/files/" + parts[2]);
+                    exchange.sendResponseHeaders(302, -1);
+                } else {
+                    exchange.sendResponseHeaders(200, parts[1].equals("chunked") ? 0 : data.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(data);
+                    out.close();
+                }
+            } finally {
+                if (counted) {
+                    inFlight.decrementAndGet();
+                }
+                exchange.close();
+            }
+        }
+    }
+
+}
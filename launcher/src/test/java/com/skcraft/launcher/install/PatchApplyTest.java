@@ -0,0 +1,119 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.skcraft.launcher.util.BinaryDelta;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PatchApplyTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private byte[] source;
+    private byte[] target;
+    private String hash;
+    private ObjectStore objectStore;
+
+    @Before
+    public void setUp() throws IOException {
+        source = random(20000, 1);
+        target = Arrays.copyOf(source, 25000);
+        System.arraycopy(random(5000, 2), 0, target, 20000, 5000);
+        hash = Hashing.sha1().hashBytes(target).toString();
+        objectStore = new ObjectStore(folder.newFolder("objects"));
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 10);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                exchange.sendResponseHeaders(200, target.length);
+                exchange.getResponseBody().write(target);
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testPatch() throws Exception {
+        createTask(source, diff(source, target)).execute();
+
+        assertArrayEquals(target, Files.toByteArray(objectStore.getPath(hash)));
+        assertEquals(0, requests.get());
+    }
+
+    @Test
+    public void testMissingPatch() throws Exception {
+        createTask(source, null).execute();
+
+        assertArrayEquals(target, Files.toByteArray(objectStore.getPath(hash)));
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void testWrongResult() throws Exception {
+        // A patch that was published for the wrong version of the file
+        byte[] other = random(25000, 3);
+        createTask(source, diff(source, other)).execute();
+
+        assertArrayEquals(target, Files.toByteArray(objectStore.getPath(hash)));
+        assertEquals(1, requests.get());
+    }
+
+    private PatchApply createTask(byte[] sourceData, byte[] patchData) throws IOException {
+        File sourceFile = folder.newFile("source");
+        Files.write(sourceData, sourceFile);
+        File patchFile = new File(folder.getRoot(), "patch");
+        if (patchData != null) {
+            Files.write(patchData, patchFile);
+        }
+        URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/objects/" + hash);
+        return new PatchApply(sourceFile, patchFile, objectStore, hash, Arrays.asList(url), folder.newFolder("temp"));
+    }
+
+    private static byte[] diff(byte[] source, byte[] target) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryDelta.diff(source, target, out);
+        return out.toByteArray();
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+}
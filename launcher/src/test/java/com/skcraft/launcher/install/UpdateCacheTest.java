@@ -0,0 +1,168 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.install;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class UpdateCacheTest {
+
+    private static final String HASH = "0123456789abcdef0123456789abcdef01234567";
+    private static final String OTHER_HASH = "fedcba9876543210fedcba9876543210fedcba98";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private File legacyFile;
+    private File installed;
+
+    @Before
+    public void setUp() throws IOException {
+        file = new File(folder.getRoot(), "update.dat");
+        legacyFile = new File(folder.getRoot(), "update.json");
+        installed = folder.newFile("installed.jar");
+        Files.write("installed", installed, Charsets.UTF_8);
+    }
+
+    @Test
+    public void testMark() {
+        UpdateCache cache = new UpdateCache();
+        assertTrue(cache.mark("a", "1"));
+        assertFalse(cache.mark("a", "1"));
+        assertTrue(cache.mark("a", "2"));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        createCache().write(file);
+
+        UpdateCache cache = UpdateCache.read(file);
+        assertFalse(cache.mark("mods/a.jar", HASH));
+        assertFalse(cache.mark("mods/upper.jar", HASH.toUpperCase()));
+        assertFalse(cache.mark("config/b.cfg", "1.7.10"));
+        assertFalse(cache.mark("config/c.cfg", ""));
+        assertTrue(cache.mark("mods/unmarked.jar", HASH));
+        assertEquals(OTHER_HASH, cache.getVerifiedHash("mods/a.jar", installed));
+        assertEquals("not-a-sha1", cache.getVerifiedHash("mods/odd.jar", installed));
+        assertNull(cache.getVerifiedHash("config/b.cfg", installed));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void testPublishedHash() throws IOException {
+        URL url = new URL("http://example.com/libraries/a.jar");
+        UpdateCache cache = new UpdateCache();
+        assertNull(cache.getPublishedHash(url));
+        cache.setPublishedHash(url, HASH);
+        cache.write(file);
+
+        cache = UpdateCache.read(file);
+        assertEquals(HASH, cache.getPublishedHash(url));
+        assertNull(cache.getPublishedHash(new URL("http://example.com/libraries/b.jar")));
+        // Published hashes are kept apart from the files of the instance
+        assertTrue(cache.mark(url.toExternalForm(), HASH));
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        new UpdateCache().write(file);
+        assertTrue(UpdateCache.read(file).mark("a", "1"));
+    }
+
+    @Test
+    public void testVerifiedHashExpires() throws IOException {
+        UpdateCache cache = new UpdateCache();
+        cache.markVerified("mods/a.jar", installed, HASH);
+        assertEquals(HASH, cache.getVerifiedHash("mods/a.jar", installed));
+
+        assertTrue(installed.setLastModified(installed.lastModified() - 10000));
+        assertNull(cache.getVerifiedHash("mods/a.jar", installed));
+
+        cache.markVerified("mods/a.jar", installed, HASH);
+        Files.append("more", installed, Charsets.UTF_8);
+        assertNull(cache.getVerifiedHash("mods/a.jar", installed));
+    }
+
+    @Test
+    public void testLegacyFormat() throws IOException {
+        Files.write("{\"cache\":{\"mods/a.jar\":\"" + HASH + "\",\"config/b.cfg\":\"1.0\"},\"unknown\":1}",
+                legacyFile, Charsets.UTF_8);
+
+        UpdateCache cache = UpdateCache.read(file, legacyFile);
+        assertFalse(cache.mark("mods/a.jar", HASH));
+        assertFalse(cache.mark("config/b.cfg", "1.0"));
+        assertTrue(cache.mark("config/b.cfg", "2.0"));
+
+        // Once saved, the binary cache is preferred
+        cache.write(file);
+        assertFalse(UpdateCache.read(file, legacyFile).mark("config/b.cfg", "2.0"));
+    }
+
+    @Test
+    public void testMissingFiles() {
+        assertTrue(UpdateCache.read(file, legacyFile).mark("a", "1"));
+    }
+
+    @Test
+    public void testTruncated() throws IOException {
+        createCache().write(file);
+        byte[] data = Files.toByteArray(file);
+
+        for (int length = 0; length < data.length; length++) {
+            Files.write(Arrays.copyOf(data, length), file);
+            try {
+                UpdateCache.read(file);
+                fail("a cache cut to " + length + " of " + data.length + " bytes was read");
+            } catch (IOException expected) {
+            }
+            assertTrue(UpdateCache.read(file, legacyFile).mark("mods/a.jar", HASH));
+        }
+    }
+
+    @Test
+    public void testCorrupted() throws IOException {
+        createCache().write(file);
+        byte[] data = Files.toByteArray(file);
+
+        // Damage must not cause anything other than an I/O error
+        for (int i = 0; i < data.length; i++) {
+            for (int bit = 0; bit < 8; bit++) {
+                byte[] corrupted = data.clone();
+                corrupted[i] ^= 1 << bit;
+                Files.write(corrupted, file);
+                try {
+                    UpdateCache.read(file);
+                } catch (IOException expected) {
+                }
+            }
+        }
+    }
+
+    private UpdateCache createCache() {
+        UpdateCache cache = new UpdateCache();
+        cache.mark("mods/a.jar", HASH);
+        cache.mark("mods/upper.jar", HASH.toUpperCase());
+        cache.mark("config/b.cfg", "1.7.10");
+        cache.mark("config/c.cfg", "");
+        cache.markVerified("mods/a.jar", installed, OTHER_HASH);
+        cache.markVerified("mods/odd.jar", installed, "not-a-sha1");
+        return cache;
+    }
+
+}
@@ -0,0 +1,188 @@
+/*
+ * SK's Minecraft Launcher
+ * Copyright (C) 2010-2014 Albert Pham <http://www.sk89q.com> and contributors
+ * Please see LICENSE.txt for license information.
+ */
+
+package com.skcraft.launcher.util;
+
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BinaryDeltaTest {
+
+    private File sourceFile;
+
+    @Before
+    public void setUp() throws IOException {
+        sourceFile = File.createTempFile("delta", ".bin");
+    }
+
+    @After
+    public void tearDown() {
+        sourceFile.delete();
+    }
+
+    @Test
+    public void testIdentical() throws IOException {
+        byte[] data = random(100000, 1);
+        byte[] patch = diff(data, data);
+        assertArrayEquals(data, apply(data, patch));
+        assertTrue("patch of an unchanged file should be tiny", patch.length < 100);
+    }
+
+    @Test
+    public void testEmptyFiles() throws IOException {
+        byte[] data = random(5000, 2);
+        assertArrayEquals(new byte[0], apply(data, diff(data, new byte[0])));
+        assertArrayEquals(data, apply(new byte[0], diff(new byte[0], data)));
+        assertArrayEquals(new byte[0], apply(new byte[0], diff(new byte[0], new byte[0])));
+    }
+
+    @Test
+    public void testSmallerThanBlock() throws IOException {
+        byte[] source = random(100, 3);
+        byte[] target = random(300, 4);
+        assertArrayEquals(target, apply(source, diff(source, target)));
+    }
+
+    @Test
+    public void testMovedRegion() throws IOException {
+        byte[] source = random(200000, 5);
+        // Insert new bytes near the start, which moves everything after them
+        byte[] inserted = random(1234, 6);
+        byte[] target = new byte[source.length + inserted.length];
+        System.arraycopy(source, 0, target, 0, 1000);
+        System.arraycopy(inserted, 0, target, 1000, inserted.length);
+        System.arraycopy(source, 1000, target, 1000 + inserted.length, source.length - 1000);
+
+        byte[] patch = diff(source, target);
+        assertArrayEquals(target, apply(source, patch));
+        assertTrue("patch should not contain the moved data", patch.length < 5000);
+    }
+
+    @Test
+    public void testRandomEdits() throws IOException {
+        Random random = new Random(7);
+        for (int round = 0; round < 20; round++) {
+            byte[] source = random(random.nextInt(50000), random.nextLong());
+            byte[] target = source.clone();
+            for (int i = 0; i < 10 && target.length > 0; i++) {
+                target[random.nextInt(target.length)] = (byte) random.nextInt();
+            }
+            if (random.nextBoolean()) {
+                target = Arrays.copyOf(target, target.length + random.nextInt(2000));
+            }
+            assertArrayEquals(target, apply(source, diff(source, target)));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testWrongSource() throws IOException {
+        byte[] source = random(10000, 8);
+        byte[] patch = diff(source, random(10000, 9));
+        apply(random(9999, 8), patch);
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotAPatch() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(bos);
+        gzip.write(random(100, 10));
+        gzip.close();
+        apply(new byte[0], bos.toByteArray());
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncated() throws IOException {
+        byte[] source = random(10000, 11);
+        byte[] patch = diff(source, random(20000, 12));
+        apply(source, Arrays.copyOf(patch, patch.length / 2));
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissingChecksum() throws IOException {
+        byte[] source = random(10000, 13);
+        byte[] patch = diff(source, random(20000, 14));
+        // Drop the gzip trailer, which holds the checksum and length
+        apply(source, Arrays.copyOf(patch, patch.length - 8));
+    }
+
+    @Test
+    public void testCorrupted() throws IOException {
+        byte[] source = random(30000, 15);
+        byte[] target = random(30000, 16);
+        System.arraycopy(source, 0, target, 10000, 10000);
+        byte[] patch = diff(source, target);
+
+        for (int i = 10; i < patch.length; i += Math.max(1, patch.length / 50)) {
+            byte[] corrupted = patch.clone();
+            corrupted[i] ^= 0x55;
+            try {
+                byte[] result = apply(source, corrupted);
+                throw new AssertionError("corruption at byte " + i + " was not detected, " +
+                        (Arrays.equals(result, target) ? "but the output is still right" : "and the output is wrong"));
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testCopyOutsideSource() throws IOException {
+        byte[] source = random(1000, 17);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(new GZIPOutputStream(bos));
+        dos.writeInt(0x534b4450);
+        dos.writeLong(source.length);
+        dos.writeLong(600);
+        dos.writeByte(1); // Copy
+        dos.writeLong(500);
+        dos.writeInt(600);
+        dos.writeByte(0); // End
+        dos.close();
+        apply(source, bos.toByteArray());
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownInstruction() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(new GZIPOutputStream(bos));
+        dos.writeInt(0x534b4450);
+        dos.writeLong(0);
+        dos.writeLong(0);
+        dos.writeByte(9);
+        dos.close();
+        apply(new byte[0], bos.toByteArray());
+    }
+
+    private byte[] diff(byte[] source, byte[] target) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        BinaryDelta.diff(source, target, bos);
+        return bos.toByteArray();
+    }
+
+    private byte[] apply(byte[] source, byte[] patch) throws IOException {
+        Files.write(source, sourceFile);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        BinaryDelta.patch(sourceFile, new ByteArrayInputStream(patch), bos);
+        return bos.toByteArray();
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+}